@@ -0,0 +1,169 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/** A comment left on the portfolio, as stored in a {@code Comment} entity. */
+public final class Comment implements Serializable {
+  public static final String KIND = "Comment";
+  /** Property set on comments whose score is a local estimate, until they are rescored. */
+  public static final String APPROXIMATE_PROPERTY = "scoreApproximate";
+
+  private static final long serialVersionUID = 1L;
+
+  private final long id;
+  private final String email;
+  private final String text;
+  // Null until the comment has been scored.
+  private final Float score;
+  private final boolean approximate;
+  private final long timestamp;
+  // The JSON form, encoded on first use and then shared by every response that includes this
+  // comment. Comments are immutable, so a race only encodes it twice.
+  private transient volatile byte[] json;
+
+  public Comment(long id, String email, String text, Float score, long timestamp) {
+    this(id, email, text, score, false, timestamp);
+  }
+
+  public Comment(long id, String email, String text, Float score, boolean approximate,
+      long timestamp) {
+    this.id = id;
+    this.email = email;
+    this.text = text;
+    this.score = score;
+    this.approximate = approximate;
+    this.timestamp = timestamp;
+  }
+
+  /** Reads a comment from a {@code Comment} entity. */
+  public static Comment fromEntity(Entity entity) {
+    Object score = entity.getProperty("score");
+    Object timestamp = entity.getProperty("timestamp");
+    return new Comment(
+        entity.getKey().getId(),
+        (String) entity.getProperty("email"),
+        (String) entity.getProperty("text"),
+        score == null ? null : ((Number) score).floatValue(),
+        Boolean.TRUE.equals(entity.getProperty(APPROXIMATE_PROPERTY)),
+        timestamp == null ? 0 : ((Number) timestamp).longValue());
+  }
+
+  /**
+   * Returns this comment as a {@code Comment} entity with its id, the inverse of {@link
+   * #fromEntity}.
+   */
+  public Entity toEntity() {
+    Entity entity = new Entity(KIND, id);
+    setProperties(entity, email, text, score, approximate, timestamp);
+    return entity;
+  }
+
+  /**
+   * Sets the properties of a comment on {@code entity}. A comment without a score, or with an
+   * approximate one, is marked pending so that it gets scored.
+   */
+  static void setProperties(Entity entity, String email, String text, Float score,
+      boolean approximate, long timestamp) {
+    entity.setProperty("text", text);
+    entity.setProperty("timestamp", timestamp);
+    entity.setProperty("email", email);
+    if (score != null) {
+      entity.setProperty("score", score);
+    }
+    if (score == null || approximate) {
+      // An estimated score is shown until the backfill replaces it.
+      SentimentBackfill.markPending(entity);
+    }
+    if (score != null && approximate) {
+      entity.setProperty(APPROXIMATE_PROPERTY, true);
+    }
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getEmail() {
+    return email;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  /** Returns the sentiment score, or null if the comment hasn't been scored yet. */
+  public Float getScore() {
+    return score;
+  }
+
+  /** Returns whether the score is a local estimate that is still to be replaced. */
+  public boolean isApproximate() {
+    return approximate;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /** Returns a copy of this comment with {@code score} filled in, no longer approximate. */
+  public Comment withScore(float score) {
+    return new Comment(id, email, text, score, timestamp);
+  }
+
+  /**
+   * Returns this comment as a UTF-8 encoded JSON object, the same as {@link #writeJson} writes.
+   * It is encoded once per comment, so cached comments are served without formatting them again.
+   * The array is shared and must not be modified.
+   */
+  public byte[] toJsonBytes() {
+    byte[] bytes = json;
+    if (bytes == null) {
+      StringWriter out = new StringWriter();
+      try {
+        writeJson(new JsonWriter(out));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+      json = bytes;
+    }
+    return bytes;
+  }
+
+  /** Writes this comment as one JSON object; a missing score is written as null. */
+  public void writeJson(JsonWriter writer) throws IOException {
+    writer.beginObject();
+    writer.name("id").value(id);
+    writer.name("email").value(email);
+    writer.name("text").value(text);
+    writer.name("score");
+    if (score == null) {
+      writer.nullValue();
+    } else {
+      writer.value(score);
+    }
+    writer.name("approximate").value(approximate);
+    writer.name("timestamp").value(timestamp);
+    writer.endObject();
+  }
+}
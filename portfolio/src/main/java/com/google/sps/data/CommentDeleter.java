@@ -0,0 +1,367 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilter;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.sps.data.CommentRepository.Deletion;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes the comments that match a {@link Filter}, for example every comment posted before a
+ * deletion was requested. Comment keys are read with a keys-only query and deleted in batches, so
+ * no comment is ever loaded. A few batches run in the
+ * requesting thread; larger deletions carry on in the background. Progress is kept in a {@code
+ * CommentDeletion} entity after every batch, so a deletion interrupted by a restart resumes where
+ * it stopped. Each running deletion is leased to one deleter, which renews the lease with every
+ * batch; other instances leave it alone until the lease lapses, and then take it over.
+ */
+public final class CommentDeleter {
+  /** Datastore kind that records each deletion's progress. */
+  public static final String JOB_KIND = "CommentDeletion";
+
+  private static final Logger logger = Logger.getLogger(CommentDeleter.class.getName());
+  // How long a deletion stays with its deleter without progress before another may take it.
+  private static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final DatastoreService datastore;
+  private final Consumer<List<Long>> afterBatch;
+  private final CommentShards shards;
+  private final int batchSize;
+  private final int inlineBatches;
+  private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor();
+  // Identifies this deleter in the leases of the deletions it runs.
+  private final String owner = UUID.randomUUID().toString();
+
+  /**
+   * Selects the comments to delete: those posted before a time, by an author, with a score below a
+   * threshold, or a combination. Datastore allows only one inequality per query, so comments can be
+   * selected by age or by score but not both.
+   */
+  public static final class Filter {
+    private final Long before;
+    private final String email;
+    private final Double maxScore;
+
+    /** Creates a filter; pass null for the conditions that don't apply. */
+    public Filter(Long before, String email, Double maxScore) {
+      if (before == null && email == null && maxScore == null) {
+        throw new IllegalArgumentException("A purge needs at least one condition.");
+      }
+      if (before != null && maxScore != null) {
+        throw new IllegalArgumentException("Comments can be purged by age or by score, not both.");
+      }
+      this.before = before;
+      this.email = email;
+      this.maxScore = maxScore;
+    }
+
+    private static Filter fromJob(Entity job) {
+      return new Filter((Long) job.getProperty("before"), (String) job.getProperty("email"),
+          (Double) job.getProperty("maxScore"));
+    }
+
+    private void writeTo(Entity job) {
+      job.setProperty("before", before);
+      job.setProperty("email", email);
+      job.setProperty("maxScore", maxScore);
+    }
+
+    /**
+     * Returns the query filter of one stage of the deletion: stage 0 selects by the indexed
+     * timestamp, and later stages select by the sort key of one shard each.
+     */
+    private Query.Filter toQueryFilter(CommentShards shards, int stage) {
+      List<Query.Filter> conditions = new ArrayList<>();
+      if (before != null) {
+        conditions.add(stage == 0
+            ? new FilterPredicate("timestamp", FilterOperator.LESS_THAN, before)
+            : shards.range(stage - 1, before));
+      }
+      if (email != null) {
+        conditions.add(new FilterPredicate("email", FilterOperator.EQUAL, email));
+      }
+      if (maxScore != null) {
+        // Comments waiting for a score have no score property, so they never match.
+        conditions.add(new FilterPredicate("score", FilterOperator.LESS_THAN, maxScore));
+      }
+      return conditions.size() == 1
+          ? conditions.get(0) : new CompositeFilter(CompositeFilterOperator.AND, conditions);
+    }
+  }
+
+  /**
+   * Creates a deleter that deletes {@code batchSize} comments per call and runs at most {@code
+   * inlineBatches} batches before moving the rest of a deletion to the background. {@code
+   * afterBatch} gets the ids deleted by every batch, for example to drop cached comments.
+   */
+  public CommentDeleter(DatastoreService datastore, Consumer<List<Long>> afterBatch,
+      CommentShards shards, int batchSize, int inlineBatches) {
+    this.datastore = datastore;
+    this.afterBatch = afterBatch;
+    this.shards = shards;
+    this.batchSize = batchSize;
+    this.inlineBatches = inlineBatches;
+  }
+
+  /** Creates a deleter configured from {@code comments.delete*} system properties. */
+  public static CommentDeleter fromSystemProperties(
+      DatastoreService datastore, Consumer<List<Long>> afterBatch) {
+    return new CommentDeleter(datastore, afterBatch, CommentShards.fromSystemProperties(),
+        Integer.getInteger("comments.deleteBatchSize", 500),
+        Integer.getInteger("comments.deleteInlineBatches", 2));
+  }
+
+  /**
+   * Deletes every comment posted until now. Comments posted while the deletion runs are kept.
+   */
+  public Deletion deleteAll() {
+    return purge(new Filter(System.currentTimeMillis() + 1, null, null));
+  }
+
+  /**
+   * Deletes the comments that match {@code filter}. Returns once the deletion is done or has been
+   * moved to the background; check on the latter with {@link #get}.
+   */
+  public Deletion purge(Filter filter) {
+    Entity job = new Entity(JOB_KIND);
+    job.setProperty("status", Deletion.RUNNING);
+    filter.writeTo(job);
+    job.setProperty("deleted", 0L);
+    job.setUnindexedProperty("owner", owner);
+    job.setUnindexedProperty("leaseUntil", System.currentTimeMillis() + LEASE_MILLIS);
+    datastore.put(job);
+    if (!run(job, inlineBatches)) {
+      resume(job.getKey());
+    }
+    return toDeletion(job);
+  }
+
+  /** Returns the progress of deletion {@code id}, or null if there is no such deletion. */
+  public Deletion get(long id) {
+    try {
+      return toDeletion(datastore.get(KeyFactory.createKey(JOB_KIND, id)));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns when the deletion that finished last did, in milliseconds since the epoch, or 0 if none
+   * has finished. Deletions run by any instance count.
+   */
+  public long lastFinished() {
+    Query query = new Query(JOB_KIND).addSort("finishedAt", SortDirection.DESCENDING);
+    List<Entity> last = datastore.prepare(query).asList(FetchOptions.Builder.withLimit(1));
+    return last.isEmpty() ? 0 : (Long) last.get(0).getProperty("finishedAt");
+  }
+
+  /**
+   * Resumes the deletions that were still running when the app last stopped. Ones another
+   * instance is still running are taken over only if their lease lapses.
+   */
+  public void resumeRunning() {
+    Query query = new Query(JOB_KIND).setKeysOnly()
+        .setFilter(new FilterPredicate("status", FilterOperator.EQUAL, Deletion.RUNNING));
+    for (Entity job : datastore.prepare(query).asIterable()) {
+      resume(job.getKey());
+    }
+  }
+
+  /** Stops the background deletions; they resume from their last batch on the next start. */
+  public void shutdown() {
+    background.shutdownNow();
+    try {
+      background.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void resume(Key key) {
+    resume(key, 0);
+  }
+
+  private void resume(Key key, long delayMillis) {
+    try {
+      background.schedule(() -> {
+        try {
+          Entity job = claim(key);
+          if (job != null) {
+            run(job, Integer.MAX_VALUE);
+          }
+        } catch (RuntimeException e) {
+          logger.log(Level.WARNING, "Deletion " + key + " stopped until the next start.", e);
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException shuttingDown) {
+      // Left running, it resumes on the next start.
+    }
+  }
+
+  /**
+   * Leases the deletion {@code key} to this deleter and returns it, or returns null if it is done
+   * or leased to another deleter. In the latter case it is checked again when that lease lapses.
+   */
+  private Entity claim(Key key) {
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity job = datastore.get(transaction, key);
+      if (!Deletion.RUNNING.equals(job.getProperty("status"))) {
+        return null;
+      }
+      long now = System.currentTimeMillis();
+      Long leaseUntil = (Long) job.getProperty("leaseUntil");
+      if (!owner.equals(job.getProperty("owner")) && leaseUntil != null && leaseUntil > now) {
+        resume(key, leaseUntil - now);
+        return null;
+      }
+      job.setUnindexedProperty("owner", owner);
+      job.setUnindexedProperty("leaseUntil", now + LEASE_MILLIS);
+      datastore.put(transaction, job);
+      transaction.commit();
+      return job;
+    } catch (EntityNotFoundException e) {
+      // The record was removed by hand, nothing to resume.
+      return null;
+    } catch (ConcurrentModificationException e) {
+      // Another deleter is saving or claiming it; check again once a lease could have lapsed.
+      resume(key, LEASE_MILLIS);
+      return null;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * Saves the progress of {@code job} and renews its lease. Returns false without saving if
+   * another deleter has taken the deletion over.
+   */
+  private boolean save(Entity job) {
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity current = datastore.get(transaction, job.getKey());
+      if (!owner.equals(current.getProperty("owner"))) {
+        return false;
+      }
+      job.setUnindexedProperty("leaseUntil", System.currentTimeMillis() + LEASE_MILLIS);
+      datastore.put(transaction, job);
+      transaction.commit();
+      return true;
+    } catch (EntityNotFoundException | ConcurrentModificationException e) {
+      return false;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * Deletes up to {@code maxBatches} batches of the comments of {@code job}, saving its progress
+   * after each one. Returns true once every comment is deleted.
+   */
+  private boolean run(Entity job, int maxBatches) {
+    Filter filter = Filter.fromJob(job);
+    // Sharded comments don't index their timestamp, so selecting by age takes a query per shard.
+    int stages = filter.before == null || !shards.isEnabled() ? 1 : shards.getCount() + 1;
+    Long savedStage = (Long) job.getProperty("stage");
+    int stage = savedStage == null ? 0 : savedStage.intValue();
+    QueryResultIterator<Entity> results =
+        query(filter, stage, (String) job.getProperty("cursor"));
+
+    for (int batch = 0; batch < maxBatches; batch++) {
+      if (Thread.currentThread().isInterrupted()) {
+        return false;
+      }
+      List<Key> keys = new ArrayList<>(batchSize);
+      while (keys.size() < batchSize && results.hasNext()) {
+        keys.add(results.next().getKey());
+      }
+      boolean stageDone = keys.size() < batchSize;
+      boolean done = stageDone && stage == stages - 1;
+      if (!keys.isEmpty()) {
+        datastore.delete(keys);
+      }
+      job.setProperty("deleted", (Long) job.getProperty("deleted") + keys.size());
+      if (stageDone && !done) {
+        stage++;
+        job.setUnindexedProperty("stage", (long) stage);
+        job.removeProperty("cursor");
+        results = query(filter, stage, null);
+      } else {
+        job.setUnindexedProperty("cursor", results.getCursor().toWebSafeString());
+      }
+      if (done) {
+        job.setProperty("status", Deletion.DONE);
+        job.setProperty("finishedAt", System.currentTimeMillis());
+      }
+      boolean saved = save(job);
+      List<Long> ids = new ArrayList<>(keys.size());
+      for (Key key : keys) {
+        ids.add(key.getId());
+      }
+      afterBatch.accept(ids);
+      if (!saved) {
+        logger.info("Deletion " + job.getKey() + " was taken over by another instance.");
+        return false;
+      }
+      if (done) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private QueryResultIterator<Entity> query(Filter filter, int stage, String cursor) {
+    Query query = new Query(Comment.KIND).setKeysOnly()
+        .setFilter(filter.toQueryFilter(shards, stage));
+    FetchOptions fetchOptions = FetchOptions.Builder.withChunkSize(batchSize);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    return datastore.prepare(query).asQueryResultIterator(fetchOptions);
+  }
+
+  private static Deletion toDeletion(Entity job) {
+    return new Deletion(job.getKey().getId(), (String) job.getProperty("status"),
+        (Long) job.getProperty("deleted"));
+  }
+}
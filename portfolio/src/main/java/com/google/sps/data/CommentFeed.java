@@ -0,0 +1,207 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fans new comments out to live subscribers as server-sent events. Each comment is encoded once
+ * and numbered; every subscriber gets it through its own bounded ring buffer, so a slow client
+ * can't hold up the others or make the server buffer without limit. A subscriber that falls a
+ * whole buffer behind, or resumes from an event that is no longer remembered, gets a {@code
+ * reset} event telling it to reload the comments instead.
+ */
+public final class CommentFeed {
+  /** Sent instead of events that were lost, telling the client to reload the comments. */
+  public static final Event RESET = new Event(0, utf8("event: reset\ndata:\n\n"));
+  private static final byte[] COMMENT_EVENT = utf8("\nevent: comment\ndata: ");
+  private static final byte[] EVENT_END = utf8("\n\n");
+
+  private final int subscriberCapacity;
+  // The newest events, oldest first from historyStart, so clients can resume. Guarded by this.
+  private final Event[] history;
+  private int historyStart;
+  private int historySize;
+  // Ids start from the clock so that ids from before a restart are recognized as unknown.
+  private long lastId = System.currentTimeMillis();
+  private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+  /** One encoded event, ready to be written to any subscriber. */
+  public static final class Event {
+    private final long id;
+    private final byte[] bytes;
+
+    private Event(long id, byte[] bytes) {
+      this.id = id;
+      this.bytes = bytes;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    /** Returns the event in the text/event-stream format, UTF-8 encoded. */
+    public byte[] getBytes() {
+      return bytes;
+    }
+  }
+
+  /** The events waiting to be sent to one client. */
+  public final class Subscriber {
+    private final Event[] ring = new Event[subscriberCapacity];
+    private final Runnable onReady;
+    // Guarded by this.
+    private int head;
+    private int size;
+    private boolean lost;
+
+    private Subscriber(Runnable onReady) {
+      this.onReady = onReady;
+    }
+
+    /** Returns the next event to send, or null if there is none yet. */
+    public synchronized Event poll() {
+      if (lost) {
+        lost = false;
+        return RESET;
+      }
+      if (size == 0) {
+        return null;
+      }
+      Event event = ring[head];
+      ring[head] = null;
+      head = (head + 1) % ring.length;
+      size--;
+      return event;
+    }
+
+    /** Stops sending events to this subscriber. */
+    public void close() {
+      subscribers.remove(this);
+    }
+
+    private synchronized void offer(Event event) {
+      if (lost) {
+        // The client reloads everything anyway.
+        return;
+      }
+      if (size == ring.length) {
+        // Too far behind; drop what is queued rather than grow.
+        Arrays.fill(ring, null);
+        head = 0;
+        size = 0;
+        lost = true;
+        return;
+      }
+      ring[(head + size) % ring.length] = event;
+      size++;
+    }
+  }
+
+  /**
+   * Creates a feed that queues up to {@code subscriberCapacity} events per subscriber and
+   * remembers the last {@code historySize} events for clients that reconnect.
+   */
+  public CommentFeed(int subscriberCapacity, int historySize) {
+    this.subscriberCapacity = subscriberCapacity;
+    this.history = new Event[historySize];
+  }
+
+  /**
+   * Creates a feed configured from the {@code comments.streamBuffer} (64) and {@code
+   * comments.streamHistory} (256) system properties.
+   */
+  public static CommentFeed fromSystemProperties() {
+    return new CommentFeed(Integer.getInteger("comments.streamBuffer", 64),
+        Integer.getInteger("comments.streamHistory", 256));
+  }
+
+  /**
+   * Subscribes to new comments. If {@code lastEventId} is given, the events after it are queued
+   * first, or a reset if they aren't all remembered. {@code onReady} is called, on the publishing
+   * thread, whenever events are queued.
+   */
+  public Subscriber subscribe(String lastEventId, Runnable onReady) {
+    Subscriber subscriber = new Subscriber(onReady);
+    synchronized (this) {
+      if (lastEventId != null && !lastEventId.isEmpty()) {
+        long after;
+        try {
+          after = Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+          after = -1;
+        }
+        long oldest = lastId - historySize + 1;
+        if (after < oldest - 1 || after > lastId) {
+          // Too old, or from before a restart.
+          subscriber.lost = true;
+        } else {
+          for (long id = after + 1; id <= lastId; id++) {
+            subscriber.offer(history[(historyStart + (int) (id - oldest)) % history.length]);
+          }
+        }
+      }
+      subscribers.add(subscriber);
+    }
+    return subscriber;
+  }
+
+  /** Sends a comment that was just posted to every subscriber. */
+  public void publish(Comment comment) {
+    byte[] json = comment.toJsonBytes();
+    List<Subscriber> ready;
+    synchronized (this) {
+      long id = ++lastId;
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length + 64);
+      byte[] idLine = utf8("id: " + id);
+      bytes.write(idLine, 0, idLine.length);
+      bytes.write(COMMENT_EVENT, 0, COMMENT_EVENT.length);
+      bytes.write(json, 0, json.length);
+      bytes.write(EVENT_END, 0, EVENT_END.length);
+      Event event = new Event(id, bytes.toByteArray());
+      if (history.length > 0) {
+        if (historySize < history.length) {
+          history[(historyStart + historySize++) % history.length] = event;
+        } else {
+          history[historyStart] = event;
+          historyStart = (historyStart + 1) % history.length;
+        }
+      }
+      // Queue under the lock so every subscriber sees events in id order.
+      ready = new ArrayList<>(subscribers);
+      for (Subscriber subscriber : ready) {
+        subscriber.offer(event);
+      }
+    }
+    for (Subscriber subscriber : ready) {
+      subscriber.onReady.run();
+    }
+  }
+
+  private static byte[] utf8(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Returns the number of connected subscribers. */
+  public int getSubscriberCount() {
+    return subscribers.size();
+  }
+}
@@ -0,0 +1,333 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An inverted index over comment text, kept in memory. Each word maps to the ids of the comments
+ * that contain it and how often, so a search only looks at the comments that match. Results are
+ * ranked with BM25, newer comments first among equal ranks. The index is built from the repository
+ * on first use and then kept current with {@link #add} and {@link #removeAll}.
+ *
+ * <p>Each instance holds its own index. Comments posted on other instances are picked up by a
+ * search at most every refresh interval, which reads the comments newer than the newest one
+ * indexed. If a deletion or an import has finished since, on any instance, that search rebuilds
+ * the index instead. Between rebuilds, comments deleted on other instances are only noticed when a
+ * search returns them and the caller hands their ids back to {@link #removeAll}; until then they
+ * count towards the total.
+ */
+public final class CommentIndex {
+  // BM25 parameters: how quickly repeated words stop counting, and how much length matters.
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+  private static final int BUILD_PAGE_SIZE = 500;
+  // Comments can be stored a little out of timestamp order, by clock skew between instances or
+  // by batched writes, so catching up also rereads the comments this much older than the newest.
+  private static final long CATCH_UP_OVERLAP_MILLIS = 60_000;
+
+  private static final Logger logger = Logger.getLogger(CommentIndex.class.getName());
+
+  private final CommentRepository repository;
+  // Word to comment id to how often the word appears in the comment.
+  private final Map<String, Map<Long, Integer>> postings = new ConcurrentHashMap<>();
+  private final Map<Long, Document> documents = new ConcurrentHashMap<>();
+  // Comments removed while the index was being built, so the build doesn't bring them back.
+  private final Set<Long> removedWhileBuilding = ConcurrentHashMap.newKeySet();
+  private final Object buildLock = new Object();
+  private final long refreshNanos;
+  // When the next search reads the comments stored since; 0 before the index is built.
+  private final AtomicLong nextCatchUpNanos = new AtomicLong();
+  // Sum of the lengths of all documents. Guarded by this.
+  private long totalLength;
+  // Timestamp of the newest comment indexed. Written under this.
+  private volatile long newestTimestamp;
+  // The repository's bulk change version when the index was last built.
+  private volatile long builtVersion;
+  private volatile boolean built;
+
+  /** What the index remembers about one comment. */
+  private static final class Document {
+    final String[] words;
+    final int length;
+    final long timestamp;
+
+    Document(String[] words, int length, long timestamp) {
+      this.words = words;
+      this.length = length;
+      this.timestamp = timestamp;
+    }
+  }
+
+  /** One page of search results. */
+  public static final class Results {
+    private final List<Long> ids;
+    private final int total;
+
+    Results(List<Long> ids, int total) {
+      this.ids = ids;
+      this.total = total;
+    }
+
+    /** Returns the ids of the comments on this page, best match first. */
+    public List<Long> getIds() {
+      return ids;
+    }
+
+    /** Returns how many comments matched in all. */
+    public int getTotal() {
+      return total;
+    }
+  }
+
+  /**
+   * Creates an index over the comments in {@code repository} that reads the comments stored since
+   * at most every {@code refreshMillis}, 0 to only see the comments added through this index.
+   */
+  public CommentIndex(CommentRepository repository, long refreshMillis) {
+    this.repository = repository;
+    this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+  }
+
+  /**
+   * Creates an index that refreshes every {@code comments.indexRefreshSeconds}, configured by
+   * system properties.
+   */
+  public static CommentIndex fromSystemProperties(CommentRepository repository) {
+    return new CommentIndex(repository,
+        TimeUnit.SECONDS.toMillis(Integer.getInteger("comments.indexRefreshSeconds", 10)));
+  }
+
+  /** Splits {@code text} into lower case words. */
+  public static List<String> tokenize(String text) {
+    List<String> tokens = new ArrayList<>();
+    if (text == null) {
+      return tokens;
+    }
+    for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{Nd}]+")) {
+      if (!token.isEmpty()) {
+        tokens.add(token);
+      }
+    }
+    return tokens;
+  }
+
+  /** Indexes a comment that was just stored. */
+  public void add(Comment comment) {
+    index(comment);
+  }
+
+  /** Removes the comments with the given ids from the index. */
+  public synchronized void removeAll(Collection<Long> ids) {
+    for (long id : ids) {
+      if (!built) {
+        removedWhileBuilding.add(id);
+      }
+      Document document = documents.remove(id);
+      if (document == null) {
+        continue;
+      }
+      for (String word : document.words) {
+        Map<Long, Integer> matches = postings.get(word);
+        if (matches != null) {
+          matches.remove(id);
+          if (matches.isEmpty()) {
+            postings.remove(word);
+          }
+        }
+      }
+      totalLength -= document.length;
+    }
+  }
+
+  /**
+   * Builds the index from every stored comment, unless it is built already. Searching builds it
+   * too; call this early to have it ready for the first search.
+   */
+  public void build() {
+    if (built) {
+      return;
+    }
+    synchronized (buildLock) {
+      if (built) {
+        return;
+      }
+      // Read first, so a deletion or an import that finishes during the build causes another one.
+      builtVersion = repository.getBulkChangeVersion();
+      String cursor = null;
+      do {
+        CommentRepository.Page page = repository.list(BUILD_PAGE_SIZE, true, cursor);
+        int read = 0;
+        while (page.hasNext()) {
+          Comment comment = page.next();
+          read++;
+          if (!removedWhileBuilding.contains(comment.getId())) {
+            index(comment);
+          }
+        }
+        cursor = read < BUILD_PAGE_SIZE ? null : page.getCursor();
+      } while (cursor != null);
+      built = true;
+      removedWhileBuilding.clear();
+      nextCatchUpNanos.set(System.nanoTime() + refreshNanos);
+    }
+  }
+
+  /**
+   * Indexes the comments stored since the newest one indexed, if the refresh interval has passed,
+   * or rebuilds the index if a deletion or an import has finished since. Only one caller at a time
+   * reads them; the others search what is indexed already.
+   */
+  private void catchUp() {
+    long due = nextCatchUpNanos.get();
+    if (refreshNanos == 0 || System.nanoTime() - due < 0
+        || !nextCatchUpNanos.compareAndSet(due, System.nanoTime() + refreshNanos)) {
+      return;
+    }
+    long since = newestTimestamp - CATCH_UP_OVERLAP_MILLIS;
+    try {
+      if (repository.getBulkChangeVersion() != builtVersion) {
+        rebuild();
+        return;
+      }
+      String cursor = null;
+      do {
+        CommentRepository.Page page = repository.list(BUILD_PAGE_SIZE, true, cursor);
+        int read = 0;
+        boolean caughtUp = false;
+        while (page.hasNext()) {
+          Comment comment = page.next();
+          read++;
+          if (comment.getTimestamp() < since) {
+            caughtUp = true;
+            break;
+          }
+          index(comment);
+        }
+        cursor = caughtUp || read < BUILD_PAGE_SIZE ? null : page.getCursor();
+      } while (cursor != null);
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Could not read new comments into the search index.", e);
+    }
+  }
+
+  /**
+   * Drops every comment from the index and indexes the stored ones again. Searches that start
+   * meanwhile wait for it.
+   */
+  private void rebuild() {
+    synchronized (buildLock) {
+      removeAll(new ArrayList<>(documents.keySet()));
+      built = false;
+    }
+    build();
+  }
+
+  /**
+   * Returns up to {@code limit} of the comments that contain any word of {@code query}, skipping
+   * the first {@code offset}.
+   */
+  public Results search(String query, int offset, int limit) {
+    build();
+    catchUp();
+    Set<String> queryWords = new LinkedHashSet<>(tokenize(query));
+    Map<Long, Double> ranks = new HashMap<>();
+    int count = Math.max(1, documents.size());
+    double averageLength;
+    synchronized (this) {
+      averageLength = Math.max(1.0, (double) totalLength / count);
+    }
+    for (String word : queryWords) {
+      Map<Long, Integer> matches = postings.get(word);
+      if (matches == null) {
+        continue;
+      }
+      double idf = Math.log(1 + (count - matches.size() + 0.5) / (matches.size() + 0.5));
+      for (Map.Entry<Long, Integer> posting : matches.entrySet()) {
+        Document document = documents.get(posting.getKey());
+        if (document == null) {
+          continue;
+        }
+        int frequency = posting.getValue();
+        double norm = K1 * (1 - B + B * document.length / averageLength);
+        ranks.merge(posting.getKey(), idf * frequency * (K1 + 1) / (frequency + norm), Double::sum);
+      }
+    }
+    // Only the results up to the end of the page need to be in order; keep the best in a heap.
+    Comparator<Map.Entry<Long, Double>> better = (a, b) -> {
+      int byRank = Double.compare(a.getValue(), b.getValue());
+      return byRank != 0 ? byRank : Long.compare(timestamp(a.getKey()), timestamp(b.getKey()));
+    };
+    if (offset >= ranks.size() || limit <= 0) {
+      return new Results(Collections.emptyList(), ranks.size());
+    }
+    int wanted = (int) Math.min((long) offset + limit, ranks.size());
+    PriorityQueue<Map.Entry<Long, Double>> best = new PriorityQueue<>(better);
+    for (Map.Entry<Long, Double> rank : ranks.entrySet()) {
+      if (best.size() < wanted) {
+        best.add(rank);
+      } else if (better.compare(rank, best.peek()) > 0) {
+        best.poll();
+        best.add(rank);
+      }
+    }
+    List<Long> page = new ArrayList<>();
+    while (best.size() > offset) {
+      page.add(best.poll().getKey());
+    }
+    Collections.reverse(page);
+    return new Results(page, ranks.size());
+  }
+
+  private long timestamp(long id) {
+    Document document = documents.get(id);
+    return document == null ? 0 : document.timestamp;
+  }
+
+  private synchronized void index(Comment comment) {
+    long id = comment.getId();
+    if (documents.containsKey(id)) {
+      return;
+    }
+    List<String> tokens = tokenize(comment.getText());
+    Map<String, Integer> frequencies = new HashMap<>();
+    for (String token : tokens) {
+      frequencies.merge(token, 1, Integer::sum);
+    }
+    for (Map.Entry<String, Integer> frequency : frequencies.entrySet()) {
+      postings.computeIfAbsent(frequency.getKey(), word -> new ConcurrentHashMap<>())
+          .put(id, frequency.getValue());
+    }
+    documents.put(id, new Document(
+        frequencies.keySet().toArray(new String[0]), tokens.size(), comment.getTimestamp()));
+    totalLength += tokens.size();
+    newestTimestamp = Math.max(newestTimestamp, comment.getTimestamp());
+  }
+}
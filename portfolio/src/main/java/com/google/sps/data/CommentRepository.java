@@ -0,0 +1,89 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/** Stores comments and reads them back a page at a time, in posting order. */
+public interface CommentRepository {
+  /**
+   * Stores a new comment and returns it with its id and timestamp. A null {@code score} means the
+   * comment still has to be scored, as does an {@code approximate} one. {@code afterStored} runs
+   * once the comment is stored, which may be after this returns.
+   */
+  Comment add(String email, String text, Float score, boolean approximate,
+      Consumer<Comment> afterStored);
+
+  /**
+   * Returns up to {@code limit} comments, newest or oldest first, starting after {@code cursor},
+   * or from the start if it is null.
+   *
+   * @throws IllegalArgumentException if {@code cursor} didn't come from this repository
+   */
+  Page list(int limit, boolean newestFirst, String cursor);
+
+  /** Returns the comments with the given ids by id, leaving out the ones that don't exist. */
+  Map<Long, Comment> get(Collection<Long> ids);
+
+  /** Deletes every comment posted until now. */
+  Deletion deleteAll();
+
+  /** Returns the progress of the deletion with id {@code id}, or null if there is none. */
+  Deletion getDeletion(long id);
+
+  /**
+   * Returns a value that changes whenever a deletion or an import finishes, on any instance. Views
+   * of the comments kept in memory compare it between refreshes to know when to rebuild.
+   */
+  long getBulkChangeVersion();
+
+  /** The comments of one {@link #list} call, read as they are iterated. */
+  interface Page extends Iterator<Comment> {
+    /** Returns the cursor that continues just after the last comment returned by next(). */
+    String getCursor();
+  }
+
+  /** The progress of one deletion. */
+  final class Deletion {
+    public static final String RUNNING = "running";
+    public static final String DONE = "done";
+
+    private final long id;
+    private final String status;
+    private final long deleted;
+
+    public Deletion(long id, String status, long deleted) {
+      this.id = id;
+      this.status = status;
+      this.deleted = deleted;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public boolean isDone() {
+      return DONE.equals(status);
+    }
+
+    /** Returns how many comments have been deleted so far. */
+    public long getDeleted() {
+      return deleted;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Spreads comments over several ranges of the sort index. An indexed {@code timestamp} sends
+ * every new comment to the end of one index range, so at high posting rates all writes land on
+ * the same index tablet. With sharding on, each comment gets a random shard and an indexed
+ * {@link #SORT_KEY_PROPERTY} of its shard followed by its timestamp, while the timestamp itself
+ * is left unindexed. New comments then land at the ends of as many ranges as there are shards,
+ * and readers merge one query per shard back into timestamp order.
+ *
+ * <p>Comments stored before sharding was turned on keep their indexed timestamp and are read
+ * through it as one more stream. The shard count can be raised later but not lowered, since
+ * comments in the dropped shards would no longer be read.
+ */
+public final class CommentShards {
+  /** Indexed property holding a comment's shard and timestamp. */
+  public static final String SORT_KEY_PROPERTY = "sortKey";
+
+  // Room for timestamps until the year 2527, with the shard in the bits above.
+  private static final long SHARD_STRIDE = 1L << 44;
+  private static final int MAX_SHARDS = 1024;
+
+  private final int count;
+
+  /** Creates the scheme for {@code count} shards, 0 to keep indexing timestamps directly. */
+  public CommentShards(int count) {
+    if (count < 0 || count > MAX_SHARDS) {
+      throw new IllegalArgumentException("Shard count must be from 0 to " + MAX_SHARDS);
+    }
+    this.count = count;
+  }
+
+  /** Creates the scheme configured by the {@code comments.sortShards} system property. */
+  public static CommentShards fromSystemProperties() {
+    return new CommentShards(Integer.getInteger("comments.sortShards", 0));
+  }
+
+  public boolean isEnabled() {
+    return count > 0;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Puts a comment with the given timestamp into a random shard, if sharding is on. Call it after
+   * {@link Comment#setProperties}, which indexes the timestamp.
+   */
+  public void assign(Entity entity, long timestamp) {
+    if (!isEnabled()) {
+      return;
+    }
+    long shard = ThreadLocalRandom.current().nextInt(count);
+    entity.setProperty(SORT_KEY_PROPERTY, shard * SHARD_STRIDE + timestamp);
+    entity.setUnindexedProperty("timestamp", timestamp);
+  }
+
+  /**
+   * Returns a filter for the comments in {@code shard}, only those posted before {@code before}
+   * unless it is null. Times outside the range a shard can hold are clamped to it.
+   */
+  public Filter range(int shard, Long before) {
+    long start = shard * SHARD_STRIDE;
+    // Clamped first, so a huge cursor time can't reach into, or overflow past, the next shards.
+    long end = start
+        + (before == null ? SHARD_STRIDE : Math.max(0, Math.min(before, SHARD_STRIDE)));
+    return CompositeFilterOperator.and(
+        new FilterPredicate(SORT_KEY_PROPERTY, FilterOperator.GREATER_THAN_OR_EQUAL, start),
+        new FilterPredicate(SORT_KEY_PROPERTY, FilterOperator.LESS_THAN, end));
+  }
+}
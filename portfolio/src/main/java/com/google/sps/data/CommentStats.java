@@ -0,0 +1,330 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Comment counts and sentiment totals, overall, per author and per hour, kept up to date as
+ * comments are posted, scored and deleted so reading them never touches the comments. The totals
+ * are {@link LongAdder}s and {@link DoubleAdder}s, which spread concurrent updates over separate
+ * cells instead of contending on one. Like {@link CommentIndex}, the stats are built from the
+ * repository on first use.
+ *
+ * <p>The stats are kept in memory by each instance and are not authoritative. Comments posted on
+ * other instances are counted when the stats are read after the refresh interval, along with the
+ * scores those comments have by then. When a deletion or an import has finished since the last
+ * refresh, on this instance or another, the stats are rebuilt from the repository instead. Scores
+ * given to older comments on other instances only show up after such a rebuild or a restart.
+ *
+ * <p>Besides the totals, the stats remember a few fields of every comment counted, so that a
+ * deletion can take it back out. That grows with the number of stored comments, like the search
+ * index; comments deleted on any instance are dropped by the rebuild that follows.
+ */
+public final class CommentStats {
+  /** Number of equal-width histogram buckets between scores of -1 and 1. */
+  public static final int HISTOGRAM_BUCKETS = 10;
+
+  private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final int BUILD_PAGE_SIZE = 500;
+  // As in CommentIndex, catching up rereads the comments this much older than the newest.
+  private static final long CATCH_UP_OVERLAP_MILLIS = 60_000;
+
+  private static final Logger logger = Logger.getLogger(CommentStats.class.getName());
+
+  private final CommentRepository repository;
+  private final Totals overall = new Totals();
+  private final Map<String, Totals> byAuthor = new ConcurrentHashMap<>();
+  // Keyed by the start of the hour, in milliseconds since the epoch.
+  private final Map<Long, Totals> byHour = new ConcurrentHashMap<>();
+  // What each comment added to the totals, so it can be taken back out when it is deleted.
+  private final Map<Long, Contribution> contributions = new ConcurrentHashMap<>();
+  private final Set<Long> removedWhileBuilding = ConcurrentHashMap.newKeySet();
+  private final Object buildLock = new Object();
+  private final long refreshNanos;
+  // When the next read counts the comments stored since; 0 before the stats are built.
+  private final AtomicLong nextCatchUpNanos = new AtomicLong();
+  // Timestamp of the newest comment counted.
+  private final AtomicLong newestTimestamp = new AtomicLong();
+  // The repository's bulk change version when the stats were last built.
+  private volatile long builtVersion;
+  private volatile boolean built;
+
+  /** Counts and score totals for one group of comments. */
+  public static final class Totals {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder scored = new LongAdder();
+    private final DoubleAdder scoreSum = new DoubleAdder();
+    private final LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+
+    Totals() {
+      for (int i = 0; i < histogram.length; i++) {
+        histogram[i] = new LongAdder();
+      }
+    }
+
+    private void addComment(int sign) {
+      count.add(sign);
+    }
+
+    private void addScore(float score, int sign) {
+      scored.add(sign);
+      scoreSum.add(sign * score);
+      histogram[bucket(score)].add(sign);
+    }
+
+    /** Writes the totals as a JSON object; the mean is null until a comment is scored. */
+    public void writeJson(JsonWriter writer) throws IOException {
+      long scoredCount = scored.sum();
+      double sum = scoreSum.sum();
+      writer.beginObject();
+      writer.name("count").value(count.sum());
+      writer.name("scored").value(scoredCount);
+      writer.name("scoreSum").value(sum);
+      writer.name("meanScore");
+      if (scoredCount == 0) {
+        writer.nullValue();
+      } else {
+        writer.value(sum / scoredCount);
+      }
+      writer.name("histogram").beginArray();
+      for (LongAdder bucket : histogram) {
+        writer.value(bucket.sum());
+      }
+      writer.endArray();
+      writer.endObject();
+    }
+
+    /**
+     * Returns whether every comment in the group has been deleted. Empty groups are kept rather
+     * than removed, so a concurrent update can't land in a group that was just dropped.
+     */
+    public boolean isEmpty() {
+      return count.sum() == 0;
+    }
+  }
+
+  /** The groups a comment was counted in, and the score it added, or null if none yet. */
+  private static final class Contribution {
+    final String email;
+    final long hour;
+    final Float score;
+
+    Contribution(String email, long hour, Float score) {
+      this.email = email;
+      this.hour = hour;
+      this.score = score;
+    }
+  }
+
+  /**
+   * Creates stats over the comments in {@code repository} that count the comments stored since at
+   * most every {@code refreshMillis}, 0 to only count the comments added through these stats.
+   */
+  public CommentStats(CommentRepository repository, long refreshMillis) {
+    this.repository = repository;
+    this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+  }
+
+  /**
+   * Creates stats that refresh every {@code comments.statsRefreshSeconds}, configured by system
+   * properties.
+   */
+  public static CommentStats fromSystemProperties(CommentRepository repository) {
+    return new CommentStats(repository,
+        TimeUnit.SECONDS.toMillis(Integer.getInteger("comments.statsRefreshSeconds", 10)));
+  }
+
+  /** Returns the histogram bucket of {@code score}. */
+  public static int bucket(float score) {
+    int bucket = (int) ((score + 1) / 2 * HISTOGRAM_BUCKETS);
+    return Math.max(0, Math.min(HISTOGRAM_BUCKETS - 1, bucket));
+  }
+
+  /** Counts a comment that was just stored. */
+  public void add(Comment comment) {
+    contributions.computeIfAbsent(comment.getId(), id -> {
+      Contribution contribution = new Contribution(comment.getEmail(),
+          comment.getTimestamp() / HOUR_MILLIS * HOUR_MILLIS, comment.getScore());
+      apply(contribution, 1);
+      return contribution;
+    });
+    newestTimestamp.accumulateAndGet(comment.getTimestamp(), Math::max);
+  }
+
+  /**
+   * Counts the score of a comment that was stored without one, or replaces the estimated score
+   * it was stored with.
+   */
+  public void updateScore(long id, float score) {
+    contributions.computeIfPresent(id, (key, contribution) -> {
+      if (contribution.score != null && contribution.score == score) {
+        return contribution;
+      }
+      Contribution scored = new Contribution(contribution.email, contribution.hour, score);
+      for (Totals totals : groups(scored)) {
+        if (contribution.score != null) {
+          totals.addScore(contribution.score, -1);
+        }
+        totals.addScore(score, 1);
+      }
+      return scored;
+    });
+  }
+
+  /** Takes the comments with the given ids out of the totals. */
+  public void removeAll(Collection<Long> ids) {
+    for (long id : ids) {
+      if (!built) {
+        removedWhileBuilding.add(id);
+      }
+      contributions.computeIfPresent(id, (key, contribution) -> {
+        apply(contribution, -1);
+        return null;
+      });
+    }
+  }
+
+  /** Builds the totals from every stored comment, unless they are built already. */
+  public void build() {
+    if (built) {
+      return;
+    }
+    synchronized (buildLock) {
+      if (built) {
+        return;
+      }
+      // Read first, so a deletion or an import that finishes during the build causes another one.
+      builtVersion = repository.getBulkChangeVersion();
+      String cursor = null;
+      do {
+        CommentRepository.Page page = repository.list(BUILD_PAGE_SIZE, true, cursor);
+        int read = 0;
+        while (page.hasNext()) {
+          Comment comment = page.next();
+          read++;
+          if (!removedWhileBuilding.contains(comment.getId())) {
+            add(comment);
+          }
+        }
+        cursor = read < BUILD_PAGE_SIZE ? null : page.getCursor();
+      } while (cursor != null);
+      built = true;
+      removedWhileBuilding.clear();
+      nextCatchUpNanos.set(System.nanoTime() + refreshNanos);
+    }
+  }
+
+  /** Returns the totals over every comment. */
+  public Totals getOverall() {
+    refresh();
+    return overall;
+  }
+
+  /** Returns the totals for every author who has posted, including empty ones. */
+  public Map<String, Totals> getByAuthor() {
+    refresh();
+    return byAuthor;
+  }
+
+  /** Returns the totals for the hour starting at {@code hour}, or null if it had no comments. */
+  public Totals getHour(long hour) {
+    refresh();
+    return byHour.get(hour / HOUR_MILLIS * HOUR_MILLIS);
+  }
+
+  /**
+   * Builds the stats if needed, then counts the comments stored since the newest one counted if
+   * the refresh interval has passed, or rebuilds the stats if a deletion or an import has finished
+   * since. Only one caller at a time reads them.
+   */
+  private void refresh() {
+    build();
+    long due = nextCatchUpNanos.get();
+    if (refreshNanos == 0 || System.nanoTime() - due < 0
+        || !nextCatchUpNanos.compareAndSet(due, System.nanoTime() + refreshNanos)) {
+      return;
+    }
+    long since = newestTimestamp.get() - CATCH_UP_OVERLAP_MILLIS;
+    try {
+      if (repository.getBulkChangeVersion() != builtVersion) {
+        rebuild();
+        return;
+      }
+      String cursor = null;
+      do {
+        CommentRepository.Page page = repository.list(BUILD_PAGE_SIZE, true, cursor);
+        int read = 0;
+        boolean caughtUp = false;
+        while (page.hasNext()) {
+          Comment comment = page.next();
+          read++;
+          if (comment.getTimestamp() < since) {
+            caughtUp = true;
+            break;
+          }
+          add(comment);
+          if (comment.getScore() != null) {
+            updateScore(comment.getId(), comment.getScore());
+          }
+        }
+        cursor = caughtUp || read < BUILD_PAGE_SIZE ? null : page.getCursor();
+      } while (cursor != null);
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Could not count new comments in the stats.", e);
+    }
+  }
+
+  /**
+   * Takes every comment back out of the totals and counts the stored ones again. Comments added
+   * meanwhile are counted once, as {@link #add} skips comments already counted.
+   */
+  private void rebuild() {
+    synchronized (buildLock) {
+      removeAll(new ArrayList<>(contributions.keySet()));
+      built = false;
+    }
+    build();
+  }
+
+  private void apply(Contribution contribution, int sign) {
+    for (Totals totals : groups(contribution)) {
+      totals.addComment(sign);
+      if (contribution.score != null) {
+        totals.addScore(contribution.score, sign);
+      }
+    }
+  }
+
+  private Totals[] groups(Contribution contribution) {
+    return new Totals[] {
+      overall,
+      byAuthor.computeIfAbsent(contribution.email, email -> new Totals()),
+      byHour.computeIfAbsent(contribution.hour, hour -> new Totals())
+    };
+  }
+}
@@ -0,0 +1,396 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies every comment out to, or in from, newline-delimited JSON, one comment per line in the
+ * same shape as /data. Export splits the comments into key ranges, sampled from Datastore's
+ * scatter property, and reads the ranges in parallel. Import reads the lines on one thread and
+ * stores them in batches on several. Either way at most a few batches are held in memory.
+ *
+ * <p>The ids of a batch are reserved before it is stored, so comments posted meanwhile can't be
+ * given them, and comments whose id is already taken are skipped rather than overwritten. Each
+ * import is recorded in a {@code CommentImport} entity; running instances see it change the
+ * repository's bulk change version and rebuild their search index and stats, which would
+ * otherwise miss comments older than the ones they hold.
+ */
+public final class CommentTransfer {
+  /** Datastore kind that records each import. */
+  public static final String IMPORT_KIND = "CommentImport";
+
+  // Scatter samples taken per range, so the split points are roughly even.
+  private static final int SAMPLES_PER_RANGE = 32;
+  private static final int MAX_ATTEMPTS = 5;
+  private static final long RETRY_BACKOFF_MILLIS = 200;
+  private static final List<Entity> END = Collections.emptyList();
+
+  private final DatastoreService datastore;
+  private final int workers;
+  private final int batchSize;
+
+  /** How many comments an import stored, and how many it skipped as their ids were taken. */
+  public static final class ImportResult {
+    private final long stored;
+    private final long skipped;
+
+    ImportResult(long stored, long skipped) {
+      this.stored = stored;
+      this.skipped = skipped;
+    }
+
+    public long getStored() {
+      return stored;
+    }
+
+    public long getSkipped() {
+      return skipped;
+    }
+  }
+
+  public CommentTransfer(DatastoreService datastore, int workers, int batchSize) {
+    this.datastore = datastore;
+    this.workers = workers;
+    this.batchSize = batchSize;
+  }
+
+  /** Writes every comment to {@code out} and returns how many there were. */
+  public long exportTo(OutputStream out) throws IOException, InterruptedException {
+    LongAdder exported = new LongAdder();
+    ExecutorService pool = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<?>> ranges = new ArrayList<>();
+      for (Filter range : keyRanges()) {
+        ranges.add(pool.submit(() -> {
+          exportRange(range, out, exported);
+          return null;
+        }));
+      }
+      for (Future<?> range : ranges) {
+        await(range);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    out.flush();
+    return exported.sum();
+  }
+
+  /**
+   * Returns when the import that finished last did, in milliseconds since the epoch, or 0 if none
+   * has.
+   */
+  public static long lastImportFinished(DatastoreService datastore) {
+    Query query = new Query(IMPORT_KIND).addSort("finishedAt", SortDirection.DESCENDING);
+    List<Entity> last = datastore.prepare(query).asList(FetchOptions.Builder.withLimit(1));
+    return last.isEmpty() ? 0 : (Long) last.get(0).getProperty("finishedAt");
+  }
+
+  /**
+   * Stores the comments read from {@code in}. Comments keep their ids, and lines without one get a
+   * new id; a comment whose id is already stored is skipped. Comments without a score are left
+   * pending for the backfill to score.
+   *
+   * @throws IllegalArgumentException if a line isn't a comment
+   */
+  public ImportResult importFrom(InputStream in) throws IOException, InterruptedException {
+    // Bounded, so reading waits for the writers instead of filling memory.
+    BlockingQueue<List<Entity>> batches = new ArrayBlockingQueue<>(workers * 2);
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    LongAdder imported = new LongAdder();
+    LongAdder skipped = new LongAdder();
+    ExecutorService pool = Executors.newFixedThreadPool(workers);
+    for (int i = 0; i < workers; i++) {
+      pool.execute(() -> {
+        try {
+          while (true) {
+            List<Entity> batch = batches.take();
+            if (batch == END) {
+              return;
+            }
+            // After a failure, keep taking batches so the reader is never left waiting.
+            if (failure.get() == null) {
+              try {
+                List<Entity> fresh = withoutStored(batch);
+                skipped.add(batch.size() - fresh.size());
+                withRetries(() -> datastore.put(fresh));
+                imported.add(fresh.size());
+              } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+              }
+            }
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+
+    // Ids up to this one are reserved.
+    long reservedId = 0;
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      List<Entity> batch = new ArrayList<>(batchSize);
+      long maxId = 0;
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null && failure.get() == null) {
+        lineNumber++;
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        Entity entity = parse(line, lineNumber);
+        if (entity.getKey().isComplete()) {
+          maxId = Math.max(maxId, entity.getKey().getId());
+        }
+        batch.add(entity);
+        if (batch.size() == batchSize) {
+          reservedId = reserve(reservedId, maxId);
+          batches.put(batch);
+          batch = new ArrayList<>(batchSize);
+        }
+      }
+      if (!batch.isEmpty()) {
+        reservedId = reserve(reservedId, maxId);
+        batches.put(batch);
+      }
+    } finally {
+      for (int i = 0; i < workers; i++) {
+        batches.put(END);
+      }
+      pool.shutdown();
+      pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      if (imported.sum() > 0) {
+        try {
+          recordImport(imported.sum());
+        } catch (RuntimeException e) {
+          failure.compareAndSet(null, e);
+        }
+      }
+    }
+    if (failure.get() != null) {
+      throw new IOException("Could not store comments", failure.get());
+    }
+    return new ImportResult(imported.sum(), skipped.sum());
+  }
+
+  /**
+   * Keeps new comments from being given the ids above {@code reservedId} up to {@code maxId},
+   * before comments with those ids are stored. Returns the highest id now reserved.
+   */
+  private long reserve(long reservedId, long maxId) throws InterruptedException {
+    if (maxId <= reservedId) {
+      return reservedId;
+    }
+    withRetries(() ->
+        datastore.allocateIdRange(new KeyRange(null, Comment.KIND, reservedId + 1, maxId)));
+    return maxId;
+  }
+
+  /** Returns the comments of {@code batch} whose id is not stored yet. */
+  private List<Entity> withoutStored(List<Entity> batch) throws InterruptedException {
+    List<Key> keys = new ArrayList<>();
+    for (Entity entity : batch) {
+      if (entity.getKey().isComplete()) {
+        keys.add(entity.getKey());
+      }
+    }
+    if (keys.isEmpty()) {
+      return batch;
+    }
+    AtomicReference<Map<Key, Entity>> stored = new AtomicReference<>();
+    withRetries(() -> stored.set(datastore.get(keys)));
+    if (stored.get().isEmpty()) {
+      return batch;
+    }
+    List<Entity> fresh = new ArrayList<>(batch.size());
+    for (Entity entity : batch) {
+      if (!stored.get().containsKey(entity.getKey())) {
+        fresh.add(entity);
+      }
+    }
+    return fresh;
+  }
+
+  /** Records that {@code imported} comments were stored, so running instances rebuild. */
+  private void recordImport(long imported) throws InterruptedException {
+    Entity record = new Entity(IMPORT_KIND);
+    record.setProperty("finishedAt", System.currentTimeMillis());
+    record.setUnindexedProperty("imported", imported);
+    withRetries(() -> datastore.put(record));
+  }
+
+  /**
+   * Returns filters that split the comments into up to {@code workers} key ranges, or a single
+   * null filter for all of them if there are too few to sample.
+   */
+  private List<Filter> keyRanges() {
+    List<Key> samples = new ArrayList<>();
+    Query scatter =
+        new Query(Comment.KIND).addSort(Entity.SCATTER_RESERVED_PROPERTY).setKeysOnly();
+    for (Entity sample : datastore.prepare(scatter)
+        .asIterable(FetchOptions.Builder.withLimit(workers * SAMPLES_PER_RANGE))) {
+      samples.add(sample.getKey());
+    }
+    Collections.sort(samples);
+    List<Key> splits = new ArrayList<>();
+    for (int i = 1; i < workers && samples.size() >= workers; i++) {
+      Key split = samples.get(i * samples.size() / workers);
+      if (splits.isEmpty() || !splits.get(splits.size() - 1).equals(split)) {
+        splits.add(split);
+      }
+    }
+    List<Filter> ranges = new ArrayList<>();
+    Key start = null;
+    for (Key end : splits) {
+      ranges.add(keyRange(start, end));
+      start = end;
+    }
+    ranges.add(keyRange(start, null));
+    return ranges;
+  }
+
+  private static Filter keyRange(Key start, Key end) {
+    Filter from = start == null ? null : new FilterPredicate(
+        Entity.KEY_RESERVED_PROPERTY, FilterOperator.GREATER_THAN_OR_EQUAL, start);
+    Filter to = end == null ? null
+        : new FilterPredicate(Entity.KEY_RESERVED_PROPERTY, FilterOperator.LESS_THAN, end);
+    if (from == null || to == null) {
+      return from == null ? to : from;
+    }
+    return CompositeFilterOperator.and(from, to);
+  }
+
+  private void exportRange(Filter range, OutputStream out, LongAdder exported)
+      throws IOException {
+    Query query = new Query(Comment.KIND);
+    if (range != null) {
+      query.setFilter(range);
+    }
+    ByteArrayOutputStream lines = new ByteArrayOutputStream();
+    int buffered = 0;
+    for (Entity entity : datastore.prepare(query)
+        .asIterable(FetchOptions.Builder.withChunkSize(batchSize).prefetchSize(batchSize))) {
+      lines.write(Comment.fromEntity(entity).toJsonBytes());
+      lines.write('\n');
+      if (++buffered == batchSize) {
+        write(out, lines);
+        exported.add(buffered);
+        buffered = 0;
+      }
+    }
+    write(out, lines);
+    exported.add(buffered);
+  }
+
+  private static void write(OutputStream out, ByteArrayOutputStream lines) throws IOException {
+    // Whole batches at a time, so lines from different ranges never interleave.
+    synchronized (out) {
+      lines.writeTo(out);
+    }
+    lines.reset();
+  }
+
+  private static Entity parse(String line, int lineNumber) {
+    try {
+      JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+      JsonElement id = json.get("id");
+      JsonElement score = json.get("score");
+      JsonElement approximate = json.get("approximate");
+      JsonElement timestamp = json.get("timestamp");
+      Entity entity = isNull(id) ? new Entity(Comment.KIND)
+          : new Entity(Comment.KIND, id.getAsLong());
+      Comment.setProperties(entity,
+          isNull(json.get("email")) ? "anonymous" : json.get("email").getAsString(),
+          isNull(json.get("text")) ? "" : json.get("text").getAsString(),
+          isNull(score) ? null : score.getAsFloat(),
+          !isNull(approximate) && approximate.getAsBoolean(),
+          isNull(timestamp) ? System.currentTimeMillis() : timestamp.getAsLong());
+      return entity;
+    } catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+      throw new IllegalArgumentException("Line " + lineNumber + " is not a comment: " + line, e);
+    }
+  }
+
+  private static boolean isNull(JsonElement element) {
+    return element == null || element.isJsonNull();
+  }
+
+  /** Runs a Datastore call, retrying the failures that are worth retrying. */
+  private static void withRetries(Runnable call) throws InterruptedException {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        call.run();
+        return;
+      } catch (DatastoreTimeoutException | DatastoreFailureException e) {
+        if (attempt >= MAX_ATTEMPTS) {
+          throw e;
+        }
+        TimeUnit.MILLISECONDS.sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+      }
+    }
+  }
+
+  private static void await(Future<?> future) throws IOException, InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,288 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores new comments in batches instead of with one Datastore call each. Comments wait in a
+ * bounded queue and a single writer stores them with one {@code put} per batch, as soon as a batch
+ * is full or the oldest comment has waited long enough. When the queue is full, posting waits for
+ * room and then falls back to storing the comment itself, which slows posters down to what
+ * Datastore can take. A batch whose put fails is retried a few times with backoff. Shutdown
+ * stops new comments from being queued and stores the ones already queued.
+ *
+ * <p>Comments that still can't be stored are written to a spill file and stored on the next start
+ * of an instance that sees the same directory. That is only a best effort: on App Engine standard
+ * the default directory is in memory and local to the instance, so a spill there is lost when the
+ * instance stops. Keep write-behind off where every comment must survive.
+ *
+ * <p>Keys are allocated up front, so a comment's key is known before it is stored.
+ */
+public final class CommentWriteBuffer {
+  private static final Logger logger = Logger.getLogger(CommentWriteBuffer.class.getName());
+
+  private static final String SPILL_SUFFIX = ".spill";
+  private static final int STORE_ATTEMPTS = 3;
+  private static final long RETRY_BACKOFF_MILLIS = 100;
+
+  private final DatastoreService datastore;
+  private final BlockingQueue<Pending> queue;
+  private final int batchSize;
+  private final long flushMillis;
+  private final long maxWaitMillis;
+  private final File spillDirectory;
+  private final ExecutorService writer = Executors.newSingleThreadExecutor();
+  private final AtomicLong spillCount = new AtomicLong();
+  // Held to queue a comment, and exclusively to stop, so nothing is queued once stopped is set.
+  private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+  private volatile boolean stopped;
+
+  // Keys allocated but not handed out yet. Guarded by this.
+  private Iterator<Key> allocatedKeys = Collections.emptyIterator();
+
+  /** A comment waiting to be stored, and what to run once it is. */
+  private static final class Pending {
+    final Entity entity;
+    final Runnable afterStored;
+
+    Pending(Entity entity, Runnable afterStored) {
+      this.entity = entity;
+      this.afterStored = afterStored;
+    }
+  }
+
+  /**
+   * Creates a buffer of at most {@code capacity} comments, stored {@code batchSize} at a time and
+   * at most {@code flushMillis} after they were added. A full buffer makes {@link #add} wait up to
+   * {@code maxWaitMillis}. Unstored comments are spilled to files in {@code spillDirectory}.
+   */
+  public CommentWriteBuffer(DatastoreService datastore, int capacity, int batchSize,
+      long flushMillis, long maxWaitMillis, File spillDirectory) {
+    this.datastore = datastore;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.batchSize = batchSize;
+    this.flushMillis = flushMillis;
+    this.maxWaitMillis = maxWaitMillis;
+    this.spillDirectory = spillDirectory;
+    writer.execute(this::writeLoop);
+  }
+
+  /** Creates a buffer configured from {@code comments.writeBehind*} system properties. */
+  public static CommentWriteBuffer fromSystemProperties(DatastoreService datastore) {
+    File defaultSpill = new File(System.getProperty("java.io.tmpdir"), "comment-spill");
+    return new CommentWriteBuffer(datastore,
+        Integer.getInteger("comments.writeBehindCapacity", 10_000),
+        Integer.getInteger("comments.writeBehindBatchSize", 100),
+        Long.getLong("comments.writeBehindFlushMillis", 50),
+        Long.getLong("comments.writeBehindMaxWaitMillis", 100),
+        new File(System.getProperty("comments.spillDir", defaultSpill.getPath())));
+  }
+
+  /** Returns a new comment key. Comments added to this buffer must have one. */
+  public synchronized Key allocateKey() {
+    if (!allocatedKeys.hasNext()) {
+      allocatedKeys = datastore.allocateIds(Comment.KIND, batchSize).iterator();
+    }
+    return allocatedKeys.next();
+  }
+
+  /**
+   * Queues {@code comment} to be stored and runs {@code afterStored} on the writer thread once it
+   * is. If the buffer stays full the comment is stored before this returns.
+   */
+  public void add(Entity comment, Runnable afterStored) {
+    Pending pending = new Pending(comment, afterStored);
+    stopLock.readLock().lock();
+    try {
+      if (!stopped && queue.offer(pending, maxWaitMillis, TimeUnit.MILLISECONDS)) {
+        return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      stopLock.readLock().unlock();
+    }
+    datastore.put(comment);
+    afterStored.run();
+  }
+
+  /**
+   * Stores the comments spilled before the last shutdown and returns them. Spill files are removed
+   * once their comments are stored; ones that fail are kept for the next start.
+   */
+  public List<Entity> replaySpill() {
+    List<Entity> replayed = new ArrayList<>();
+    File[] files = spillDirectory.listFiles((dir, name) -> name.endsWith(SPILL_SUFFIX));
+    if (files == null) {
+      return replayed;
+    }
+    for (File file : files) {
+      try {
+        List<Entity> entities = readSpill(file);
+        datastore.put(entities);
+        Files.delete(file.toPath());
+        replayed.addAll(entities);
+      } catch (IOException | RuntimeException e) {
+        logger.log(Level.WARNING, "Could not replay " + file + ", keeping it.", e);
+      }
+    }
+    return replayed;
+  }
+
+  /** Stores the queued comments, spilling the ones that can't be stored in time. */
+  public void shutdown() {
+    stopLock.writeLock().lock();
+    try {
+      stopped = true;
+    } finally {
+      stopLock.writeLock().unlock();
+    }
+    writer.shutdown();
+    try {
+      if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+        writer.shutdownNow();
+        writer.awaitTermination(1, TimeUnit.SECONDS);
+      }
+    } catch (InterruptedException e) {
+      writer.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    List<Pending> left = new ArrayList<>();
+    queue.drainTo(left);
+    if (!left.isEmpty()) {
+      spill(left);
+    }
+  }
+
+  private void writeLoop() {
+    List<Pending> batch = new ArrayList<>(batchSize);
+    try {
+      while (!stopped || !queue.isEmpty()) {
+        Pending first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        while (batch.size() < batchSize) {
+          Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+        store(batch);
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      // Shutting down; whatever is left in the batch or the queue gets spilled.
+      if (!batch.isEmpty()) {
+        spill(batch);
+      }
+    }
+  }
+
+  private void store(List<Pending> batch) {
+    List<Entity> entities = new ArrayList<>(batch.size());
+    for (Pending pending : batch) {
+      entities.add(pending.entity);
+    }
+    for (int attempt = 1; ; attempt++) {
+      try {
+        datastore.put(entities);
+        break;
+      } catch (RuntimeException e) {
+        if (attempt >= STORE_ATTEMPTS) {
+          logger.log(Level.WARNING,
+              "Could not store " + entities.size() + " comments, spilling.", e);
+          spill(batch);
+          return;
+        }
+      }
+      try {
+        TimeUnit.MILLISECONDS.sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+      } catch (InterruptedException e) {
+        // Shutting down, keep the batch for the next start.
+        Thread.currentThread().interrupt();
+        spill(batch);
+        return;
+      }
+    }
+    for (Pending pending : batch) {
+      try {
+        pending.afterStored.run();
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Callback for " + pending.entity.getKey() + " failed.", e);
+      }
+    }
+  }
+
+  /** Writes {@code batch} to a new spill file, which only appears once it is completely written. */
+  private void spill(List<Pending> batch) {
+    ArrayList<Entity> entities = new ArrayList<>(batch.size());
+    for (Pending pending : batch) {
+      entities.add(pending.entity);
+    }
+    String name = System.currentTimeMillis() + "-" + spillCount.incrementAndGet();
+    File temporary = new File(spillDirectory, name + ".tmp");
+    try {
+      Files.createDirectories(spillDirectory.toPath());
+      try (FileOutputStream file = new FileOutputStream(temporary);
+          ObjectOutputStream out = new ObjectOutputStream(file)) {
+        out.writeObject(entities);
+        out.flush();
+        file.getFD().sync();
+      }
+      Files.move(temporary.toPath(), new File(spillDirectory, name + SPILL_SUFFIX).toPath(),
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.log(Level.SEVERE, "Could not spill " + entities.size() + " comments.", e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Entity> readSpill(File file) throws IOException {
+    try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+      return (List<Entity>) in.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Unreadable spill file " + file, e);
+    }
+  }
+}
@@ -0,0 +1,251 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps comments as {@code Comment} entities in Datastore. New comments go through a {@link
+ * CommentWriteBuffer} if one is given, and deletions are run by a {@link CommentDeleter}. With
+ * {@link CommentShards} on, pages merge one query per shard, and their cursors hold one Datastore
+ * cursor per query.
+ */
+public final class DatastoreCommentRepository implements CommentRepository {
+  // Pages are fetched in chunks of at most this many, so the first comments arrive early.
+  private static final int CHUNK_SIZE = 20;
+  // Separates the cursors of the merged queries; web-safe cursors never contain it.
+  private static final String CURSOR_SEPARATOR = ".";
+
+  private final DatastoreService datastore;
+  // Null if comments are stored one at a time.
+  private final CommentWriteBuffer writeBuffer;
+  private final CommentDeleter deleter;
+  private final CommentShards shards;
+
+  public DatastoreCommentRepository(DatastoreService datastore, CommentWriteBuffer writeBuffer,
+      CommentDeleter deleter, CommentShards shards) {
+    this.datastore = datastore;
+    this.writeBuffer = writeBuffer;
+    this.deleter = deleter;
+    this.shards = shards;
+  }
+
+  @Override
+  public Comment add(String email, String text, Float score, boolean approximate,
+      Consumer<Comment> afterStored) {
+    // Buffered comments are stored later, so they get their key now.
+    Entity entity = writeBuffer == null
+        ? new Entity(Comment.KIND) : new Entity(writeBuffer.allocateKey());
+    long timestamp = System.currentTimeMillis();
+    Comment.setProperties(entity, email, text, score, approximate, timestamp);
+    shards.assign(entity, timestamp);
+    if (writeBuffer == null) {
+      datastore.put(entity);
+      Comment comment = Comment.fromEntity(entity);
+      afterStored.accept(comment);
+      return comment;
+    }
+    Comment comment = Comment.fromEntity(entity);
+    writeBuffer.add(entity, () -> afterStored.accept(comment));
+    return comment;
+  }
+
+  @Override
+  public Page list(int limit, boolean newestFirst, String cursor) {
+    SortDirection direction = newestFirst ? SortDirection.DESCENDING : SortDirection.ASCENDING;
+    if (shards.isEnabled()) {
+      return listMerged(limit, direction, cursor);
+    }
+    int chunkSize = Math.min(limit, CHUNK_SIZE);
+    QueryResultIterator<Entity> results = query(
+        new Query(Comment.KIND).addSort("timestamp", direction), limit, chunkSize, chunkSize,
+        cursor);
+    return new Page() {
+      @Override
+      public boolean hasNext() {
+        return results.hasNext();
+      }
+
+      @Override
+      public Comment next() {
+        return Comment.fromEntity(results.next());
+      }
+
+      @Override
+      public String getCursor() {
+        return results.getCursor().toWebSafeString();
+      }
+    };
+  }
+
+  /**
+   * Merges the comments stored before sharding, read through their indexed timestamp, with those
+   * of every shard. All the queries are started before any is read, so their first batches are
+   * fetched concurrently.
+   */
+  private Page listMerged(int limit, SortDirection direction, String cursor) {
+    int streams = shards.getCount() + 1;
+    String[] cursors = cursor == null
+        ? new String[streams] : cursor.split(Pattern.quote(CURSOR_SEPARATOR), -1);
+    if (cursors.length != streams) {
+      throw new IllegalArgumentException("Cursor is not from " + shards.getCount() + " shards");
+    }
+    // Each query may supply the whole page, but usually supplies about its share of it.
+    int chunkSize = Math.min(limit, CHUNK_SIZE);
+    int prefetchSize = Math.min(chunkSize, limit / streams + 1);
+    List<QueryResultIterator<Entity>> results = new ArrayList<>(streams);
+    results.add(query(new Query(Comment.KIND).addSort("timestamp", direction), limit,
+        prefetchSize, chunkSize, cursors[0]));
+    for (int shard = 0; shard < shards.getCount(); shard++) {
+      results.add(query(new Query(Comment.KIND).setFilter(shards.range(shard, null))
+          .addSort(CommentShards.SORT_KEY_PROPERTY, direction), limit, prefetchSize, chunkSize,
+          cursors[shard + 1]));
+    }
+    return new MergedPage(results, cursors, limit, direction == SortDirection.DESCENDING);
+  }
+
+  private QueryResultIterator<Entity> query(Query query, int limit, int prefetchSize,
+      int chunkSize, String cursor) {
+    FetchOptions fetchOptions =
+        FetchOptions.Builder.withLimit(limit).prefetchSize(prefetchSize).chunkSize(chunkSize);
+    if (cursor != null && !cursor.isEmpty()) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    return datastore.prepare(query).asQueryResultIterator(fetchOptions);
+  }
+
+  @Override
+  public Map<Long, Comment> get(Collection<Long> ids) {
+    List<Key> keys = new ArrayList<>(ids.size());
+    for (long id : ids) {
+      keys.add(KeyFactory.createKey(Comment.KIND, id));
+    }
+    Map<Long, Comment> comments = new HashMap<>();
+    for (Entity entity : datastore.get(keys).values()) {
+      comments.put(entity.getKey().getId(), Comment.fromEntity(entity));
+    }
+    return comments;
+  }
+
+  @Override
+  public Deletion deleteAll() {
+    return deleter.deleteAll();
+  }
+
+  @Override
+  public Deletion getDeletion(long id) {
+    return deleter.get(id);
+  }
+
+  @Override
+  public long getBulkChangeVersion() {
+    // Both only grow, so their sum changes when either does, whatever the clocks of the instances.
+    return deleter.lastFinished() + CommentTransfer.lastImportFinished(datastore);
+  }
+
+  /**
+   * Merges queries that are each in timestamp order. The cursor is the position of every query
+   * just after the last comment it supplied, so the heads read ahead but not returned are read
+   * again by the next page.
+   */
+  private static final class MergedPage implements Page {
+    private final List<QueryResultIterator<Entity>> results;
+    private final String[] cursors;
+    private final Comment[] heads;
+    // The cursor of each query just after its head.
+    private final String[] headCursors;
+    private final boolean newestFirst;
+    private int remaining;
+
+    MergedPage(List<QueryResultIterator<Entity>> results, String[] cursors, int limit,
+        boolean newestFirst) {
+      this.results = results;
+      this.cursors = cursors;
+      this.heads = new Comment[results.size()];
+      this.headCursors = new String[results.size()];
+      this.newestFirst = newestFirst;
+      this.remaining = limit;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return remaining > 0 && nextStream() >= 0;
+    }
+
+    @Override
+    public Comment next() {
+      int stream = remaining > 0 ? nextStream() : -1;
+      if (stream < 0) {
+        throw new NoSuchElementException();
+      }
+      Comment comment = heads[stream];
+      heads[stream] = null;
+      cursors[stream] = headCursors[stream];
+      remaining--;
+      return comment;
+    }
+
+    @Override
+    public String getCursor() {
+      StringBuilder cursor = new StringBuilder();
+      for (int i = 0; i < cursors.length; i++) {
+        if (i > 0) {
+          cursor.append(CURSOR_SEPARATOR);
+        }
+        if (cursors[i] != null) {
+          cursor.append(cursors[i]);
+        }
+      }
+      return cursor.toString();
+    }
+
+    /** Returns the query whose head comes next, or -1 once every query is used up. */
+    private int nextStream() {
+      int next = -1;
+      for (int i = 0; i < heads.length; i++) {
+        QueryResultIterator<Entity> stream = results.get(i);
+        if (heads[i] == null && stream.hasNext()) {
+          heads[i] = Comment.fromEntity(stream.next());
+          headCursors[i] = stream.getCursor().toWebSafeString();
+        }
+        if (heads[i] != null && (next < 0 || comesBefore(heads[i], heads[next]))) {
+          next = i;
+        }
+      }
+      return next;
+    }
+
+    private boolean comesBefore(Comment a, Comment b) {
+      return newestFirst
+          ? a.getTimestamp() > b.getTimestamp() : a.getTimestamp() < b.getTimestamp();
+    }
+  }
+}
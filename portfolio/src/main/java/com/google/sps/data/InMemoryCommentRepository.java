@@ -0,0 +1,164 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps comments in memory, ordered by timestamp in a concurrent skip list, so the comment path can
+ * be exercised without any cloud services. Reads never block writes; a page sees the comments that
+ * were there as it is iterated. Cursors are the position of the last comment read.
+ */
+public final class InMemoryCommentRepository implements CommentRepository {
+  private final ConcurrentSkipListMap<Position, Comment> comments = new ConcurrentSkipListMap<>();
+  private final Map<Long, Comment> byId = new ConcurrentHashMap<>();
+  private final Map<Long, Deletion> deletions = new ConcurrentHashMap<>();
+  private final AtomicLong nextId = new AtomicLong(1);
+  private final AtomicLong nextDeletionId = new AtomicLong(1);
+
+  /** Where a comment sorts: by timestamp, then by id among comments of the same millisecond. */
+  private static final class Position implements Comparable<Position> {
+    final long timestamp;
+    final long id;
+
+    Position(long timestamp, long id) {
+      this.timestamp = timestamp;
+      this.id = id;
+    }
+
+    static Position parse(String cursor) {
+      int separator = cursor.indexOf(':');
+      if (separator < 0) {
+        throw new IllegalArgumentException("Not a cursor: " + cursor);
+      }
+      try {
+        return new Position(Long.parseLong(cursor.substring(0, separator)),
+            Long.parseLong(cursor.substring(separator + 1)));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Not a cursor: " + cursor, e);
+      }
+    }
+
+    @Override
+    public int compareTo(Position other) {
+      int byTime = Long.compare(timestamp, other.timestamp);
+      return byTime != 0 ? byTime : Long.compare(id, other.id);
+    }
+
+    @Override
+    public String toString() {
+      return timestamp + ":" + id;
+    }
+  }
+
+  @Override
+  public Comment add(String email, String text, Float score, boolean approximate,
+      Consumer<Comment> afterStored) {
+    Comment comment = new Comment(nextId.getAndIncrement(), email, text, score, approximate,
+        System.currentTimeMillis());
+    comments.put(new Position(comment.getTimestamp(), comment.getId()), comment);
+    byId.put(comment.getId(), comment);
+    afterStored.accept(comment);
+    return comment;
+  }
+
+  @Override
+  public Page list(int limit, boolean newestFirst, String cursor) {
+    NavigableMap<Position, Comment> view = newestFirst ? comments.descendingMap() : comments;
+    if (cursor != null) {
+      view = view.tailMap(Position.parse(cursor), false);
+    }
+    Iterator<Map.Entry<Position, Comment>> entries = view.entrySet().iterator();
+    return new Page() {
+      private int returned;
+      private Position last = cursor == null ? null : Position.parse(cursor);
+
+      @Override
+      public boolean hasNext() {
+        return returned < limit && entries.hasNext();
+      }
+
+      @Override
+      public Comment next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Map.Entry<Position, Comment> entry = entries.next();
+        returned++;
+        last = entry.getKey();
+        return entry.getValue();
+      }
+
+      @Override
+      public String getCursor() {
+        return last == null ? null : last.toString();
+      }
+    };
+  }
+
+  @Override
+  public Map<Long, Comment> get(Collection<Long> ids) {
+    Map<Long, Comment> found = new HashMap<>();
+    for (long id : ids) {
+      Comment comment = byId.get(id);
+      if (comment != null) {
+        found.put(id, comment);
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public Deletion deleteAll() {
+    // Like the Datastore deletion, keep comments that are posted while this runs.
+    Position cutoff = new Position(System.currentTimeMillis(), Long.MAX_VALUE);
+    long deleted = 0;
+    for (Position position : comments.headMap(cutoff, true).keySet()) {
+      if (comments.remove(position) != null) {
+        byId.remove(position.id);
+        deleted++;
+      }
+    }
+    Deletion deletion =
+        new Deletion(nextDeletionId.getAndIncrement(), Deletion.DONE, deleted);
+    deletions.put(deletion.getId(), deletion);
+    return deletion;
+  }
+
+  @Override
+  public Deletion getDeletion(long id) {
+    return deletions.get(id);
+  }
+
+  @Override
+  public long getBulkChangeVersion() {
+    // Deletions finish as soon as they are made.
+    return nextDeletionId.get() - 1;
+  }
+
+  /** Returns how many comments are stored. */
+  public int size() {
+    return comments.size();
+  }
+}
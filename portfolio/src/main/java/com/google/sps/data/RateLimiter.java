@@ -0,0 +1,148 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A token bucket per key: each key may act {@code burst} times at once, and then once every
+ * {@code 1 / ratePerMinute} minutes. A bucket is a single {@link AtomicLong} holding the time at
+ * which it will be full again, so taking a token is one compare-and-set with no lock, and the
+ * buckets of different keys live in different stripes of a {@link ConcurrentHashMap}. Buckets
+ * that have refilled are dropped, since a missing bucket means a full one.
+ *
+ * <p>The buckets are per instance. Given a {@link MemcacheService}, a key that passes its bucket
+ * must also pass a counter shared by every instance, allowing {@code burst} actions per window of
+ * {@code burst / ratePerMinute} minutes. Near a window boundary that allows up to twice the burst.
+ * If memcache doesn't answer, only the per-instance bucket applies.
+ */
+public final class RateLimiter {
+  // Buckets are swept for full ones after this many calls.
+  private static final int SWEEP_INTERVAL = 10_000;
+  private static final String MEMCACHE_PREFIX = RateLimiter.class.getName() + ":";
+
+  private final long nanosPerToken;
+  private final long burstNanos;
+  private final int burst;
+  private final long windowMillis;
+  private final MemcacheService shared;
+  private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+  private final LongAdder calls = new LongAdder();
+
+  /**
+   * Creates a limiter allowing {@code ratePerMinute} actions a minute, 0 for no limit, on this
+   * instance only.
+   */
+  public RateLimiter(double ratePerMinute, int burst) {
+    this(ratePerMinute, burst, null);
+  }
+
+  /**
+   * Creates a limiter allowing {@code ratePerMinute} actions a minute, 0 for no limit. Pass a
+   * {@code shared} memcache to also limit each key across instances, or null.
+   */
+  public RateLimiter(double ratePerMinute, int burst, MemcacheService shared) {
+    this.nanosPerToken =
+        ratePerMinute > 0 ? (long) (TimeUnit.MINUTES.toNanos(1) / ratePerMinute) : 0;
+    this.burst = Math.max(1, burst);
+    this.burstNanos = nanosPerToken * this.burst;
+    this.windowMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(burstNanos));
+    this.shared = shared;
+  }
+
+  /**
+   * Creates a limiter for posting comments, configured from the {@code comments.postsPerMinute}
+   * (10), {@code comments.postBurst} (5) and {@code comments.postLimitMemcache} system
+   * properties.
+   */
+  public static RateLimiter forPostsFromSystemProperties() {
+    boolean useMemcache = Boolean.getBoolean("comments.postLimitMemcache");
+    return new RateLimiter(
+        Double.parseDouble(System.getProperty("comments.postsPerMinute", "10")),
+        Integer.getInteger("comments.postBurst", 5),
+        useMemcache ? MemcacheServiceFactory.getMemcacheService() : null);
+  }
+
+  /**
+   * Takes a token from the bucket of {@code key}. Returns 0 if there was one, or else how many
+   * milliseconds until there will be, without taking anything.
+   */
+  public long tryAcquire(String key) {
+    if (nanosPerToken == 0) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    sweepOccasionally(now);
+    AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    while (true) {
+      long fullAt = bucket.get();
+      // A bucket that refilled long ago holds no more than the burst.
+      long start = Math.max(fullAt, now);
+      long next = start + nanosPerToken;
+      if (next - now > burstNanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - now - burstNanos));
+      }
+      if (bucket.compareAndSet(fullAt, next)) {
+        return shared == null ? 0 : tryAcquireShared(key);
+      }
+    }
+  }
+
+  /**
+   * Counts an action of {@code key} in the shared counter of the current window. Returns 0 if it
+   * is within the burst, or else how many milliseconds until the next window.
+   */
+  private long tryAcquireShared(String key) {
+    // Wall clock time, so that every instance agrees on the window.
+    long now = System.currentTimeMillis();
+    long window = now / windowMillis;
+    String counter = MEMCACHE_PREFIX + key + ":" + window;
+    Long count = shared.increment(counter, 1);
+    if (count == null) {
+      // The first action of the window creates the counter, expiring once the window is over.
+      Expiration expiration =
+          Expiration.byDeltaMillis((int) Math.min(Integer.MAX_VALUE, 2 * windowMillis));
+      count = shared.put(counter, 1L, expiration, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)
+          ? Long.valueOf(1) : shared.increment(counter, 1);
+    }
+    if (count == null || count <= burst) {
+      return 0;
+    }
+    return Math.max(1, (window + 1) * windowMillis - now);
+  }
+
+  /** Returns the number of keys with a bucket that isn't full. */
+  public int size() {
+    return buckets.size();
+  }
+
+  private void sweepOccasionally(long now) {
+    calls.increment();
+    if (calls.sum() < SWEEP_INTERVAL) {
+      return;
+    }
+    calls.reset();
+    // A racing tryAcquire may lose its token to this; that only errs on the side of allowing.
+    buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+  }
+}
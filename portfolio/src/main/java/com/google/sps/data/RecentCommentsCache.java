@@ -0,0 +1,243 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps the newest comments in memory so the usual "newest N comments" request doesn't query
+ * Datastore. The window is read through from the repository on first use and then kept current by
+ * the writers: new comments and scores are applied to it, and deletions invalidate it. Writers on
+ * other instances can't reach a window kept in this process, so it is reloaded once it is older
+ * than the expiry, which bounds how long their posts and deletions go unseen. With {@code
+ * memcache} set the window lives in memcache instead, so every instance shares one copy; the
+ * expiry there bounds how long a load that raced with a write can serve a stale window.
+ */
+public final class RecentCommentsCache {
+  private static final String MEMCACHE_KEY = RecentCommentsCache.class.getName();
+  private static final int MAX_UPDATE_ATTEMPTS = 3;
+
+  private final CommentRepository repository;
+  private final int depth;
+  // Null if the window is kept in this process.
+  private final MemcacheService memcache;
+  private final Expiration expiration;
+  private final long expiryNanos;
+
+  // Newest first, or null until loaded. Never modified, changes replace it. Guarded by this.
+  private ArrayList<Entry> window;
+  // When the window was loaded, by System.nanoTime(). Guarded by this.
+  private long loadedAtNanos;
+  // Bumped by every change, so a load that raced with one is not kept. Guarded by this.
+  private long version;
+
+  /** A cached comment and the cursor that points just after it in newest-first order. */
+  public static final class Entry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Comment comment;
+    private final String cursor;
+
+    Entry(Comment comment, String cursor) {
+      this.comment = comment;
+      this.cursor = cursor;
+    }
+
+    public Comment getComment() {
+      return comment;
+    }
+
+    /**
+     * Returns the repository cursor of the comments after this one, or null for comments that were
+     * added to the cache directly and so never came from a query.
+     */
+    public String getCursor() {
+      return cursor;
+    }
+  }
+
+  /**
+   * Creates a cache of the newest {@code depth} comments, reloaded from the repository once it is
+   * {@code expirySeconds} old. Pass a {@code memcache} to share the window between instances, or
+   * null to keep it in this process.
+   */
+  public RecentCommentsCache(CommentRepository repository, int depth, MemcacheService memcache,
+      int expirySeconds) {
+    this.repository = repository;
+    this.depth = depth;
+    this.memcache = memcache;
+    this.expiration = Expiration.byDeltaSeconds(expirySeconds);
+    this.expiryNanos = TimeUnit.SECONDS.toNanos(expirySeconds);
+  }
+
+  /** Creates a cache configured from {@code comments.cache*} system properties. */
+  public static RecentCommentsCache fromSystemProperties(CommentRepository repository) {
+    boolean useMemcache = Boolean.getBoolean("comments.cacheMemcache");
+    return new RecentCommentsCache(repository,
+        Integer.getInteger("comments.cacheDepth", 50),
+        useMemcache ? MemcacheServiceFactory.getMemcacheService() : null,
+        Integer.getInteger("comments.cacheExpirySeconds", 10));
+  }
+
+  /** Returns how many of the newest comments the cache holds. */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Returns the newest {@code count} comments, loading them from the repository if they aren't
+   * cached yet, or null if {@code count} is deeper than the cache. Fewer than {@code count} are
+   * returned only when there are no more comments.
+   */
+  public List<Entry> newest(int count) {
+    if (count > depth) {
+      return null;
+    }
+    List<Entry> entries = read();
+    if (entries == null) {
+      entries = load();
+    }
+    return new ArrayList<>(entries.subList(0, Math.min(count, entries.size())));
+  }
+
+  /** Adds a comment that was just stored. */
+  public void add(Comment comment) {
+    update(entries -> insert(entries, comment));
+  }
+
+  /** Fills in the score of the comment with id {@code id}, if it is cached. */
+  public void updateScore(long id, float score) {
+    update(entries -> rescore(entries, id, score));
+  }
+
+  /** Drops the window, for example after comments were deleted. The next read reloads it. */
+  public void invalidate() {
+    if (memcache != null) {
+      memcache.delete(MEMCACHE_KEY);
+      return;
+    }
+    synchronized (this) {
+      window = null;
+      version++;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Entry> read() {
+    if (memcache != null) {
+      return (List<Entry>) memcache.get(MEMCACHE_KEY);
+    }
+    synchronized (this) {
+      if (window != null && System.nanoTime() - loadedAtNanos >= expiryNanos) {
+        window = null;
+      }
+      return window;
+    }
+  }
+
+  private List<Entry> load() {
+    long loadVersion;
+    synchronized (this) {
+      loadVersion = version;
+    }
+    CommentRepository.Page page = repository.list(depth, true, null);
+    ArrayList<Entry> loaded = new ArrayList<>(depth);
+    while (page.hasNext()) {
+      Comment comment = page.next();
+      loaded.add(new Entry(comment, page.getCursor()));
+    }
+    if (memcache != null) {
+      // Don't overwrite a window that a writer has updated in the meantime.
+      memcache.put(MEMCACHE_KEY, loaded, expiration, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    } else {
+      synchronized (this) {
+        if (version == loadVersion) {
+          window = loaded;
+          loadedAtNanos = System.nanoTime();
+        }
+      }
+    }
+    return loaded;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void update(UnaryOperator<ArrayList<Entry>> change) {
+    if (memcache == null) {
+      synchronized (this) {
+        version++;
+        if (window != null) {
+          window = change.apply(window);
+        }
+      }
+      return;
+    }
+    for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+      IdentifiableValue current = memcache.getIdentifiable(MEMCACHE_KEY);
+      if (current == null || current.getValue() == null) {
+        return;
+      }
+      ArrayList<Entry> updated = change.apply((ArrayList<Entry>) current.getValue());
+      if (memcache.putIfUntouched(MEMCACHE_KEY, current, updated, expiration)) {
+        return;
+      }
+    }
+    // Other instances keep changing the window; drop it rather than risk losing this change.
+    memcache.delete(MEMCACHE_KEY);
+  }
+
+  private ArrayList<Entry> insert(ArrayList<Entry> entries, Comment comment) {
+    // The window may have been loaded after the comment was stored, so it can be there already.
+    for (Entry entry : entries) {
+      if (entry.getComment().getId() == comment.getId()) {
+        return entries;
+      }
+    }
+    int index = 0;
+    while (index < entries.size()
+        && entries.get(index).getComment().getTimestamp() > comment.getTimestamp()) {
+      index++;
+    }
+    if (index >= depth) {
+      return entries;
+    }
+    ArrayList<Entry> updated = new ArrayList<>(entries);
+    updated.add(index, new Entry(comment, null));
+    while (updated.size() > depth) {
+      updated.remove(updated.size() - 1);
+    }
+    return updated;
+  }
+
+  private ArrayList<Entry> rescore(ArrayList<Entry> entries, long id, float score) {
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      if (entry.getComment().getId() == id) {
+        ArrayList<Entry> updated = new ArrayList<>(entries);
+        updated.set(i, new Entry(entry.getComment().withScore(score), entry.getCursor()));
+        return updated;
+      }
+    }
+    return entries;
+  }
+}
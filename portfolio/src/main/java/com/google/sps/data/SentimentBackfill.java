@@ -0,0 +1,329 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.sps.sentiment.SentimentAnalyzer;
+import com.google.sps.sentiment.SentimentRejectedException;
+import java.util.ConcurrentModificationException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scores stored comments in the background. Comments are saved with a pending score so posting
+ * only costs a Datastore write; a pool of workers then calls the sentiment analyzer and fills in
+ * the {@code score} property. Failed calls are retried with exponential backoff, and calls are
+ * paced to stay under a configurable rate. A text the analyzer rejects is not retried; its comment
+ * stops being pending and keeps its estimate, if it has one.
+ *
+ * <p>Scores are stored on the workers too, not on the analyzer's threads. A comment holds one of
+ * {@code queueCapacity} slots from when it is queued until its score is stored or it is given up
+ * on, so a slow analyzer or Datastore makes new comments wait as pending instead of piling up in
+ * memory. A comment already queued is not queued again.
+ */
+public final class SentimentBackfill {
+  /** Property set on comments that are still waiting for a score. */
+  public static final String PENDING_PROPERTY = "scorePending";
+
+  // Attempts at storing a score while the comment is being written by someone else.
+  private static final int STORE_ATTEMPTS = 3;
+  private static final int RESUBMIT_PAGE_SIZE = 500;
+
+  private static final Logger logger = Logger.getLogger(SentimentBackfill.class.getName());
+
+  private final SentimentAnalyzer analyzer;
+  private final DatastoreService datastore;
+  // Told the id and score of each comment once its score is stored.
+  private final BiConsumer<Long, Float> afterScored;
+  private final ThreadPoolExecutor workers;
+  private final ScheduledExecutorService retries;
+  // Reads the pending comments for resubmitPending, one pass at a time.
+  private final ExecutorService resubmitter;
+  private final AtomicBoolean resubmitQueued = new AtomicBoolean();
+  // One per comment from when it is queued until it is stored or given up on.
+  private final Semaphore slots;
+  // The comments holding a slot.
+  private final Set<Key> queued = ConcurrentHashMap.newKeySet();
+  private final int maxAttempts;
+  private final long retryBackoffMillis;
+  private final long nanosPerCall;
+  // The earliest time the next call to the analyzer may start, to keep under the rate limit.
+  private long nextCallNanos = System.nanoTime();
+
+  /**
+   * Creates a backfill with {@code workers} threads, room for {@code queueCapacity} waiting
+   * comments and at most {@code maxPerSecond} analyzer calls per second (0 for no limit).
+   * {@code afterScored} is called with the id and score of each comment once its score is stored.
+   */
+  public SentimentBackfill(SentimentAnalyzer analyzer, DatastoreService datastore,
+      BiConsumer<Long, Float> afterScored, int workers, int queueCapacity, double maxPerSecond,
+      int maxAttempts, long retryBackoffMillis) {
+    this.analyzer = analyzer;
+    this.datastore = datastore;
+    this.afterScored = afterScored;
+    this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueCapacity));
+    this.retries = Executors.newSingleThreadScheduledExecutor();
+    this.resubmitter = Executors.newSingleThreadExecutor();
+    this.slots = new Semaphore(queueCapacity);
+    this.maxAttempts = maxAttempts;
+    this.retryBackoffMillis = retryBackoffMillis;
+    this.nanosPerCall = maxPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxPerSecond) : 0;
+  }
+
+  /** Creates a backfill configured from {@code sentiment.*} system properties. */
+  public static SentimentBackfill fromSystemProperties(SentimentAnalyzer analyzer,
+      DatastoreService datastore, BiConsumer<Long, Float> afterScored) {
+    return new SentimentBackfill(analyzer, datastore, afterScored,
+        Integer.getInteger("sentiment.workers", 4),
+        Integer.getInteger("sentiment.queueCapacity", 10_000),
+        Double.parseDouble(System.getProperty("sentiment.maxPerSecond", "0")),
+        Integer.getInteger("sentiment.maxAttempts", 3),
+        Long.getLong("sentiment.retryBackoffMillis", 500));
+  }
+
+  /** Marks {@code comment} as waiting for a score. Call before the comment is stored. */
+  public static void markPending(Entity comment) {
+    comment.setProperty(PENDING_PROPERTY, true);
+  }
+
+  /**
+   * Queues the comment stored at {@code key} for scoring, unless it is queued already. If the queue
+   * is full the comment is left pending and picked up by the next {@link #resubmitPending()}.
+   */
+  public void submit(Key key, String text) {
+    if (!offer(key, text)) {
+      logger.warning("Sentiment queue is full, leaving " + key + " pending.");
+    }
+  }
+
+  /**
+   * Queues the comments that are still pending, for example ones left over from a restart, in the
+   * background. They are read a page at a time until the queue is full; the rest wait for the next
+   * call. Calls made while a pass is waiting to start share that pass.
+   */
+  public void resubmitPending() {
+    if (!resubmitQueued.compareAndSet(false, true)) {
+      return;
+    }
+    // Built here, as the query takes the app id from the calling thread.
+    Query query = new Query("Comment")
+        .setFilter(new FilterPredicate(PENDING_PROPERTY, FilterOperator.EQUAL, true));
+    try {
+      resubmitter.execute(() -> {
+        resubmitQueued.set(false);
+        try {
+          queuePending(query);
+        } catch (RuntimeException e) {
+          logger.log(Level.WARNING, "Could not resubmit pending comments.", e);
+        }
+      });
+    } catch (RejectedExecutionException shuttingDown) {
+      resubmitQueued.set(false);
+    }
+  }
+
+  /** Returns how many comments are queued or being scored. */
+  public int getQueuedCount() {
+    return queued.size();
+  }
+
+  /** Stops accepting comments and waits briefly for the ones being scored. */
+  public void shutdown() {
+    resubmitter.shutdownNow();
+    retries.shutdownNow();
+    workers.shutdown();
+    try {
+      workers.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void queuePending(Query query) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(RESUBMIT_PAGE_SIZE);
+    while (true) {
+      QueryResultList<Entity> page = datastore.prepare(query).asQueryResultList(fetchOptions);
+      for (Entity entity : page) {
+        if (!offer(entity.getKey(), (String) entity.getProperty("text"))) {
+          logger.info("Sentiment queue is full, the other pending comments wait for a later pass.");
+          return;
+        }
+      }
+      if (page.size() < RESUBMIT_PAGE_SIZE) {
+        return;
+      }
+      fetchOptions.startCursor(page.getCursor());
+    }
+  }
+
+  /**
+   * Queues a comment unless it is queued already. Returns false if there was no free slot.
+   */
+  private boolean offer(Key key, String text) {
+    if (!queued.add(key)) {
+      return true;
+    }
+    if (!slots.tryAcquire()) {
+      queued.remove(key);
+      return false;
+    }
+    schedule(key, text, 1);
+    return true;
+  }
+
+  /** Runs an attempt at scoring a comment that holds a slot. */
+  private void schedule(Key key, String text, int attempt) {
+    try {
+      workers.execute(() -> score(key, text, attempt));
+    } catch (RejectedExecutionException shuttingDown) {
+      // Left pending, it will be resubmitted on the next start.
+      release(key);
+    }
+  }
+
+  /** Frees the slot of a comment that is stored or given up on. */
+  private void release(Key key) {
+    queued.remove(key);
+    slots.release();
+  }
+
+  private void score(Key key, String text, int attempt) {
+    try {
+      waitForRateLimit();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      release(key);
+      return;
+    }
+    // The analyzer may batch this text with others, so don't hold the worker while waiting. The
+    // score is stored back on a worker, not on the analyzer's thread.
+    analyzer.scoreAsync(text).whenCompleteAsync((score, error) -> {
+      if (error == null) {
+        store(key, score);
+      } else if (SentimentRejectedException.isRejection(error)) {
+        logger.log(Level.INFO, "Sentiment analysis refused " + key + ", not retrying.", error);
+        store(key, null);
+      } else {
+        retry(key, text, attempt, error);
+        return;
+      }
+      release(key);
+    }, this::storeOnWorker);
+  }
+
+  /**
+   * Runs {@code task} on a worker. Every task queued holds a slot, so the queue only fills up when
+   * the backfill is shut down; then the comment is left pending.
+   */
+  private void storeOnWorker(Runnable task) {
+    try {
+      workers.execute(task);
+    } catch (RejectedExecutionException shuttingDown) {
+      logger.info("Sentiment backfill is shut down, leaving a scored comment pending.");
+    }
+  }
+
+  private void retry(Key key, String text, int attempt, Throwable error) {
+    if (attempt >= maxAttempts) {
+      logger.log(Level.WARNING, "Giving up on scoring " + key, error);
+      release(key);
+      return;
+    }
+    long backoff = retryBackoffMillis << (attempt - 1);
+    try {
+      // The comment keeps its slot while it waits.
+      retries.schedule(() -> schedule(key, text, attempt + 1), backoff, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException shuttingDown) {
+      // Left pending, it will be resubmitted on the next start.
+      release(key);
+    }
+  }
+
+  /**
+   * Stores {@code score} in a transaction, so a comment deleted since it was read is not written
+   * back. A write that races with a deletion fails and is retried, and then finds it deleted. A
+   * null score only clears the pending mark, for a text that can't be scored.
+   */
+  private void store(Key key, Float score) {
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        Entity comment = datastore.get(transaction, key);
+        comment.removeProperty(PENDING_PROPERTY);
+        if (score != null) {
+          comment.setProperty("score", score);
+          comment.removeProperty(Comment.APPROXIMATE_PROPERTY);
+        }
+        datastore.put(transaction, comment);
+        transaction.commit();
+        if (score != null) {
+          afterScored.accept(key.getId(), score);
+        }
+        return;
+      } catch (EntityNotFoundException e) {
+        // The comment was deleted while it was being scored.
+        return;
+      } catch (ConcurrentModificationException e) {
+        if (attempt >= STORE_ATTEMPTS) {
+          logger.log(Level.WARNING, "Could not store the score of " + key + ", left pending.", e);
+          return;
+        }
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Could not store the score of " + key, e);
+        return;
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  private void waitForRateLimit() throws InterruptedException {
+    if (nanosPerCall == 0) {
+      return;
+    }
+    long waitNanos;
+    synchronized (this) {
+      long now = System.nanoTime();
+      long start = Math.max(now, nextCallNanos);
+      nextCallNanos = start + nanosPerCall;
+      waitNanos = start - now;
+    }
+    TimeUnit.NANOSECONDS.sleep(waitNanos);
+  }
+}
@@ -0,0 +1,201 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.sentiment;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects texts for a short window, or until a batch is full, and scores them with one {@code
+ * scoreEach} call to the wrapped analyzer. Identical texts waiting in a batch or in flight share a
+ * single result. Each caller gets a future with its own score, or its own text's failure, so one
+ * rejected text doesn't fail the rest of its batch.
+ */
+public final class BatchingSentimentAnalyzer implements SentimentAnalyzer {
+  private final SentimentAnalyzer delegate;
+  private final long windowMillis;
+  private final int maxBatchSize;
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+  private final ExecutorService senders;
+
+  // Futures for every text that is waiting in the batch or being scored, used for coalescing.
+  private final Map<String, CompletableFuture<Float>> pending = new ConcurrentHashMap<>();
+
+  // Guarded by this.
+  private List<String> batch = new ArrayList<>();
+  private ScheduledFuture<?> scheduledFlush;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+
+  /**
+   * Creates a batcher that sends a batch after {@code windowMillis} or once it has {@code
+   * maxBatchSize} texts, with up to {@code senders} batches in flight.
+   */
+  public BatchingSentimentAnalyzer(
+      SentimentAnalyzer delegate, long windowMillis, int maxBatchSize, int senders) {
+    this.delegate = delegate;
+    this.windowMillis = windowMillis;
+    this.maxBatchSize = maxBatchSize;
+    this.senders = Executors.newFixedThreadPool(senders);
+  }
+
+  @Override
+  public float score(String text) throws IOException {
+    try {
+      return scoreAsync(text).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Sentiment analysis failed.", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while scoring.");
+    }
+  }
+
+  @Override
+  public CompletableFuture<Float> scoreAsync(String text) {
+    requests.incrementAndGet();
+    CompletableFuture<Float> future = new CompletableFuture<>();
+    CompletableFuture<Float> existing = pending.putIfAbsent(text, future);
+    if (existing != null) {
+      coalesced.incrementAndGet();
+      return existing;
+    }
+
+    List<String> fullBatch = null;
+    synchronized (this) {
+      batch.add(text);
+      if (batch.size() >= maxBatchSize) {
+        fullBatch = takeBatch();
+      } else if (batch.size() == 1) {
+        scheduledFlush = timer.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (fullBatch != null) {
+      send(fullBatch);
+    }
+    return future;
+  }
+
+  /** Returns how many texts were asked for, including coalesced ones. */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /** Returns how many texts shared the result of an identical text. */
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  /** Returns how many batches were sent to the wrapped analyzer. */
+  public long getBatchCount() {
+    return batches.get();
+  }
+
+  @Override
+  public void close() {
+    flush();
+    timer.shutdownNow();
+    senders.shutdown();
+    try {
+      senders.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    delegate.close();
+  }
+
+  private void flush() {
+    List<String> texts;
+    synchronized (this) {
+      texts = takeBatch();
+    }
+    if (!texts.isEmpty()) {
+      send(texts);
+    }
+  }
+
+  /** Returns the current batch and starts a new one. Must hold the lock on this. */
+  private List<String> takeBatch() {
+    List<String> texts = batch;
+    batch = new ArrayList<>();
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    return texts;
+  }
+
+  private void send(List<String> texts) {
+    batches.incrementAndGet();
+    Runnable task = () -> {
+      List<CompletableFuture<Float>> scores;
+      try {
+        scores = delegate.scoreEach(texts);
+      } catch (RuntimeException e) {
+        for (String text : texts) {
+          takePending(text).completeExceptionally(e);
+        }
+        return;
+      }
+      for (int i = 0; i < texts.size(); i++) {
+        String text = texts.get(i);
+        scores.get(i).whenComplete((score, error) -> {
+          if (error == null) {
+            takePending(text).complete(score);
+          } else {
+            takePending(text).completeExceptionally(unwrap(error));
+          }
+        });
+      }
+      // Hold the sender until the batch is answered, so at most that many batches are in flight.
+      CompletableFuture.allOf(scores.toArray(new CompletableFuture<?>[0]))
+          .handle((done, error) -> null).join();
+    };
+    try {
+      senders.execute(task);
+    } catch (RejectedExecutionException e) {
+      // Closing, send the last batch on this thread.
+      task.run();
+    }
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException ? error.getCause() : error;
+  }
+
+  /** Removes {@code text} from the pending texts and returns its future. */
+  private CompletableFuture<Float> takePending(String text) {
+    return pending.remove(text);
+  }
+}
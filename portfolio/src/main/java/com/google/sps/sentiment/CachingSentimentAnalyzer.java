@@ -0,0 +1,282 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.sentiment;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the scores of texts that were already analyzed, so repeated comments ("great post!",
+ * "+1") never reach the wrapped analyzer. Texts are normalized and keyed by their SHA-256 hash. The
+ * in-memory cache is bounded by size and entry age; scores can also be kept in Datastore as {@code
+ * SentimentCache} entities so they survive restarts and are shared between instances. An
+ * asynchronous lookup starts the Datastore read on the caller's thread and never waits for it
+ * there.
+ *
+ * <p>Expired entities are ignored but not deleted by the cache. Each one carries its expiry as a
+ * {@code deleteAfter} timestamp for a Datastore TTL policy to remove it, set up once per project
+ * with {@code gcloud firestore fields ttls update deleteAfter --collection-group=SentimentCache
+ * --enable-ttl}.
+ */
+public final class CachingSentimentAnalyzer implements SentimentAnalyzer {
+  /** Datastore kind used when the cache is persisted. */
+  public static final String KIND = "SentimentCache";
+
+  private final SentimentAnalyzer delegate;
+  private final int maxEntries;
+  private final long ttlMillis;
+  // Null if the cache is in memory only.
+  private final AsyncDatastoreService datastore;
+  // Waits for the Datastore reads started by asynchronous lookups, off the caller's thread.
+  private final ExecutorService lookups = Executors.newCachedThreadPool();
+
+  // Least recently used entries come first. Guarded by itself.
+  private final LinkedHashMap<String, CachedScore> entries;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong persistentHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Creates a cache of at most {@code maxEntries} scores, each kept for {@code ttlMillis}. Pass a
+   * {@code datastore} to also persist scores, or null to keep them in memory only.
+   */
+  public CachingSentimentAnalyzer(SentimentAnalyzer delegate, int maxEntries, long ttlMillis,
+      AsyncDatastoreService datastore) {
+    this.delegate = delegate;
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlMillis;
+    this.datastore = datastore;
+    this.entries = new LinkedHashMap<String, CachedScore>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedScore> eldest) {
+        if (size() > CachingSentimentAnalyzer.this.maxEntries) {
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  @Override
+  public float score(String text) throws IOException {
+    String hash = hash(text);
+    Float cached = lookup(hash);
+    if (cached != null) {
+      return cached;
+    }
+    float score = delegate.score(text);
+    remember(hash, datastore == null ? null : key(hash), score);
+    return score;
+  }
+
+  @Override
+  public CompletableFuture<Float> scoreAsync(String text) {
+    String hash = hash(text);
+    Float cached = lookupInMemory(hash);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    if (datastore == null) {
+      misses.incrementAndGet();
+      return scoreAndRemember(text, hash, null);
+    }
+    // The key takes the app id from the calling thread, so it is made here for the write too.
+    Key key = key(hash);
+    Future<Entity> read = datastore.get(key);
+    long now = System.currentTimeMillis();
+    return CompletableFuture.supplyAsync(() -> readStored(hash, read, now), lookups)
+        .thenCompose(stored -> {
+          if (stored != null) {
+            persistentHits.incrementAndGet();
+            return CompletableFuture.completedFuture(stored);
+          }
+          misses.incrementAndGet();
+          return scoreAndRemember(text, hash, key);
+        });
+  }
+
+  private CompletableFuture<Float> scoreAndRemember(String text, String hash, Key key) {
+    return delegate.scoreAsync(text).thenApply(score -> {
+      remember(hash, key, score);
+      return score;
+    });
+  }
+
+  /** Returns a snapshot of the cache's hit and miss counts. */
+  public CacheStats getStats() {
+    int size;
+    synchronized (entries) {
+      size = entries.size();
+    }
+    return new CacheStats(hits.get(), persistentHits.get(), misses.get(), evictions.get(), size);
+  }
+
+  @Override
+  public void close() {
+    lookups.shutdown();
+    delegate.close();
+  }
+
+  /** Returns the cached score for {@code hash}, or null on a miss, waiting for Datastore. */
+  private Float lookup(String hash) {
+    Float cached = lookupInMemory(hash);
+    if (cached != null) {
+      return cached;
+    }
+    if (datastore != null) {
+      Float stored = readStored(hash, datastore.get(key(hash)), System.currentTimeMillis());
+      if (stored != null) {
+        persistentHits.incrementAndGet();
+        return stored;
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /** Returns the score cached in memory for {@code hash}, or null if it isn't. */
+  private Float lookupInMemory(String hash) {
+    long now = System.currentTimeMillis();
+    synchronized (entries) {
+      CachedScore entry = entries.get(hash);
+      if (entry != null && entry.expiresAtMillis > now) {
+        hits.incrementAndGet();
+        return entry.score;
+      }
+      if (entry != null) {
+        entries.remove(hash);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Waits for the Datastore {@code read} of {@code hash} and returns its score, or null if there
+   * is none that is still fresh at {@code now}.
+   */
+  private Float readStored(String hash, Future<Entity> read, long now) {
+    try {
+      Entity entity = read.get();
+      long expiresAtMillis = (Long) entity.getProperty("expiresAt");
+      if (expiresAtMillis <= now) {
+        return null;
+      }
+      float score = ((Number) entity.getProperty("score")).floatValue();
+      synchronized (entries) {
+        entries.put(hash, new CachedScore(score, expiresAtMillis));
+      }
+      return score;
+    } catch (ExecutionException e) {
+      // EntityNotFoundException or a Datastore error, either way treat it as a miss.
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /** Caches {@code score}, and stores it at {@code key} unless that is null. */
+  private void remember(String hash, Key key, float score) {
+    long expiresAtMillis = System.currentTimeMillis() + ttlMillis;
+    synchronized (entries) {
+      entries.put(hash, new CachedScore(score, expiresAtMillis));
+    }
+    if (key != null) {
+      Entity entity = new Entity(key);
+      entity.setUnindexedProperty("score", score);
+      entity.setProperty("expiresAt", expiresAtMillis);
+      entity.setUnindexedProperty("deleteAfter", new Date(expiresAtMillis));
+      // Written in the background, the in-memory entry already serves this instance.
+      datastore.put(entity);
+    }
+  }
+
+  private static Key key(String hash) {
+    return KeyFactory.createKey(KIND, hash);
+  }
+
+  /**
+   * Returns the hex SHA-256 of {@code text} after trimming, lower-casing and collapsing runs of
+   * whitespace, so trivially different copies of a comment share an entry.
+   */
+  static String hash(String text) {
+    String normalized = text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(normalized.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class CachedScore {
+    private final float score;
+    private final long expiresAtMillis;
+
+    CachedScore(float score, long expiresAtMillis) {
+      this.score = score;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  /** Hit and miss counts of the cache, used to tune its size. */
+  public static final class CacheStats {
+    private final long hits;
+    private final long persistentHits;
+    private final long misses;
+    private final long evictions;
+    private final int size;
+    private final double hitRate;
+
+    CacheStats(long hits, long persistentHits, long misses, long evictions, int size) {
+      this.hits = hits;
+      this.persistentHits = persistentHits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.size = size;
+      long lookups = hits + persistentHits + misses;
+      this.hitRate = lookups == 0 ? 0 : (double) (hits + persistentHits) / lookups;
+    }
+
+    public double getHitRate() {
+      return hitRate;
+    }
+  }
+}
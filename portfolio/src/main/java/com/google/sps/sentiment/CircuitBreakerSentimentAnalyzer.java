@@ -0,0 +1,226 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.sentiment;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Stops calling the wrapped analyzer while it is failing, so callers get a {@link
+ * SentimentUnavailableException} at once instead of waiting on it. Every call is given {@code
+ * timeoutMillis}; after {@code failureThreshold} failures or timeouts in a row the breaker opens
+ * and refuses calls for {@code openMillis}. Then a single probe call is let through: if it
+ * succeeds the breaker closes again, otherwise it stays open for another period.
+ *
+ * <p>Each call is tagged with the state it was let through in, and only counts while that state
+ * lasts. A call started before the breaker opened can't close it, and while half open only the
+ * probe decides. Calls refused because too many are already in flight don't count either, since
+ * they say nothing about the wrapped analyzer. A {@link SentimentRejectedException} counts as a
+ * success: the analyzer answered, it just refused that one text.
+ */
+public final class CircuitBreakerSentimentAnalyzer implements SentimentAnalyzer {
+  private static final Logger logger =
+      Logger.getLogger(CircuitBreakerSentimentAnalyzer.class.getName());
+
+  private enum State { CLOSED, OPEN, HALF_OPEN }
+
+  private final SentimentAnalyzer delegate;
+  private final long timeoutMillis;
+  private final int failureThreshold;
+  private final long openMillis;
+  private final Runnable onRecovery;
+  // One permit per call in flight, held until the wrapped analyzer answers.
+  private final Semaphore inFlight;
+  // Calls start here, so a caller never blocks on the wrapped analyzer past its timeout.
+  private final ExecutorService callers;
+  private final ScheduledExecutorService timer;
+
+  // Guarded by this.
+  private State state = State.CLOSED;
+  // Bumped on every change of state, so calls let through in an earlier one are ignored.
+  private long generation;
+  private int consecutiveFailures;
+  private long openedAtMillis;
+
+  /**
+   * Creates a breaker around {@code delegate} that runs at most {@code maxConcurrentCalls} calls
+   * at once. {@code onRecovery} runs, on a background thread, each time the breaker closes after
+   * being open.
+   */
+  public CircuitBreakerSentimentAnalyzer(SentimentAnalyzer delegate, long timeoutMillis,
+      int failureThreshold, long openMillis, int maxConcurrentCalls, Runnable onRecovery) {
+    this.delegate = delegate;
+    this.timeoutMillis = timeoutMillis;
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+    this.onRecovery = onRecovery;
+    this.inFlight = new Semaphore(maxConcurrentCalls);
+    // No more calls than permits, so no call ever waits for a thread.
+    this.callers = Executors.newFixedThreadPool(maxConcurrentCalls);
+    this.timer = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @Override
+  public float score(String text) throws IOException {
+    try {
+      return scoreAsync(text).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while scoring.");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  @Override
+  public CompletableFuture<Float> scoreAsync(String text) {
+    CompletableFuture<Float> result = new CompletableFuture<>();
+    if (!inFlight.tryAcquire()) {
+      result.completeExceptionally(
+          new SentimentUnavailableException("Too many sentiment calls in flight."));
+      return result;
+    }
+    long admitted = admit();
+    if (admitted < 0) {
+      inFlight.release();
+      result.completeExceptionally(
+          new SentimentUnavailableException("Sentiment analysis is unavailable."));
+      return result;
+    }
+    ScheduledFuture<?> timeout = timer.schedule(
+        () -> result.completeExceptionally(new SentimentUnavailableException(
+            "Sentiment analysis took longer than " + timeoutMillis + " ms.")),
+        timeoutMillis, TimeUnit.MILLISECONDS);
+    try {
+      callers.execute(() -> call(text, result));
+    } catch (RejectedExecutionException e) {
+      // Closed.
+      inFlight.release();
+      result.completeExceptionally(
+          new SentimentUnavailableException("Sentiment analysis is shut down."));
+    }
+    // The result completes once, whichever of the call and the timeout comes first.
+    result.whenComplete((score, error) -> {
+      timeout.cancel(false);
+      record(admitted, error == null || SentimentRejectedException.isRejection(error));
+    });
+    return result;
+  }
+
+  /** Calls the wrapped analyzer, completing {@code result} with its answer. */
+  private void call(String text, CompletableFuture<Float> result) {
+    CompletableFuture<Float> call;
+    try {
+      call = delegate.scoreAsync(text);
+    } catch (RuntimeException e) {
+      call = new CompletableFuture<>();
+      call.completeExceptionally(e);
+    }
+    call.whenComplete((score, error) -> {
+      // The permit is held past a timeout, until the wrapped analyzer is done with the call.
+      inFlight.release();
+      if (error == null) {
+        result.complete(score);
+      } else {
+        result.completeExceptionally(error);
+      }
+    });
+  }
+
+  /** Returns whether calls are being refused or probed, so scores should be estimated. */
+  public synchronized boolean isDegraded() {
+    return state != State.CLOSED;
+  }
+
+  @Override
+  public void close() {
+    timer.shutdownNow();
+    callers.shutdownNow();
+    delegate.close();
+  }
+
+  /** Returns the generation a call is let through in, or -1 if it is refused. */
+  private synchronized long admit() {
+    switch (state) {
+      case CLOSED:
+        return generation;
+      case OPEN:
+        if (System.currentTimeMillis() - openedAtMillis < openMillis) {
+          return -1;
+        }
+        // Let one call through to see whether the analyzer is back.
+        moveTo(State.HALF_OPEN);
+        return generation;
+      default:
+        // The probe is still running.
+        return -1;
+    }
+  }
+
+  // Call with this held.
+  private void moveTo(State next) {
+    state = next;
+    generation++;
+  }
+
+  private void record(long admitted, boolean success) {
+    boolean recovered = false;
+    boolean opened = false;
+    synchronized (this) {
+      if (admitted != generation) {
+        // Let through before the last change of state, so it says nothing about this one.
+        return;
+      }
+      if (success) {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+          recovered = true;
+          moveTo(State.CLOSED);
+        }
+      } else {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+          opened = true;
+          moveTo(State.OPEN);
+          openedAtMillis = System.currentTimeMillis();
+        }
+      }
+    }
+    if (opened) {
+      logger.warning("Sentiment analysis is failing, estimating scores for " + openMillis
+          + " ms.");
+    }
+    if (recovered) {
+      logger.info("Sentiment analysis recovered.");
+      // Off the timer thread, which has timeouts to fire.
+      Thread recovery = new Thread(onRecovery, "sentiment-recovery");
+      recovery.setDaemon(true);
+      recovery.start();
+    }
+  }
+}
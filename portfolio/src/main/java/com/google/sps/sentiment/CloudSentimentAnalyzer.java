@@ -0,0 +1,176 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.sentiment;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores text with the Cloud Natural Language API. One client, and so one gRPC channel, is shared
+ * by every request instead of paying for a new channel, TLS handshake and credential load per call.
+ * Texts the API refuses, such as ones in an unsupported language, fail with a {@link
+ * SentimentRejectedException}.
+ */
+public final class CloudSentimentAnalyzer implements SentimentAnalyzer {
+  private static final long SHUTDOWN_SECONDS = 5;
+
+  // Created on first use so the app can start even before credentials are available.
+  private volatile LanguageServiceClient client;
+  private boolean closed;
+
+  @Override
+  public float score(String text) throws IOException {
+    Document doc =
+        Document.newBuilder().setContent(text).setType(Document.Type.PLAIN_TEXT).build();
+    // Languages supported can be found at: https://cloud.google.com/natural-language/docs/languages.
+    try {
+      Sentiment sentiment = getClient().analyzeSentiment(doc).getDocumentSentiment();
+      return sentiment.getScore();
+    } catch (ApiException e) {
+      throw toIOException(e);
+    }
+  }
+
+  /**
+   * Scores all {@code texts} in a single round trip, failing if any of them fails. See {@link
+   * #scoreEach}.
+   */
+  @Override
+  public List<Float> scoreAll(List<String> texts) throws IOException {
+    List<Float> scores = new ArrayList<>(texts.size());
+    try {
+      for (CompletableFuture<Float> score : scoreEach(texts)) {
+        scores.add(score.get());
+      }
+      return scores;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Batch sentiment analysis failed.", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while scoring.", e);
+    }
+  }
+
+  /**
+   * Scores all {@code texts} in a single round trip. The API has no multi-document sentiment call,
+   * so every document is sent at once as its own asynchronous call on the shared channel, and each
+   * text's future completes with its own call.
+   */
+  @Override
+  public List<CompletableFuture<Float>> scoreEach(List<String> texts) {
+    List<CompletableFuture<Float>> scores = new ArrayList<>(texts.size());
+    LanguageServiceClient languageService;
+    try {
+      languageService = getClient();
+    } catch (IOException e) {
+      for (int i = 0; i < texts.size(); i++) {
+        CompletableFuture<Float> score = new CompletableFuture<>();
+        score.completeExceptionally(e);
+        scores.add(score);
+      }
+      return scores;
+    }
+    for (String text : texts) {
+      Document doc =
+          Document.newBuilder().setContent(text).setType(Document.Type.PLAIN_TEXT).build();
+      ApiFuture<AnalyzeSentimentResponse> call = languageService.analyzeSentimentCallable()
+          .futureCall(AnalyzeSentimentRequest.newBuilder().setDocument(doc).build());
+      CompletableFuture<Float> score = new CompletableFuture<>();
+      // Run on the thread completing the call; it only hands the result over.
+      call.addListener(() -> {
+        try {
+          score.complete(call.get().getDocumentSentiment().getScore());
+        } catch (ExecutionException e) {
+          score.completeExceptionally(toIOException(e.getCause()));
+        } catch (InterruptedException e) {
+          // The call is done, so get() doesn't wait.
+          Thread.currentThread().interrupt();
+          score.completeExceptionally(e);
+        }
+      }, Runnable::run);
+      scores.add(score);
+    }
+    return scores;
+  }
+
+  /**
+   * Turns a failed call into an {@link IOException}: a {@link SentimentRejectedException} if the
+   * API refused the text itself, so the caller doesn't take it for an outage.
+   */
+  static IOException toIOException(Throwable error) {
+    if (error instanceof ApiException && isClientError(((ApiException) error).getStatusCode())) {
+      return new SentimentRejectedException(
+          "Sentiment analysis refused the text: " + error.getMessage(), error);
+    }
+    return new IOException("Sentiment analysis failed.", error);
+  }
+
+  private static boolean isClientError(StatusCode status) {
+    switch (status.getCode()) {
+      case INVALID_ARGUMENT:
+      case FAILED_PRECONDITION:
+      case OUT_OF_RANGE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private LanguageServiceClient getClient() throws IOException {
+    LanguageServiceClient current = client;
+    if (current != null) {
+      return current;
+    }
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Sentiment analyzer has been closed.");
+      }
+      if (client == null) {
+        client = LanguageServiceClient.create();
+      }
+      return client;
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (client == null) {
+      return;
+    }
+    client.close();
+    try {
+      client.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    client = null;
+  }
+}
@@ -0,0 +1,69 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.sentiment;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A local stand-in for the Natural Language API, for running the app, tests and benchmarks
+ * without cloud credentials. Scores are deterministic, and an artificial latency can be added to
+ * mimic the remote call.
+ */
+public final class FakeSentimentAnalyzer implements SentimentAnalyzer {
+  private final long latencyMillis;
+
+  public FakeSentimentAnalyzer(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+  }
+
+  @Override
+  public float score(String text) throws IOException {
+    simulateLatency();
+    return localScore(text);
+  }
+
+  /** Scores all {@code texts} with a single round trip of simulated latency, like the real API. */
+  @Override
+  public List<Float> scoreAll(List<String> texts) throws IOException {
+    simulateLatency();
+    List<Float> scores = new ArrayList<>(texts.size());
+    for (String text : texts) {
+      scores.add(localScore(text));
+    }
+    return scores;
+  }
+
+  private void simulateLatency() throws IOException {
+    if (latencyMillis > 0) {
+      try {
+        Thread.sleep(latencyMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while scoring.");
+      }
+    }
+  }
+
+  private static float localScore(String text) {
+    // Spread the text's hash over (-1, 1) so equal texts always get equal scores.
+    return (Math.floorMod(text.hashCode(), 1999) - 999) / 1000f;
+  }
+
+  @Override
+  public void close() {}
+}
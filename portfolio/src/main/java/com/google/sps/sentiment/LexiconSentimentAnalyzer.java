@@ -0,0 +1,106 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.sentiment;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A rough local scorer, used to estimate scores while the Natural Language API is unavailable.
+ * Each word found in a lexicon of weights from -3 to 3 adds its weight, a negation just before it
+ * ("not good") flips it, and the sum is squashed into (-1, 1). It needs no network and takes
+ * microseconds, but misses anything subtler than word choice.
+ */
+public final class LexiconSentimentAnalyzer implements SentimentAnalyzer {
+  /** The lexicon bundled with the app, next to this class. */
+  public static final String DEFAULT_LEXICON = "lexicon.tsv";
+
+  private static final Set<String> NEGATIONS = new HashSet<>(Arrays.asList(
+      "not", "no", "never", "nothing", "hardly", "without", "isn't", "wasn't", "don't", "doesn't",
+      "didn't", "can't", "won't", "aren't", "isnt", "wasnt", "dont", "doesnt", "didnt", "cant"));
+  // How many words after a negation it applies to.
+  private static final int NEGATION_SPAN = 3;
+  // Flipped words count a little less: "not bad" is milder than "good".
+  private static final float NEGATED_WEIGHT = -0.75f;
+  // Larger values make a single word count for less.
+  private static final float SQUASH = 15;
+
+  private final Map<String, Float> weights;
+
+  public LexiconSentimentAnalyzer(Map<String, Float> weights) {
+    this.weights = weights;
+  }
+
+  /**
+   * Loads the lexicon resource {@code name}, relative to this class. Each line holds a word and
+   * its weight separated by whitespace; blank lines and lines starting with # are skipped.
+   */
+  public static LexiconSentimentAnalyzer fromResource(String name) {
+    InputStream in = LexiconSentimentAnalyzer.class.getResourceAsStream(name);
+    if (in == null) {
+      throw new IllegalArgumentException("No lexicon resource " + name);
+    }
+    Map<String, Float> weights = new HashMap<>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\\s+");
+        weights.put(fields[0].toLowerCase(Locale.ROOT), Float.parseFloat(fields[1]));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new LexiconSentimentAnalyzer(weights);
+  }
+
+  @Override
+  public float score(String text) {
+    float sum = 0;
+    int negatedWords = 0;
+    for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{Nd}']+")) {
+      if (NEGATIONS.contains(word)) {
+        negatedWords = NEGATION_SPAN;
+        continue;
+      }
+      Float weight = weights.get(word);
+      if (weight != null) {
+        sum += negatedWords > 0 ? weight * NEGATED_WEIGHT : weight;
+      }
+      if (negatedWords > 0) {
+        negatedWords--;
+      }
+    }
+    double score = sum / Math.sqrt(sum * sum + SQUASH);
+    return (float) Math.max(-0.999, Math.min(0.999, score));
+  }
+
+  @Override
+  public void close() {}
+}
@@ -0,0 +1,80 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.sentiment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/** Scores how positive or negative a piece of text is. Implementations are thread-safe. */
+public interface SentimentAnalyzer extends AutoCloseable {
+
+  /** Returns the sentiment of {@code text} as a float between -1 and 1 (exclusive). */
+  float score(String text) throws IOException;
+
+  /**
+   * Returns the sentiment of each of {@code texts}, in order. Implementations that can score
+   * several texts in one round trip override this.
+   */
+  default List<Float> scoreAll(List<String> texts) throws IOException {
+    List<Float> scores = new ArrayList<>(texts.size());
+    for (String text : texts) {
+      scores.add(score(text));
+    }
+    return scores;
+  }
+
+  /**
+   * Returns a future sentiment for each of {@code texts}, in order, so that one text the analyzer
+   * rejects fails only its own future. By default the texts are scored together with {@link
+   * #scoreAll}, and all fail if it does.
+   */
+  default List<CompletableFuture<Float>> scoreEach(List<String> texts) {
+    List<CompletableFuture<Float>> futures = new ArrayList<>(texts.size());
+    for (int i = 0; i < texts.size(); i++) {
+      futures.add(new CompletableFuture<>());
+    }
+    try {
+      List<Float> scores = scoreAll(texts);
+      for (int i = 0; i < texts.size(); i++) {
+        futures.get(i).complete(scores.get(i));
+      }
+    } catch (IOException | RuntimeException e) {
+      for (CompletableFuture<Float> future : futures) {
+        future.completeExceptionally(e);
+      }
+    }
+    return futures;
+  }
+
+  /**
+   * Returns a future sentiment of {@code text}. Implementations that batch requests complete it
+   * later without blocking the caller; by default the text is scored right away.
+   */
+  default CompletableFuture<Float> scoreAsync(String text) {
+    CompletableFuture<Float> future = new CompletableFuture<>();
+    try {
+      future.complete(score(text));
+    } catch (IOException | RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /** Releases any connections held by the analyzer. */
+  @Override
+  void close();
+}
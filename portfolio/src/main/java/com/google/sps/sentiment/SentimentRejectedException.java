@@ -0,0 +1,42 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.sentiment;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Thrown when the analyzer refuses a text itself, for example one in a language it doesn't
+ * support. Trying the same text again won't help, and the analyzer is otherwise working.
+ */
+public class SentimentRejectedException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  public SentimentRejectedException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  /**
+   * Returns whether {@code error}, or the error it wraps if a future failed with it, is a {@link
+   * SentimentRejectedException}.
+   */
+  public static boolean isRejection(Throwable error) {
+    if (error instanceof CompletionException || error instanceof ExecutionException) {
+      error = error.getCause();
+    }
+    return error instanceof SentimentRejectedException;
+  }
+}
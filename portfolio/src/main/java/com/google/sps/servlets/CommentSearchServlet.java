@@ -0,0 +1,103 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.CommentRepository;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Searches comments for the words in {@code q}, best matches first. Responds with a page of
+ * {@code max-results} comments, the total number of matches and the cursor of the next page, in
+ * the same shape as /data.
+ */
+@WebServlet("/comments/search")
+public class CommentSearchServlet extends HttpServlet {
+
+  private static final int MAX_PAGE_SIZE = Integer.getInteger("comments.maxPageSize", 50);
+  private static final int DEFAULT_PAGE_SIZE = 10;
+
+  private CommentIndex index;
+  private CommentRepository comments;
+
+  @Override
+  public void init() throws ServletException {
+    index = CommentsContextListener.getIndex(getServletContext());
+    comments = CommentsContextListener.getRepository(getServletContext());
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String query = request.getParameter("q");
+    int pageSize;
+    int offset;
+    try {
+      pageSize = parseOrDefault(request.getParameter("max-results"), DEFAULT_PAGE_SIZE);
+      // The cursor is just how many results came before this page.
+      offset = parseOrDefault(request.getParameter("cursor"), 0);
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+    pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+    offset = Math.max(0, offset);
+
+    CommentIndex.Results results = index.search(query, offset, pageSize);
+    // One batch read for the whole page; comments deleted since they were indexed are skipped,
+    // and dropped from the index so later searches no longer count them.
+    Map<Long, Comment> found = comments.get(results.getIds());
+    List<Long> deleted = new ArrayList<>();
+    for (long id : results.getIds()) {
+      if (!found.containsKey(id)) {
+        deleted.add(id);
+      }
+    }
+    index.removeAll(deleted);
+    int total = results.getTotal() - deleted.size();
+
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    JsonWriter writer = new JsonWriter(response.getWriter());
+    writer.beginObject();
+    writer.name("comments").beginArray();
+    for (long id : results.getIds()) {
+      Comment comment = found.get(id);
+      if (comment != null) {
+        comment.writeJson(writer);
+      }
+    }
+    writer.endArray();
+    writer.name("total").value(total);
+    // Later results move up by one for each comment dropped from this page.
+    int next = offset + results.getIds().size() - deleted.size();
+    writer.name("nextCursor").value(next < total ? String.valueOf(next) : null);
+    writer.endObject();
+    writer.flush();
+  }
+
+  private static int parseOrDefault(String value, int defaultValue) {
+    return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+  }
+}
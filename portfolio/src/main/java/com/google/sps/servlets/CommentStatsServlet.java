@@ -0,0 +1,103 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.CommentStats;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Responds with comment counts and sentiment totals: over all comments, per author (only {@code
+ * email} if it is given) and for each of the last {@code hours} hours, newest first. The totals
+ * are kept up to date as comments change, so this doesn't read any comments. They are kept by
+ * each instance and may miss recent changes made on others; see {@link CommentStats}.
+ */
+@WebServlet("/comments/stats")
+public class CommentStatsServlet extends HttpServlet {
+
+  private static final int DEFAULT_HOURS = 24;
+  private static final int MAX_HOURS = 24 * 7;
+  private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private CommentStats stats;
+
+  @Override
+  public void init() throws ServletException {
+    stats = CommentsContextListener.getStats(getServletContext());
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String email = request.getParameter("email");
+    int hours;
+    try {
+      String value = request.getParameter("hours");
+      hours = value == null || value.isEmpty() ? DEFAULT_HOURS : Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+    hours = Math.max(0, Math.min(hours, MAX_HOURS));
+
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    JsonWriter writer = new JsonWriter(response.getWriter());
+    writer.beginObject();
+    writer.name("histogramBuckets").value(CommentStats.HISTOGRAM_BUCKETS);
+    writer.name("overall");
+    stats.getOverall().writeJson(writer);
+
+    writer.name("authors").beginObject();
+    Map<String, CommentStats.Totals> byAuthor = stats.getByAuthor();
+    if (email != null) {
+      CommentStats.Totals totals = byAuthor.get(email);
+      if (totals != null && !totals.isEmpty()) {
+        writer.name(email);
+        totals.writeJson(writer);
+      }
+    } else {
+      for (Map.Entry<String, CommentStats.Totals> author : byAuthor.entrySet()) {
+        if (!author.getValue().isEmpty()) {
+          writer.name(author.getKey());
+          author.getValue().writeJson(writer);
+        }
+      }
+    }
+    writer.endObject();
+
+    writer.name("hours").beginArray();
+    long hour = System.currentTimeMillis() / HOUR_MILLIS * HOUR_MILLIS;
+    for (int i = 0; i < hours; i++, hour -= HOUR_MILLIS) {
+      CommentStats.Totals totals = stats.getHour(hour);
+      if (totals != null && !totals.isEmpty()) {
+        writer.beginObject();
+        writer.name("start").value(hour);
+        writer.name("totals");
+        totals.writeJson(writer);
+        writer.endObject();
+      }
+    }
+    writer.endArray();
+    writer.endObject();
+    writer.flush();
+  }
+}
@@ -0,0 +1,176 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.CommentFeed;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Streams new comments to the client as server-sent events, so it doesn't have to poll /data.
+ * Each event is a comment in the same shape as /data. The request is held open without a thread,
+ * writing only when the connection can take more, and closed after {@code
+ * comments.streamTimeoutMillis}; the browser then reconnects with {@code Last-Event-ID} and
+ * carries on where it left off.
+ *
+ * <p>Off unless {@code comments.stream} is set, and then only useful on a single instance whose
+ * container sends responses as they are written. The feed only carries comments posted on the
+ * instance holding the connection. App Engine standard also buffers the whole response, so
+ * there each stream would hold a request open until the timeout and then deliver its events all
+ * at once.
+ */
+@WebServlet(urlPatterns = "/comments/stream", asyncSupported = true)
+public class CommentStreamServlet extends HttpServlet {
+
+  private static final boolean ENABLED = Boolean.getBoolean("comments.stream");
+  private static final long TIMEOUT_MILLIS = Long.getLong("comments.streamTimeoutMillis", 60_000);
+  // Sent first: how long the browser waits before reconnecting.
+  private static final byte[] PREAMBLE = "retry: 1000\n\n".getBytes(StandardCharsets.UTF_8);
+
+  private CommentFeed feed;
+
+  @Override
+  public void init() throws ServletException {
+    feed = CommentsContextListener.getFeed(getServletContext());
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!ENABLED) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    response.setContentType("text/event-stream");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    String lastEventId = request.getHeader("Last-Event-ID");
+    if (lastEventId == null) {
+      // Lets clients without EventSource resume too.
+      lastEventId = request.getParameter("lastEventId");
+    }
+    AsyncContext async = request.startAsync();
+    async.setTimeout(TIMEOUT_MILLIS);
+    Connection connection = new Connection(async, response.getOutputStream());
+    async.addListener(connection);
+    connection.start(lastEventId);
+  }
+
+  /** Writes the events of one subscriber to its open response. */
+  private final class Connection implements WriteListener, AsyncListener {
+    private final AsyncContext async;
+    private final ServletOutputStream out;
+    // Guarded by this.
+    private CommentFeed.Subscriber subscriber;
+    private boolean preambleSent;
+    private boolean unflushed;
+    private boolean closed;
+
+    Connection(AsyncContext async, ServletOutputStream out) {
+      this.async = async;
+      this.out = out;
+    }
+
+    synchronized void start(String lastEventId) {
+      subscriber = feed.subscribe(lastEventId, this::write);
+      // The container calls onWritePossible once the stream is ready.
+      out.setWriteListener(this);
+    }
+
+    /** Writes queued events for as long as the connection takes them without blocking. */
+    synchronized void write() {
+      if (closed) {
+        return;
+      }
+      try {
+        while (out.isReady()) {
+          if (!preambleSent) {
+            out.write(PREAMBLE);
+            preambleSent = true;
+            unflushed = true;
+            continue;
+          }
+          CommentFeed.Event event = subscriber.poll();
+          if (event == null) {
+            if (unflushed) {
+              unflushed = false;
+              out.flush();
+              continue;
+            }
+            return;
+          }
+          out.write(event.getBytes());
+          unflushed = true;
+        }
+        // Not ready: the container calls onWritePossible when it is.
+      } catch (IOException | IllegalStateException e) {
+        // The client went away.
+        close();
+      }
+    }
+
+    @Override
+    public void onWritePossible() {
+      write();
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      close();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      close();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      close();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      close();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {}
+
+    private synchronized void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (subscriber != null) {
+        subscriber.close();
+      }
+      try {
+        async.complete();
+      } catch (IllegalStateException alreadyComplete) {
+        // Completed by the container.
+      }
+    }
+  }
+}
@@ -0,0 +1,218 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.data.CommentDeleter;
+import com.google.sps.data.CommentFeed;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentShards;
+import com.google.sps.data.CommentStats;
+import com.google.sps.data.CommentWriteBuffer;
+import com.google.sps.data.DatastoreCommentRepository;
+import com.google.sps.data.RecentCommentsCache;
+import com.google.sps.data.SentimentBackfill;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Holds the comment state shared by every servlet. The cache of the newest comments holds {@code
+ * comments.cacheDepth} comments, 0 to turn it off; set {@code comments.cacheMemcache} to share it
+ * between instances through memcache. Comments are deleted in batches of {@code
+ * comments.deleteBatchSize}, and deletions interrupted by a restart are resumed on start. Set
+ * {@code comments.writeBehind} to store new comments in batches. The search index and the comment
+ * stats are built when the app starts.
+ */
+@WebListener
+public class CommentsContextListener implements ServletContextListener {
+  private static final String REPOSITORY_ATTRIBUTE = CommentRepository.class.getName();
+  private static final String RECENT_ATTRIBUTE = RecentCommentsCache.class.getName();
+  private static final String DELETER_ATTRIBUTE = CommentDeleter.class.getName();
+  private static final String BUFFER_ATTRIBUTE = CommentWriteBuffer.class.getName();
+  private static final String INDEX_ATTRIBUTE = CommentIndex.class.getName();
+  private static final String STATS_ATTRIBUTE = CommentStats.class.getName();
+  private static final String FEED_ATTRIBUTE = CommentFeed.class.getName();
+
+  private static final Logger logger = Logger.getLogger(CommentsContextListener.class.getName());
+
+  /** Returns the comment repository shared by every servlet of {@code context}. */
+  public static CommentRepository getRepository(ServletContext context) {
+    synchronized (context) {
+      CommentRepository repository =
+          (CommentRepository) context.getAttribute(REPOSITORY_ATTRIBUTE);
+      if (repository == null) {
+        repository = new DatastoreCommentRepository(DatastoreServiceFactory.getDatastoreService(),
+            getWriteBuffer(context), getDeleter(context), CommentShards.fromSystemProperties());
+        context.setAttribute(REPOSITORY_ATTRIBUTE, repository);
+      }
+      return repository;
+    }
+  }
+
+  /** Returns the cache of the newest comments shared by every servlet of {@code context}. */
+  public static RecentCommentsCache getRecentComments(ServletContext context) {
+    synchronized (context) {
+      RecentCommentsCache recent = (RecentCommentsCache) context.getAttribute(RECENT_ATTRIBUTE);
+      if (recent == null) {
+        recent = RecentCommentsCache.fromSystemProperties(getRepository(context));
+        context.setAttribute(RECENT_ATTRIBUTE, recent);
+      }
+      return recent;
+    }
+  }
+
+  /** Returns the search index shared by every servlet of {@code context}. */
+  public static CommentIndex getIndex(ServletContext context) {
+    synchronized (context) {
+      CommentIndex index = (CommentIndex) context.getAttribute(INDEX_ATTRIBUTE);
+      if (index == null) {
+        index = CommentIndex.fromSystemProperties(getRepository(context));
+        context.setAttribute(INDEX_ATTRIBUTE, index);
+      }
+      return index;
+    }
+  }
+
+  /** Returns the comment stats shared by every servlet of {@code context}. */
+  public static CommentStats getStats(ServletContext context) {
+    synchronized (context) {
+      CommentStats stats = (CommentStats) context.getAttribute(STATS_ATTRIBUTE);
+      if (stats == null) {
+        stats = CommentStats.fromSystemProperties(getRepository(context));
+        context.setAttribute(STATS_ATTRIBUTE, stats);
+      }
+      return stats;
+    }
+  }
+
+  /** Returns the live feed of new comments shared by every servlet of {@code context}. */
+  public static CommentFeed getFeed(ServletContext context) {
+    synchronized (context) {
+      CommentFeed feed = (CommentFeed) context.getAttribute(FEED_ATTRIBUTE);
+      if (feed == null) {
+        feed = CommentFeed.fromSystemProperties();
+        context.setAttribute(FEED_ATTRIBUTE, feed);
+      }
+      return feed;
+    }
+  }
+
+  /** Returns the comment deleter shared by every servlet of {@code context}. */
+  public static CommentDeleter getDeleter(ServletContext context) {
+    synchronized (context) {
+      CommentDeleter deleter = (CommentDeleter) context.getAttribute(DELETER_ATTRIBUTE);
+      if (deleter == null) {
+        // Looked up per batch, the cache, index and stats are created from the repository, which
+        // uses this deleter.
+        deleter = CommentDeleter.fromSystemProperties(DatastoreServiceFactory.getDatastoreService(),
+            ids -> {
+              getRecentComments(context).invalidate();
+              getIndex(context).removeAll(ids);
+              getStats(context).removeAll(ids);
+            });
+        context.setAttribute(DELETER_ATTRIBUTE, deleter);
+      }
+      return deleter;
+    }
+  }
+
+  /**
+   * Returns the write buffer shared by every servlet of {@code context}, or null if comments are
+   * stored one at a time.
+   */
+  public static CommentWriteBuffer getWriteBuffer(ServletContext context) {
+    if (!Boolean.getBoolean("comments.writeBehind")) {
+      return null;
+    }
+    synchronized (context) {
+      CommentWriteBuffer buffer = (CommentWriteBuffer) context.getAttribute(BUFFER_ATTRIBUTE);
+      if (buffer == null) {
+        buffer = CommentWriteBuffer.fromSystemProperties(
+            DatastoreServiceFactory.getDatastoreService());
+        context.setAttribute(BUFFER_ATTRIBUTE, buffer);
+      }
+      return buffer;
+    }
+  }
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    ServletContext context = event.getServletContext();
+    CommentWriteBuffer buffer = getWriteBuffer(context);
+    if (buffer != null) {
+      // Store the comments spilled when this instance, or one sharing its spill directory, last
+      // stopped, then score them.
+      SentimentBackfill backfill = SentimentContextListener.getBackfill(context);
+      for (Entity comment : buffer.replaySpill()) {
+        if (comment.hasProperty(SentimentBackfill.PENDING_PROPERTY)) {
+          backfill.submit(comment.getKey(), (String) comment.getProperty("text"));
+        }
+      }
+    }
+    // Build the search index and stats in the background so they are ready before they are read.
+    CommentIndex index = getIndex(context);
+    CommentStats stats = getStats(context);
+    Thread indexBuilder = new Thread(() -> {
+      try {
+        index.build();
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Could not build the search index, the first search will.", e);
+      }
+      try {
+        stats.build();
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Could not build the comment stats, the first read will.", e);
+      }
+    }, "comment-index-build");
+    indexBuilder.setDaemon(true);
+    indexBuilder.start();
+    CommentDeleter deleter = getDeleter(context);
+    try {
+      // Finish deletions that were still running when the app last stopped.
+      deleter.resumeRunning();
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Could not resume comment deletions.", e);
+    }
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    ServletContext context = event.getServletContext();
+    synchronized (context) {
+      // Store or spill the buffered comments first.
+      CommentWriteBuffer buffer = (CommentWriteBuffer) context.getAttribute(BUFFER_ATTRIBUTE);
+      context.removeAttribute(BUFFER_ATTRIBUTE);
+      if (buffer != null) {
+        buffer.shutdown();
+      }
+      CommentDeleter deleter = (CommentDeleter) context.getAttribute(DELETER_ATTRIBUTE);
+      context.removeAttribute(DELETER_ATTRIBUTE);
+      if (deleter != null) {
+        deleter.shutdown();
+      }
+      context.removeAttribute(INDEX_ATTRIBUTE);
+      context.removeAttribute(STATS_ATTRIBUTE);
+      context.removeAttribute(FEED_ATTRIBUTE);
+      context.removeAttribute(REPOSITORY_ATTRIBUTE);
+      context.removeAttribute(RECENT_ATTRIBUTE);
+    }
+  }
+}
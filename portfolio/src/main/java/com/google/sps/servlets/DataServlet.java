@@ -14,81 +14,311 @@
 
 package com.google.sps.servlets;
 
-import com.google.cloud.language.v1.Document;
-import com.google.cloud.language.v1.LanguageServiceClient;
-import com.google.cloud.language.v1.Sentiment;
-import com.google.appengine.api.datastore.FetchOptions;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentFeed;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentStats;
+import com.google.sps.data.RateLimiter;
+import com.google.sps.data.RecentCommentsCache;
+import com.google.sps.data.SentimentBackfill;
+import com.google.sps.sentiment.CircuitBreakerSentimentAnalyzer;
+import com.google.sps.sentiment.SentimentAnalyzer;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.ArrayList;
-import java.util.List;
 import com.google.gson.Gson;
 
 /** Servlet that returns comment data */
 @WebServlet("/data")
 public class DataServlet extends HttpServlet {
-     
+
+  // Largest page a single GET will read, whatever max-comments asks for.
+  private static final int MAX_PAGE_SIZE = Integer.getInteger("comments.maxPageSize", 50);
+  private static final int DEFAULT_PAGE_SIZE = 3;
+  // A page is {"comments":[...],"nextCursor":...}, written around the comments' own JSON.
+  private static final byte[] PAGE_START = "{\"comments\":[".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] PAGE_END = "],\"nextCursor\":".getBytes(StandardCharsets.UTF_8);
+  private static final Gson GSON = new Gson();
+  private static final int GZIP_BUFFER_SIZE = 8192;
+  // Not in HttpServletResponse.
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+
+  private SentimentAnalyzer sentimentAnalyzer;
+  private CircuitBreakerSentimentAnalyzer sentimentBreaker;
+  private SentimentAnalyzer fallbackAnalyzer;
+  private SentimentBackfill sentimentBackfill;
+  private CommentRepository comments;
+  private RecentCommentsCache recentComments;
+  private CommentIndex commentIndex;
+  private CommentStats commentStats;
+  private CommentFeed commentFeed;
+  private RateLimiter postLimiter;
+  // The last rendering of the cached first page, by page size.
+  private final Map<Integer, RenderedPage> renderedPages = new ConcurrentHashMap<>();
+  // Scoring in the background is the default; set to false to score before storing.
+  private final boolean asyncScoring =
+      Boolean.parseBoolean(System.getProperty("sentiment.async", "true"));
+
   @Override
-  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-     // Get the user input on how many comments to display.
-     // If user input for max comments is greater than all comments in the datastore, all comments will display.
-     // If comments in the datastore are empty, no comments will be displayed.
-     
-    int maxComments = getNumDisplayComments(request);
-     // Retrieves comment data from datastore. 
-     // Displays most recent comments first.
-    Query query = new Query("Comment").addSort("timestamp", SortDirection.DESCENDING);
-     // TODO (@zous): add option to see oldest/newest comments first.
+  public void init() throws ServletException {
+    // One analyzer, and so one connection to the language API, is shared by every request.
+    sentimentAnalyzer = SentimentContextListener.getAnalyzer(getServletContext());
+    sentimentBreaker = SentimentContextListener.getCircuitBreaker(getServletContext());
+    fallbackAnalyzer = SentimentContextListener.getFallbackAnalyzer(getServletContext());
+    sentimentBackfill = SentimentContextListener.getBackfill(getServletContext());
+    comments = CommentsContextListener.getRepository(getServletContext());
+    recentComments = CommentsContextListener.getRecentComments(getServletContext());
+    commentIndex = CommentsContextListener.getIndex(getServletContext());
+    commentStats = CommentsContextListener.getStats(getServletContext());
+    commentFeed = CommentsContextListener.getFeed(getServletContext());
+    postLimiter = RateLimiter.forPostsFromSystemProperties();
+  }
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // Each request reads at most one page of comments; the client follows nextCursor for more.
+    int pageSize = getNumDisplayComments(request);
+    boolean newestFirst = isNewestFirst(request);
+    String cursor = getParameter(request, "cursor", "");
 
-    // Create arraylist of string to store comments.
-    ArrayList<String> comments = new ArrayList<>();
-    for (Entity entity : results.asList(FetchOptions.Builder.withLimit(maxComments))) {
-      String email = (String) entity.getProperty("email");
-      String text = (String) entity.getProperty("text");
-      String score = String.valueOf(entity.getProperty("score"));
-      comments.add(email + ": " + text + "\n" + "Score: " + score);  
+    // The first page of newest comments is what the homepage asks for, serve it from the cache.
+    if (newestFirst && cursor.isEmpty() && writeCachedPage(request, response, pageSize)) {
+      return;
     }
 
-    Gson gson = new Gson();
+    CommentRepository.Page page;
+    try {
+      page = comments.list(pageSize, newestFirst, cursor.isEmpty() ? null : cursor);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor: " + cursor);
+      return;
+    }
 
-    response.setContentType("application/json;");
-    response.getWriter().println(gson.toJson(comments));
+    // Stream each comment straight to the response instead of building the whole page first.
+    OutputStream out = startPage(request, response);
+    int written = 0;
+    while (page.hasNext()) {
+      // Comments that haven't been scored by the background workers yet have a null score.
+      writeComment(out, page.next(), written++);
+    }
+    // A short page means the query ran out of comments, so there is nothing more to fetch.
+    finishPage(out, written < pageSize ? null : page.getCursor());
   }
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // Store logged in email as part of the comment.
+    String email = getUserEmail();
+    // Turn away floods before they cost a sentiment call and a write. Anonymous posters are told
+    // apart by address.
+    long retryMillis = postLimiter.tryAcquire(
+        "anonymous".equals(email) ? "ip:" + request.getRemoteAddr() : email);
+    if (retryMillis > 0) {
+      response.setHeader("Retry-After", String.valueOf((retryMillis + 999) / 1000));
+      response.sendError(SC_TOO_MANY_REQUESTS, "Too many comments, try again later.");
+      return;
+    }
     // Get the input from the form.
     String text = getParameter(request, "text-input", "");
-    long timestamp = System.currentTimeMillis();
-    Entity CommentEntity = new Entity("Comment");
-    CommentEntity.setProperty("text", text);
-    CommentEntity.setProperty("timestamp", timestamp);
-    // Store logged in email as part of the CommentEntity.
-    String email = getUserEmail();
-    CommentEntity.setProperty("email", email);
-    //Get sentiment analysis score. 
-    float score = getSentimentScore(text);
-    CommentEntity.setProperty("score", score);
-    // Store Comment.
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    datastore.put(CommentEntity);
+    // Without a score the comment is stored right away and the background workers fill it in.
+    Float score = null;
+    boolean approximate = false;
+    if (!asyncScoring) {
+      try {
+        score = getSentimentScore(text);
+      } catch (IOException e) {
+        // Accept the comment with an estimate; the background workers rescore it later.
+        score = fallbackAnalyzer.score(text);
+        approximate = true;
+      }
+    } else if (sentimentBreaker.isDegraded()) {
+      // The background workers can't score it for now, show an estimate until they can.
+      score = fallbackAnalyzer.score(text);
+      approximate = true;
+    }
+    boolean rescore = score == null || approximate;
+    // Only stored comments are shown, and they are counted before the backfill can rescore them,
+    // so the new score always finds them.
+    comments.add(email, text, score, approximate, stored -> {
+      recentComments.add(stored);
+      commentIndex.add(stored);
+      commentStats.add(stored);
+      commentFeed.publish(stored);
+      if (rescore) {
+        sentimentBackfill.submit(KeyFactory.createKey(Comment.KIND, stored.getId()), text);
+      }
+    });
     response.sendRedirect("/index.html");
   }
 
+  /**
+   * Writes the newest {@code pageSize} comments from the cache. Returns false, having written
+   * nothing, if the cache can't serve the page: it is deeper than the cache, or its last comment
+   * was added after the cache was loaded and so has no cursor for the next page.
+   *
+   * <p>The page gets a weak ETag from its comments, so a client that already has it gets a 304.
+   * The last rendering of each page size is kept, compressed too, for the next request that gets
+   * the same page.
+   */
+  private boolean writeCachedPage(HttpServletRequest request, HttpServletResponse response,
+      int pageSize) throws IOException {
+    List<RecentCommentsCache.Entry> entries = recentComments.newest(pageSize);
+    if (entries == null) {
+      return false;
+    }
+    String nextCursor = null;
+    if (entries.size() == pageSize) {
+      nextCursor = entries.get(pageSize - 1).getCursor();
+      if (nextCursor == null) {
+        return false;
+      }
+    }
+    String etag = etag(entries, nextCursor);
+    response.setHeader("ETag", etag);
+    // Let the browser keep the page, but check it is still current before using it.
+    response.setHeader("Cache-Control", "no-cache");
+    response.setHeader("Vary", "Accept-Encoding");
+    if (matchesETag(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+
+    RenderedPage rendered = renderedPages.get(pageSize);
+    if (rendered == null || !rendered.etag.equals(etag)) {
+      // Cached comments keep their encoded JSON, so this page is mostly copying bytes.
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      body.write(PAGE_START);
+      for (int i = 0; i < entries.size(); i++) {
+        writeComment(body, entries.get(i).getComment(), i);
+      }
+      finishPage(body, nextCursor);
+      rendered = new RenderedPage(etag, body.toByteArray());
+      renderedPages.put(pageSize, rendered);
+    }
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    byte[] bytes = rendered.plain;
+    if (acceptsGzip(request)) {
+      response.setHeader("Content-Encoding", "gzip");
+      bytes = rendered.gzipped;
+    }
+    response.setContentLength(bytes.length);
+    response.getOutputStream().write(bytes);
+    return true;
+  }
+
+  /** Starts a page of comments, ready for each comment to be written into its array. */
+  private OutputStream startPage(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Vary", "Accept-Encoding");
+    OutputStream out = response.getOutputStream();
+    if (acceptsGzip(request)) {
+      response.setHeader("Content-Encoding", "gzip");
+      out = new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+    }
+    out.write(PAGE_START);
+    return out;
+  }
+
+  /** Writes the {@code index}th comment of a page started by {@link #startPage}. */
+  private void writeComment(OutputStream out, Comment comment, int index) throws IOException {
+    if (index > 0) {
+      out.write(',');
+    }
+    out.write(comment.toJsonBytes());
+  }
+
+  /** Ends a page of comments started by {@link #startPage}; a null cursor means it is the last. */
+  private void finishPage(OutputStream out, String nextCursor) throws IOException {
+    out.write(PAGE_END);
+    out.write(GSON.toJson(nextCursor).getBytes(StandardCharsets.UTF_8));
+    out.write('}');
+    if (out instanceof GZIPOutputStream) {
+      ((GZIPOutputStream) out).finish();
+    }
+    out.flush();
+  }
+
+  /**
+   * Returns a weak ETag for a page of comments: the newest timestamp and the count, plus a hash of
+   * the ids and scores so that a comment being scored or replaced changes it too.
+   */
+  private static String etag(List<RecentCommentsCache.Entry> entries, String nextCursor) {
+    long newest = entries.isEmpty() ? 0 : entries.get(0).getComment().getTimestamp();
+    int hash = nextCursor == null ? 0 : nextCursor.hashCode();
+    for (RecentCommentsCache.Entry entry : entries) {
+      Comment comment = entry.getComment();
+      hash = 31 * hash + Long.hashCode(comment.getId());
+      Float score = comment.getScore();
+      hash = 31 * hash + (score == null ? -1 : Float.floatToIntBits(score));
+    }
+    return "W/\"" + newest + "-" + entries.size() + "-" + Integer.toHexString(hash) + "\"";
+  }
+
+  /** Returns whether an If-None-Match header names {@code etag}, comparing weakly. */
+  private static boolean matchesETag(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    String opaque = etag.substring(2);
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || candidate.equals(etag) || candidate.equals(opaque)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns whether the client takes gzip, going by its Accept-Encoding header. */
+  private static boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase("gzip")) {
+        // "gzip;q=0" means anything but gzip.
+        return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+      }
+    }
+    return false;
+  }
+
+  /** A page of cached comments as last written, plain and compressed. */
+  private static final class RenderedPage {
+    final String etag;
+    final byte[] plain;
+    final byte[] gzipped;
+
+    RenderedPage(String etag, byte[] plain) throws IOException {
+      this.etag = etag;
+      this.plain = plain;
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(plain.length / 4 + 64);
+      try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+        gzip.write(plain);
+      }
+      this.gzipped = compressed.toByteArray();
+    }
+  }
+
   /**
    * @return the request parameter, or the default value if the parameter
    *         was not specified by the client
@@ -101,21 +331,32 @@ public class DataServlet extends HttpServlet {
     return value;
   }
 
-  /** Returns the integer entered by user on how many comments they would like to see displayed */
+  /**
+   * Returns the page size entered by user, capped at MAX_PAGE_SIZE. Defaults to
+   * DEFAULT_PAGE_SIZE when the user didn't enter one.
+   */
   private int getNumDisplayComments(HttpServletRequest request) {
     // Get the input from the form on MaxComments and convert to integer to the
     // toGet function.
     String commentNumString = request.getParameter("max-comments");
+    if (commentNumString == null || commentNumString.isEmpty()) {
+      return DEFAULT_PAGE_SIZE;
+    }
     // Convert the input to an int.
     int commentNum;
     try {
       commentNum = Integer.parseInt(commentNumString);
-      return commentNum;
     } catch (NumberFormatException e) {
       throw new IllegalArgumentException(
             "Expected integer number of comments, but got " +
             commentNumString);
     }
+    return Math.max(1, Math.min(commentNum, MAX_PAGE_SIZE));
+  }
+
+  /** Returns false if the user asked for the oldest comments first, and true otherwise. */
+  private boolean isNewestFirst(HttpServletRequest request) {
+    return !getParameter(request, "order", "newest").equals("oldest");
   }
 
   /** Returns the email address of the user currently logged in */
@@ -131,13 +372,6 @@ public class DataServlet extends HttpServlet {
 
   /** Returns sentiment anlysis value of comment as a  float between -1 and 1 (exclusive)*/
   private float getSentimentScore(String message) throws IOException {
-        Document doc =
-            Document.newBuilder().setContent(message).setType(Document.Type.PLAIN_TEXT).build();
-        // Languages supported can be found at: https://cloud.google.com/natural-language/docs/languages.
-        LanguageServiceClient languageService = LanguageServiceClient.create();
-        Sentiment sentiment = languageService.analyzeSentiment(doc).getDocumentSentiment();
-        float score = sentiment.getScore();
-        languageService.close();
-        return score;
+        return sentimentAnalyzer.score(message);
   }
 }
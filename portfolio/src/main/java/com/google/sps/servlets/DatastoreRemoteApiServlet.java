@@ -0,0 +1,25 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.apphosting.utils.remoteapi.RemoteApiServlet;
+import javax.servlet.annotation.WebServlet;
+
+/**
+ * Lets the comment transfer tool make Datastore calls from outside the app. The remote API
+ * servlet only serves app admins.
+ */
+@WebServlet("/remote_api")
+public class DatastoreRemoteApiServlet extends RemoteApiServlet {}
@@ -14,45 +14,43 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.sps.data.CommentRepository;
 import java.io.IOException;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.ArrayList;
-import com.google.gson.Gson;
 
 
-/** Servlet that delete comments data from datastore.*/
+/**
+ * Servlet that delete comments data from datastore. Responds with how many comments were deleted;
+ * if the deletion was too large to finish in the request it responds 202 and the deletion can be
+ * followed with GET /delete-data?job=id. Only admins may call it.
+ */
 @WebServlet("/delete-data")
-public class DeleteDataServlet extends HttpServlet {
+public class DeleteDataServlet extends DeletionJobServlet {
 
-  @Override
-  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+  private CommentRepository comments;
 
-    Query query = new Query("Comment");
+  public DeleteDataServlet() {
+    super("deletion");
+  }
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
-    ArrayList<Key> keys = new ArrayList<Key>();
-    for (Entity entity : results.asIterable()) {
-      Key commentEntityKey = entity.getKey();
-      keys.add(commentEntityKey);
-    }
-    for (Key key: keys){
-        datastore.delete(key);
+  @Override
+  public void init() throws ServletException {
+    comments = CommentsContextListener.getRepository(getServletContext());
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!AdminAccess.check(response)) {
+      return;
     }
-    Gson gson = new Gson();
+    writeStarted(response, comments.deleteAll());
+  }
 
-    response.setContentType("application/json");
-    response.getWriter().println(gson.toJson(keys));
+  @Override
+  CommentRepository.Deletion getDeletion(long id) {
+    return comments.getDeletion(id);
   }
 }
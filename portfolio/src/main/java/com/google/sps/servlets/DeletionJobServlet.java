@@ -0,0 +1,77 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.CommentRepository;
+import java.io.IOException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Base of the servlets that start comment deletions. Responds with a deletion's progress, 202 if
+ * it continues in the background, and reports on it for GET ?job=id. Only admins may call it.
+ */
+abstract class DeletionJobServlet extends HttpServlet {
+  // What the deletions are called in error messages.
+  private final String noun;
+
+  DeletionJobServlet(String noun) {
+    this.noun = noun;
+  }
+
+  /** Returns the progress of deletion {@code id}, or null if there is no such deletion. */
+  abstract CommentRepository.Deletion getDeletion(long id);
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!AdminAccess.check(response)) {
+      return;
+    }
+    String jobString = request.getParameter("job");
+    CommentRepository.Deletion job;
+    try {
+      job = getDeletion(Long.parseLong(jobString));
+    } catch (NumberFormatException e) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Expected a job id, but got " + jobString);
+      return;
+    }
+    if (job == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "No " + noun + " " + jobString);
+      return;
+    }
+    writeJob(response, job);
+  }
+
+  /** Responds with the progress of a deletion that was just started. */
+  static void writeStarted(HttpServletResponse response, CommentRepository.Deletion job)
+      throws IOException {
+    if (!job.isDone()) {
+      response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+    writeJob(response, job);
+  }
+
+  private static void writeJob(HttpServletResponse response, CommentRepository.Deletion job)
+      throws IOException {
+    Gson gson = new Gson();
+
+    response.setContentType("application/json");
+    response.getWriter().println(gson.toJson(job));
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.CommentDeleter;
+import com.google.sps.data.CommentRepository;
+import java.io.IOException;
+import java.util.function.Function;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Deletes the comments that match the request's filters: {@code before} (milliseconds since the
+ * epoch), {@code email} and {@code max-score}, where {@code before} and {@code max-score} can't be
+ * combined. Like /delete-data it responds with the deletion's progress, 202 if it continues in
+ * the background, and GET /purge?job=id reports on it. Only admins may call it.
+ */
+@WebServlet("/purge")
+public class PurgeServlet extends DeletionJobServlet {
+
+  private CommentDeleter deleter;
+
+  public PurgeServlet() {
+    super("purge");
+  }
+
+  @Override
+  public void init() throws ServletException {
+    deleter = CommentsContextListener.getDeleter(getServletContext());
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!AdminAccess.check(response)) {
+      return;
+    }
+    CommentDeleter.Filter filter;
+    try {
+      Long before = parseOrNull(request.getParameter("before"), Long::valueOf);
+      Double maxScore = parseOrNull(request.getParameter("max-score"), Double::valueOf);
+      String email = request.getParameter("email");
+      filter = new CommentDeleter.Filter(
+          before, email == null || email.isEmpty() ? null : email, maxScore);
+    } catch (IllegalArgumentException e) {
+      // Also catches NumberFormatException from the parameters.
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+    writeStarted(response, deleter.purge(filter));
+  }
+
+  @Override
+  CommentRepository.Deletion getDeletion(long id) {
+    return deleter.get(id);
+  }
+
+  private static <T> T parseOrNull(String value, Function<String, T> parser) {
+    return value == null || value.isEmpty() ? null : parser.apply(value);
+  }
+}
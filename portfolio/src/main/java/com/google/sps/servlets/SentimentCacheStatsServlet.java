@@ -0,0 +1,44 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.sentiment.CachingSentimentAnalyzer;
+import com.google.sps.sentiment.SentimentAnalyzer;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that returns the hit rate of the sentiment score cache, for tuning its size. */
+@WebServlet("/sentiment-cache-stats")
+public class SentimentCacheStatsServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    SentimentAnalyzer analyzer = SentimentContextListener.getAnalyzer(getServletContext());
+    if (!(analyzer instanceof CachingSentimentAnalyzer)) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "The sentiment cache is turned off.");
+      return;
+    }
+    CachingSentimentAnalyzer.CacheStats stats = ((CachingSentimentAnalyzer) analyzer).getStats();
+
+    Gson gson = new Gson();
+
+    response.setContentType("application/json");
+    response.getWriter().println(gson.toJson(stats));
+  }
+}
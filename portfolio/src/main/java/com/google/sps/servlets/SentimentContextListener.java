@@ -0,0 +1,160 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.sps.data.SentimentBackfill;
+import com.google.sps.sentiment.BatchingSentimentAnalyzer;
+import com.google.sps.sentiment.CachingSentimentAnalyzer;
+import com.google.sps.sentiment.CircuitBreakerSentimentAnalyzer;
+import com.google.sps.sentiment.CloudSentimentAnalyzer;
+import com.google.sps.sentiment.FakeSentimentAnalyzer;
+import com.google.sps.sentiment.LexiconSentimentAnalyzer;
+import com.google.sps.sentiment.SentimentAnalyzer;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Creates the one sentiment analyzer and background scorer shared by every servlet when the app
+ * starts, and shuts them down when the app stops. Set the {@code sentiment.backend} system property
+ * to {@code fake} to score locally instead of calling the Natural Language API, optionally with
+ * {@code sentiment.fakeLatencyMillis} of simulated latency. Unless {@code
+ * sentiment.batchWindowMillis} is 0, texts are scored in micro-batches of up to {@code
+ * sentiment.batchSize}. Scores are cached by text unless {@code sentiment.cacheSize} is 0. Calls
+ * that miss the cache go through a circuit breaker with a {@code sentiment.timeoutMillis} timeout;
+ * while it is open, new comments get an approximate score from a local lexicon, and the comments
+ * left pending are resubmitted once it closes.
+ */
+@WebListener
+public class SentimentContextListener implements ServletContextListener {
+  private static final String ATTRIBUTE = SentimentAnalyzer.class.getName();
+  private static final String BACKFILL_ATTRIBUTE = SentimentBackfill.class.getName();
+  private static final String BREAKER_ATTRIBUTE = CircuitBreakerSentimentAnalyzer.class.getName();
+  private static final String FALLBACK_ATTRIBUTE = LexiconSentimentAnalyzer.class.getName();
+
+  /** Returns the analyzer shared by every servlet of {@code context}. */
+  public static SentimentAnalyzer getAnalyzer(ServletContext context) {
+    synchronized (context) {
+      SentimentAnalyzer analyzer = (SentimentAnalyzer) context.getAttribute(ATTRIBUTE);
+      if (analyzer == null) {
+        analyzer = createAnalyzer(context);
+        context.setAttribute(ATTRIBUTE, analyzer);
+      }
+      return analyzer;
+    }
+  }
+
+  /** Returns the circuit breaker in front of the remote analyzer of {@code context}. */
+  public static CircuitBreakerSentimentAnalyzer getCircuitBreaker(ServletContext context) {
+    synchronized (context) {
+      // Created along with the analyzer.
+      getAnalyzer(context);
+      return (CircuitBreakerSentimentAnalyzer) context.getAttribute(BREAKER_ATTRIBUTE);
+    }
+  }
+
+  /** Returns the local analyzer used to estimate scores while the remote one is unavailable. */
+  public static SentimentAnalyzer getFallbackAnalyzer(ServletContext context) {
+    synchronized (context) {
+      SentimentAnalyzer fallback = (SentimentAnalyzer) context.getAttribute(FALLBACK_ATTRIBUTE);
+      if (fallback == null) {
+        fallback = LexiconSentimentAnalyzer.fromResource(
+            System.getProperty("sentiment.lexicon", LexiconSentimentAnalyzer.DEFAULT_LEXICON));
+        context.setAttribute(FALLBACK_ATTRIBUTE, fallback);
+      }
+      return fallback;
+    }
+  }
+
+  /** Returns the background scorer shared by every servlet of {@code context}. */
+  public static SentimentBackfill getBackfill(ServletContext context) {
+    synchronized (context) {
+      SentimentBackfill backfill = (SentimentBackfill) context.getAttribute(BACKFILL_ATTRIBUTE);
+      if (backfill == null) {
+        backfill = SentimentBackfill.fromSystemProperties(getAnalyzer(context),
+            DatastoreServiceFactory.getDatastoreService(),
+            (id, score) -> {
+              CommentsContextListener.getRecentComments(context).updateScore(id, score);
+              CommentsContextListener.getStats(context).updateScore(id, score);
+            });
+        context.setAttribute(BACKFILL_ATTRIBUTE, backfill);
+      }
+      return backfill;
+    }
+  }
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    // Pick up comments that were still waiting for a score when the app last stopped. They are
+    // read in the background, so this doesn't hold up the first requests.
+    getBackfill(event.getServletContext()).resubmitPending();
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    ServletContext context = event.getServletContext();
+    synchronized (context) {
+      // Stop the workers first, they use the analyzer.
+      SentimentBackfill backfill = (SentimentBackfill) context.getAttribute(BACKFILL_ATTRIBUTE);
+      context.removeAttribute(BACKFILL_ATTRIBUTE);
+      if (backfill != null) {
+        backfill.shutdown();
+      }
+      SentimentAnalyzer analyzer = (SentimentAnalyzer) context.getAttribute(ATTRIBUTE);
+      context.removeAttribute(ATTRIBUTE);
+      context.removeAttribute(BREAKER_ATTRIBUTE);
+      context.removeAttribute(FALLBACK_ATTRIBUTE);
+      if (analyzer != null) {
+        analyzer.close();
+      }
+    }
+  }
+
+  private static SentimentAnalyzer createAnalyzer(ServletContext context) {
+    SentimentAnalyzer analyzer;
+    if ("fake".equals(System.getProperty("sentiment.backend"))) {
+      analyzer = new FakeSentimentAnalyzer(Long.getLong("sentiment.fakeLatencyMillis", 0));
+    } else {
+      analyzer = new CloudSentimentAnalyzer();
+    }
+    long batchWindowMillis = Long.getLong("sentiment.batchWindowMillis", 5);
+    if (batchWindowMillis > 0) {
+      analyzer = new BatchingSentimentAnalyzer(analyzer, batchWindowMillis,
+          Integer.getInteger("sentiment.batchSize", 25),
+          Integer.getInteger("sentiment.batchSenders", 4));
+    }
+    // Inside the cache, so cached scores are still served while the breaker is open.
+    CircuitBreakerSentimentAnalyzer breaker = new CircuitBreakerSentimentAnalyzer(analyzer,
+        Long.getLong("sentiment.timeoutMillis", 2000),
+        Integer.getInteger("sentiment.breakerFailures", 5),
+        Long.getLong("sentiment.breakerOpenMillis", 30_000),
+        Integer.getInteger("sentiment.maxConcurrentCalls", 16),
+        // Rescore the comments that were left pending or estimated while it was down.
+        () -> getBackfill(context).resubmitPending());
+    context.setAttribute(BREAKER_ATTRIBUTE, breaker);
+    analyzer = breaker;
+    int cacheSize = Integer.getInteger("sentiment.cacheSize", 10_000);
+    if (cacheSize > 0) {
+      long ttlMillis = TimeUnit.MINUTES.toMillis(Long.getLong("sentiment.cacheTtlMinutes", 1440));
+      boolean persist = Boolean.getBoolean("sentiment.cachePersist");
+      analyzer = new CachingSentimentAnalyzer(analyzer, cacheSize, ttlMillis,
+          persist ? DatastoreServiceFactory.getAsyncDatastoreService() : null);
+    }
+    return analyzer;
+  }
+}
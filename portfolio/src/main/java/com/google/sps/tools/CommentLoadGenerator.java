@@ -0,0 +1,200 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tools;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.InMemoryCommentRepository;
+import com.google.sps.data.RecentCommentsCache;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Posts, lists and deletes comments from many threads against an {@link
+ * InMemoryCommentRepository}, the way the servlets do, and reports throughput and latency. No cloud
+ * services are needed. Run it with
+ *
+ * <pre>
+ *   mvn compile exec:java -Dexec.mainClass=com.google.sps.tools.CommentLoadGenerator
+ * </pre>
+ *
+ * and tune it with the system properties {@code load.threads} (16), {@code load.seconds} (10),
+ * {@code load.warmupSeconds} (2), {@code load.initialComments} (1000), {@code load.postPercent}
+ * (20), {@code load.deletePercent} (0.01), {@code load.pageSize} (10) and {@code load.cache}
+ * (true, to serve first pages from a {@link RecentCommentsCache} like /data does).
+ */
+public final class CommentLoadGenerator {
+  private static final String[] OPERATIONS = {"post", "list", "list next page", "delete all"};
+  private static final int POST = 0;
+  private static final int LIST = 1;
+  private static final int LIST_NEXT = 2;
+  private static final int DELETE = 3;
+
+  private final CommentRepository repository;
+  // Null if every page comes from the repository.
+  private final RecentCommentsCache recentComments;
+  private final int pageSize;
+  private final double postPercent;
+  private final double deletePercent;
+  // Latency histograms, one per operation, in power-of-two nanosecond buckets.
+  private final LongAdder[][] latencies = new LongAdder[OPERATIONS.length][64];
+  private volatile boolean measuring;
+  private volatile boolean running = true;
+
+  private CommentLoadGenerator(CommentRepository repository, RecentCommentsCache recentComments,
+      int pageSize, double postPercent, double deletePercent) {
+    this.repository = repository;
+    this.recentComments = recentComments;
+    this.pageSize = pageSize;
+    this.postPercent = postPercent;
+    this.deletePercent = deletePercent;
+    for (LongAdder[] buckets : latencies) {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int threads = Integer.getInteger("load.threads", 16);
+    int seconds = Integer.getInteger("load.seconds", 10);
+    int warmupSeconds = Integer.getInteger("load.warmupSeconds", 2);
+    InMemoryCommentRepository repository = new InMemoryCommentRepository();
+    RecentCommentsCache recentComments = Boolean.parseBoolean(
+        System.getProperty("load.cache", "true"))
+        ? new RecentCommentsCache(repository, 50, null, 0) : null;
+    CommentLoadGenerator generator = new CommentLoadGenerator(repository, recentComments,
+        Integer.getInteger("load.pageSize", 10),
+        Double.parseDouble(System.getProperty("load.postPercent", "20")),
+        Double.parseDouble(System.getProperty("load.deletePercent", "0.01")));
+
+    for (int i = Integer.getInteger("load.initialComments", 1000); i > 0; i--) {
+      generator.post();
+    }
+    List<Thread> workers = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      Thread worker = new Thread(generator::run, "load-" + i);
+      worker.start();
+      workers.add(worker);
+    }
+    TimeUnit.SECONDS.sleep(warmupSeconds);
+    generator.measuring = true;
+    TimeUnit.SECONDS.sleep(seconds);
+    generator.running = false;
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    System.out.printf("%d threads, %d s, %d comments left%n", threads, seconds, repository.size());
+    generator.report(seconds);
+  }
+
+  private void run() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    while (running) {
+      double roll = random.nextDouble(100);
+      long start = System.nanoTime();
+      int operation;
+      if (roll < deletePercent) {
+        operation = DELETE;
+        deleteAll();
+      } else if (roll < deletePercent + postPercent) {
+        operation = POST;
+        post();
+      } else if (random.nextInt(4) == 0) {
+        // Some readers go on to the second page.
+        operation = LIST_NEXT;
+        String cursor = listFirstPage();
+        if (cursor != null) {
+          drain(repository.list(pageSize, true, cursor));
+        }
+      } else {
+        operation = LIST;
+        listFirstPage();
+      }
+      if (measuring) {
+        long nanos = System.nanoTime() - start;
+        latencies[operation][63 - Long.numberOfLeadingZeros(Math.max(nanos, 1))].increment();
+      }
+    }
+  }
+
+  private void post() {
+    Comment comment = repository.add("load@example.com",
+        "Load test comment " + ThreadLocalRandom.current().nextInt(), 0.5f, false, stored -> {});
+    if (recentComments != null) {
+      recentComments.add(comment);
+    }
+  }
+
+  /** Reads the newest page the way /data does and returns the cursor for the next one. */
+  private String listFirstPage() {
+    if (recentComments != null) {
+      List<RecentCommentsCache.Entry> entries = recentComments.newest(pageSize);
+      if (entries != null && (entries.size() < pageSize
+          || entries.get(pageSize - 1).getCursor() != null)) {
+        return entries.size() < pageSize ? null : entries.get(pageSize - 1).getCursor();
+      }
+    }
+    return drain(repository.list(pageSize, true, null));
+  }
+
+  private void deleteAll() {
+    repository.deleteAll();
+    if (recentComments != null) {
+      recentComments.invalidate();
+    }
+  }
+
+  /** Reads a whole page and returns the cursor for the next one, or null if it was the last. */
+  private String drain(CommentRepository.Page page) {
+    int read = 0;
+    while (page.hasNext()) {
+      page.next();
+      read++;
+    }
+    return read < pageSize ? null : page.getCursor();
+  }
+
+  private void report(int seconds) {
+    System.out.printf("%-16s %10s %10s %10s %10s%n", "operation", "count", "per second",
+        "p50 (us)", "p99 (us)");
+    for (int operation = 0; operation < OPERATIONS.length; operation++) {
+      long count = 0;
+      for (LongAdder bucket : latencies[operation]) {
+        count += bucket.sum();
+      }
+      System.out.printf("%-16s %10d %10d %10s %10s%n", OPERATIONS[operation], count,
+          count / seconds, percentile(operation, count, 0.5), percentile(operation, count, 0.99));
+    }
+  }
+
+  /** Returns the upper bound of the bucket holding the percentile, in microseconds. */
+  private String percentile(int operation, long count, double fraction) {
+    if (count == 0) {
+      return "-";
+    }
+    long seen = 0;
+    for (int bucket = 0; bucket < 64; bucket++) {
+      seen += latencies[operation][bucket].sum();
+      if (seen >= Math.ceil(count * fraction)) {
+        return "<" + Math.max(1, (2L << bucket) / 1000);
+      }
+    }
+    return "-";
+  }
+}
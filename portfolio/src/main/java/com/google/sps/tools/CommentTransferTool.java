@@ -0,0 +1,99 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tools;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.tools.remoteapi.RemoteApiInstaller;
+import com.google.appengine.tools.remoteapi.RemoteApiOptions;
+import com.google.sps.data.CommentTransfer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Exports every comment of a running app to a newline-delimited JSON file, or imports comments
+ * from one, through the app's /remote_api endpoint. Run it with
+ *
+ * <pre>
+ *   mvn compile exec:java -Dexec.mainClass=com.google.sps.tools.CommentTransferTool \
+ *       -Dexec.args="export comments.ndjson"
+ * </pre>
+ *
+ * using {@code import} instead of {@code export} to load a file, and {@code -} for standard input
+ * or output. The system property {@code transfer.server} (localhost:8080) picks the app; anything
+ * but the local development server needs an admin's application default credentials. {@code
+ * transfer.workers} (8) and {@code transfer.batchSize} (500) tune the parallelism.
+ *
+ * <p>An import never overwrites a stored comment; lines whose id is already stored are skipped and
+ * counted. Running instances rebuild their search index and stats within their refresh interval
+ * ({@code comments.indexRefreshSeconds} and {@code comments.statsRefreshSeconds}) of the import
+ * finishing, with no restart needed.
+ */
+public final class CommentTransferTool {
+  private CommentTransferTool() {}
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length != 2 || !(args[0].equals("export") || args[0].equals("import"))) {
+      System.err.println("Usage: CommentTransferTool export|import FILE");
+      System.exit(2);
+    }
+    String server = System.getProperty("transfer.server", "localhost:8080");
+    int colon = server.lastIndexOf(':');
+    String host = colon < 0 ? server : server.substring(0, colon);
+    int port = colon < 0 ? 443 : Integer.parseInt(server.substring(colon + 1));
+    RemoteApiOptions options = new RemoteApiOptions().server(host, port);
+    if (host.equals("localhost") || host.equals("127.0.0.1")) {
+      options.useDevelopmentServerCredential();
+    } else {
+      options.useApplicationDefaultCredential();
+    }
+
+    RemoteApiInstaller installer = new RemoteApiInstaller();
+    // The workers make Datastore calls from their own threads.
+    installer.installOnAllThreads(options);
+    try {
+      CommentTransfer transfer = new CommentTransfer(DatastoreServiceFactory.getDatastoreService(),
+          Integer.getInteger("transfer.workers", 8), Integer.getInteger("transfer.batchSize", 500));
+      long start = System.nanoTime();
+      long count;
+      long skipped = 0;
+      if (args[0].equals("export")) {
+        try (OutputStream out = args[1].equals("-") ? System.out
+            : new BufferedOutputStream(new FileOutputStream(args[1]))) {
+          count = transfer.exportTo(out);
+        }
+      } else {
+        try (InputStream in = args[1].equals("-") ? System.in
+            : new BufferedInputStream(new FileInputStream(args[1]))) {
+          CommentTransfer.ImportResult result = transfer.importFrom(in);
+          count = result.getStored();
+          skipped = result.getSkipped();
+        }
+      }
+      double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+      System.err.printf("%sed %d comments in %.1f s (%.0f per second)%n",
+          args[0], count, seconds, count / seconds);
+      if (skipped > 0) {
+        System.err.printf("Skipped %d comments whose ids were already stored%n", skipped);
+      }
+    } finally {
+      installer.uninstall();
+    }
+  }
+}
@@ -27,28 +27,73 @@ function addRandomGreeting() {
   greetingContainer.innerText = greeting;
 }
 
+// Cursor for the page after the comments currently shown, or null if there is none.
+var nextCommentsCursor = null;
+
 /**
  * fetchs /data information async aka Comments
  */
 async function getComments() {
+  // Start again from the first page.
+  nextCommentsCursor = null;
+  document.getElementById('Comments').innerText = "";
+  await getMoreComments();
+}
+
+/**
+ * Fetches the next page of comments and appends it to the comment section.
+ */
+async function getMoreComments() {
   // Passes in user input on number of comments to display.
   var maxcom = document.getElementById("maxcom");
   var text = "/data?max-comments=";
   // If there is no response, default display is 3 comments.
-  if (maxcom.elements[0].value == ''){
+  if (maxcom.elements["max-comments"].value == ''){
       text += "3"
   }
   else{
-      text += maxcom.elements[0].value;
+      text += maxcom.elements["max-comments"].value;
+  }
+  text += "&order=" + maxcom.elements["order"].value;
+  if (nextCommentsCursor != null) {
+      text += "&cursor=" + encodeURIComponent(nextCommentsCursor);
   }
   const response = await fetch(text);
   const data = await response.json();
   const commentEl = document.getElementById('Comments');
-  // Clear current comment section.
+  data.comments.forEach((comment)=> {
+      commentEl.appendChild(createListElement(formatComment(comment)));
+      });
+  nextCommentsCursor = data.nextCursor || null;
+  document.getElementById('more-comments').hidden = nextCommentsCursor == null;
+}
+
+/**
+ * Shows the comments that best match the words in the search box.
+ */
+async function searchComments() {
+  const query = document.getElementById("search").elements["q"].value;
+  const response = await fetch("/comments/search?q=" + encodeURIComponent(query));
+  const data = await response.json();
+  const commentEl = document.getElementById('Comments');
   commentEl.innerText = "";
-  data.forEach((line)=> {
-      commentEl.appendChild(createListElement(line));
+  data.comments.forEach((comment)=> {
+      commentEl.appendChild(createListElement(formatComment(comment)));
       });
+  // Search results aren't paged like the comment list.
+  nextCommentsCursor = null;
+  document.getElementById('more-comments').hidden = true;
+}
+
+/** Formats a comment from /data as its author, text and sentiment score. */
+function formatComment(comment) {
+  // Comments that haven't been scored yet have a null score.
+  let score = comment.score == null ? "pending" : comment.score;
+  // Estimated locally while the sentiment service was down; replaced once it is rescored.
+  if (comment.approximate) {
+    score = "~" + score + " (estimated)";
+  }
+  return comment.email + ": " + comment.text + "\n" + "Score: " + score;
 }
 
 /** Creates an <li> element containing text. */
@@ -60,15 +105,12 @@ function createListElement(text) {
 
 /** Calls delete-data servlet to delete commens and then fetches now empty comments from /data */
 async function deleteComments(){
-  fetch('/delete-data', {method: 'POST'});
-  const response = await fetch("/data");
-  const data = await response.json();
-  const commentEl = document.getElementById('Comments');
-  //clear current comment section
-  commentEl.innerText = "";
-  data.forEach((line)=> {
-      commentEl.appendChild(createListElement(line));
-      });
+  const response = await fetch('/delete-data', {method: 'POST'});
+  if (!response.ok) {
+    alert('Only admins can delete comments.');
+    return;
+  }
+  await getComments();
 }
 
 /** Creates a map and adds it to the page. */
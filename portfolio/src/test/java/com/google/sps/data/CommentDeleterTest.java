@@ -0,0 +1,219 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.CommentRepository.Deletion;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that deletions run in batches, carry on in the background and respect leases. */
+@RunWith(JUnit4.class)
+public final class CommentDeleterTest {
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setNoStorage(true));
+  private final List<Long> deletedIds = new CopyOnWriteArrayList<>();
+  private DatastoreService datastore;
+  private CommentDeleter deleter;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    LocalDatastores.shareWithAllThreads();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    if (deleter != null) {
+      deleter.shutdown();
+    }
+    helper.tearDown();
+  }
+
+  private CommentDeleter start(int batchSize, int inlineBatches) {
+    deleter = new CommentDeleter(
+        datastore, deletedIds::addAll, new CommentShards(0), batchSize, inlineBatches);
+    return deleter;
+  }
+
+  private void store(String email, Float score, long timestamp) {
+    Entity entity = new Entity(Comment.KIND);
+    Comment.setProperties(entity, email, "text", score, false, timestamp);
+    datastore.put(entity);
+  }
+
+  private int countComments() {
+    return datastore.prepare(new Query(Comment.KIND)).countEntities();
+  }
+
+  /** Stores a deletion of every comment posted until now, leased to another deleter. */
+  private Entity storeRunningJob(long leaseUntil) {
+    Entity job = new Entity(CommentDeleter.JOB_KIND);
+    job.setProperty("status", Deletion.RUNNING);
+    job.setProperty("before", System.currentTimeMillis());
+    job.setProperty("deleted", 0L);
+    job.setUnindexedProperty("owner", "another deleter");
+    job.setUnindexedProperty("leaseUntil", leaseUntil);
+    datastore.put(job);
+    return job;
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean()) {
+      Assert.assertTrue("Timed out.", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void deleteAllKeepsLaterComments() {
+    for (long timestamp = 1; timestamp <= 5; timestamp++) {
+      store("a@example.com", null, timestamp);
+    }
+    store("a@example.com", null, System.currentTimeMillis() + HOUR);
+
+    Deletion deletion = start(2, 10).deleteAll();
+
+    Assert.assertTrue(deletion.isDone());
+    Assert.assertEquals(5, deletion.getDeleted());
+    Assert.assertEquals(5, deletedIds.size());
+    Assert.assertEquals(1, countComments());
+  }
+
+  @Test
+  public void largeDeletionFinishesInTheBackground() throws Exception {
+    for (long timestamp = 1; timestamp <= 7; timestamp++) {
+      store("a@example.com", null, timestamp);
+    }
+
+    Deletion deletion = start(2, 1).deleteAll();
+
+    Assert.assertFalse(deletion.isDone());
+    await(() -> deleter.get(deletion.getId()).isDone());
+    Assert.assertEquals(7, deleter.get(deletion.getId()).getDeleted());
+    Assert.assertEquals(0, countComments());
+  }
+
+  @Test
+  public void recordsWhenTheLastDeletionFinished() {
+    start(2, 10);
+    Assert.assertEquals(0, deleter.lastFinished());
+
+    deleter.deleteAll();
+
+    Assert.assertTrue(deleter.lastFinished() > 0);
+  }
+
+  @Test
+  public void takesOverADeletionWhoseLeaseLapsed() throws Exception {
+    store("a@example.com", null, 1);
+    Entity job = storeRunningJob(System.currentTimeMillis() - 1);
+
+    start(2, 10).resumeRunning();
+
+    await(() -> deleter.get(job.getKey().getId()).isDone());
+    Assert.assertEquals(0, countComments());
+  }
+
+  @Test
+  public void leavesALeasedDeletionAlone() throws Exception {
+    store("a@example.com", null, 1);
+    Entity job = storeRunningJob(System.currentTimeMillis() + HOUR);
+
+    start(2, 10).resumeRunning();
+    Thread.sleep(100);
+
+    Assert.assertFalse(deleter.get(job.getKey().getId()).isDone());
+    Assert.assertEquals(1, countComments());
+  }
+
+  @Test
+  public void purgesByAuthor() {
+    store("a@example.com", null, 1);
+    store("b@example.com", null, 2);
+
+    start(2, 10).purge(new CommentDeleter.Filter(null, "a@example.com", null));
+
+    Assert.assertEquals(1, countComments());
+    Assert.assertEquals("b@example.com",
+        datastore.prepare(new Query(Comment.KIND)).asSingleEntity().getProperty("email"));
+  }
+
+  @Test
+  public void purgesByScoreButKeepsUnscoredComments() {
+    store("a@example.com", -0.8f, 1);
+    store("a@example.com", 0.8f, 2);
+    store("a@example.com", null, 3);
+
+    Deletion deletion = start(2, 10).purge(new CommentDeleter.Filter(null, null, -0.5));
+
+    Assert.assertEquals(1, deletion.getDeleted());
+    Assert.assertEquals(2, countComments());
+  }
+
+  @Test
+  public void purgesByAgeInEveryShard() {
+    CommentShards shards = new CommentShards(3);
+    // Stored before sharding was turned on, then in shards.
+    store("a@example.com", null, 1);
+    for (long timestamp = 2; timestamp <= 10; timestamp++) {
+      Entity entity = new Entity(Comment.KIND);
+      Comment.setProperties(entity, "a@example.com", "text", null, false, timestamp);
+      shards.assign(entity, timestamp);
+      datastore.put(entity);
+    }
+    deleter = new CommentDeleter(datastore, deletedIds::addAll, shards, 2, 100);
+
+    Deletion deletion = deleter.purge(new CommentDeleter.Filter(8L, null, null));
+
+    Assert.assertTrue(deletion.isDone());
+    Assert.assertEquals(7, deletion.getDeleted());
+    Assert.assertEquals(3, countComments());
+  }
+
+  @Test
+  public void filterNeedsAConditionAndCantMixAgeAndScore() {
+    try {
+      new CommentDeleter.Filter(null, null, null);
+      Assert.fail("An empty filter should be rejected.");
+    } catch (IllegalArgumentException expected) {
+      // Would delete everything.
+    }
+    try {
+      new CommentDeleter.Filter(1L, null, 0.0);
+      Assert.fail("Age and score together should be rejected.");
+    } catch (IllegalArgumentException expected) {
+      // Datastore allows one inequality per query.
+    }
+  }
+}
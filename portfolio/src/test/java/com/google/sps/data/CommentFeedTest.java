@@ -0,0 +1,116 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks how the live feed queues, drops and replays events. */
+@RunWith(JUnit4.class)
+public final class CommentFeedTest {
+  private static final Runnable NOTHING = () -> {};
+
+  private static Comment comment(long id) {
+    return new Comment(id, "a@example.com", "comment " + id, null, id);
+  }
+
+  private static String text(CommentFeed.Event event) {
+    return new String(event.getBytes(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void sendsNewCommentsToSubscribers() {
+    CommentFeed feed = new CommentFeed(4, 4);
+    AtomicInteger ready = new AtomicInteger();
+    CommentFeed.Subscriber subscriber = feed.subscribe(null, ready::incrementAndGet);
+
+    feed.publish(comment(1));
+
+    CommentFeed.Event event = subscriber.poll();
+    Assert.assertTrue(text(event).startsWith("id: " + event.getId() + "\nevent: comment\n"));
+    Assert.assertTrue(text(event).contains("comment 1"));
+    Assert.assertNull(subscriber.poll());
+    Assert.assertEquals(1, ready.get());
+  }
+
+  @Test
+  public void subscriberTooFarBehindIsReset() {
+    CommentFeed feed = new CommentFeed(2, 4);
+    CommentFeed.Subscriber subscriber = feed.subscribe(null, NOTHING);
+
+    for (long id = 1; id <= 3; id++) {
+      feed.publish(comment(id));
+    }
+
+    Assert.assertSame(CommentFeed.RESET, subscriber.poll());
+    Assert.assertNull(subscriber.poll());
+    feed.publish(comment(4));
+    Assert.assertTrue(text(subscriber.poll()).contains("comment 4"));
+  }
+
+  @Test
+  public void resumesAfterTheLastEventSeen() {
+    CommentFeed feed = new CommentFeed(4, 4);
+    CommentFeed.Subscriber first = feed.subscribe(null, NOTHING);
+    for (long id = 1; id <= 3; id++) {
+      feed.publish(comment(id));
+    }
+    long seen = first.poll().getId();
+
+    CommentFeed.Subscriber resumed = feed.subscribe(String.valueOf(seen), NOTHING);
+
+    Assert.assertTrue(text(resumed.poll()).contains("comment 2"));
+    Assert.assertTrue(text(resumed.poll()).contains("comment 3"));
+    Assert.assertNull(resumed.poll());
+  }
+
+  @Test
+  public void resumingFromForgottenEventIsReset() {
+    CommentFeed feed = new CommentFeed(4, 2);
+    CommentFeed.Subscriber first = feed.subscribe(null, NOTHING);
+    for (long id = 1; id <= 4; id++) {
+      feed.publish(comment(id));
+    }
+
+    CommentFeed.Subscriber resumed = feed.subscribe(String.valueOf(first.poll().getId()), NOTHING);
+
+    Assert.assertSame(CommentFeed.RESET, resumed.poll());
+    Assert.assertNull(resumed.poll());
+  }
+
+  @Test
+  public void unknownEventIdIsReset() {
+    CommentFeed feed = new CommentFeed(4, 4);
+
+    Assert.assertSame(CommentFeed.RESET, feed.subscribe("not an id", NOTHING).poll());
+  }
+
+  @Test
+  public void closedSubscribersGetNothing() {
+    CommentFeed feed = new CommentFeed(4, 4);
+    CommentFeed.Subscriber subscriber = feed.subscribe(null, NOTHING);
+
+    subscriber.close();
+    feed.publish(comment(1));
+
+    Assert.assertNull(subscriber.poll());
+    Assert.assertEquals(0, feed.getSubscriberCount());
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks the ranking, paging and upkeep of the search index. */
+@RunWith(JUnit4.class)
+public final class CommentIndexTest {
+  private final InMemoryCommentRepository repository = new InMemoryCommentRepository();
+  // Refreshing is checked on its own, so the other tests only see what they add.
+  private final CommentIndex index = new CommentIndex(repository, 0);
+
+  private static Comment comment(long id, String text, long timestamp) {
+    return new Comment(id, "a@example.com", text, null, timestamp);
+  }
+
+  @Test
+  public void tokenizesIntoLowerCaseWords() {
+    Assert.assertEquals(Arrays.asList("hello", "wörld", "42"),
+        CommentIndex.tokenize("Hello, WÖRLD! 42"));
+  }
+
+  @Test
+  public void ranksCommentsMatchingMoreWordsFirst() {
+    index.add(comment(1, "apple pie", 1));
+    index.add(comment(2, "apple and cherry pie", 2));
+    index.add(comment(3, "cherry", 3));
+    index.add(comment(4, "banana", 4));
+
+    CommentIndex.Results results = index.search("cherry pie", 0, 10);
+
+    Assert.assertEquals(3, results.getTotal());
+    Assert.assertEquals(Long.valueOf(2), results.getIds().get(0));
+  }
+
+  @Test
+  public void equalRanksAreNewestFirst() {
+    index.add(comment(1, "same words", 100));
+    index.add(comment(2, "same words", 300));
+    index.add(comment(3, "same words", 200));
+
+    Assert.assertEquals(Arrays.asList(2L, 3L, 1L), index.search("same", 0, 10).getIds());
+  }
+
+  @Test
+  public void pagesThroughResults() {
+    for (long id = 1; id <= 5; id++) {
+      index.add(comment(id, "word", id));
+    }
+
+    Assert.assertEquals(Arrays.asList(3L, 2L), index.search("word", 2, 2).getIds());
+    Assert.assertEquals(Arrays.asList(1L), index.search("word", 4, 2).getIds());
+  }
+
+  @Test
+  public void offsetPastTheEndIsAnEmptyPage() {
+    index.add(comment(1, "word", 1));
+
+    CommentIndex.Results results = index.search("word", Integer.MAX_VALUE, 10);
+
+    Assert.assertTrue(results.getIds().isEmpty());
+    Assert.assertEquals(1, results.getTotal());
+    Assert.assertEquals(Arrays.asList(1L), index.search("word", 0, Integer.MAX_VALUE).getIds());
+  }
+
+  @Test
+  public void removedCommentsAreNotFound() {
+    index.add(comment(1, "apple", 1));
+    index.add(comment(2, "apple", 2));
+
+    index.removeAll(Arrays.asList(2L));
+
+    Assert.assertEquals(Arrays.asList(1L), index.search("apple", 0, 10).getIds());
+  }
+
+  @Test
+  public void buildsFromTheRepository() {
+    long id = repository.add("a@example.com", "stored", null, false, comment -> {}).getId();
+
+    Assert.assertEquals(Arrays.asList(id), index.search("stored", 0, 10).getIds());
+  }
+
+  @Test
+  public void picksUpCommentsStoredElsewhere() throws Exception {
+    CommentIndex refreshing = new CommentIndex(repository, 1);
+    refreshing.build();
+
+    long id = repository.add("a@example.com", "elsewhere", null, false, comment -> {}).getId();
+    Thread.sleep(5);
+
+    Assert.assertEquals(Arrays.asList(id), refreshing.search("elsewhere", 0, 10).getIds());
+  }
+
+  @Test
+  public void rebuildsAfterADeletionElsewhere() throws Exception {
+    CommentIndex refreshing = new CommentIndex(repository, 1);
+    repository.add("a@example.com", "gone", null, false, comment -> {});
+    Assert.assertEquals(1, refreshing.search("gone", 0, 10).getTotal());
+
+    // Deleted without telling the index, as on another instance.
+    repository.deleteAll();
+    Thread.sleep(5);
+
+    Assert.assertEquals(0, refreshing.search("gone", 0, 10).getTotal());
+  }
+}
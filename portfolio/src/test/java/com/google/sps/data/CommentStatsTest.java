@@ -0,0 +1,129 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that the stats follow comments as they are posted, scored and deleted. */
+@RunWith(JUnit4.class)
+public final class CommentStatsTest {
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+  private final InMemoryCommentRepository repository = new InMemoryCommentRepository();
+  private final CommentStats stats = new CommentStats(repository, 0);
+
+  private static JsonObject json(CommentStats.Totals totals) throws IOException {
+    StringWriter out = new StringWriter();
+    totals.writeJson(new JsonWriter(out));
+    return JsonParser.parseString(out.toString()).getAsJsonObject();
+  }
+
+  @Test
+  public void countsCommentsOverallPerAuthorAndPerHour() throws Exception {
+    stats.add(new Comment(1, "a@example.com", "one", 0.5f, 10 * HOUR + 1));
+    stats.add(new Comment(2, "b@example.com", "two", null, 10 * HOUR + 2));
+    stats.add(new Comment(3, "a@example.com", "three", null, 11 * HOUR));
+
+    JsonObject overall = json(stats.getOverall());
+    Assert.assertEquals(3, overall.get("count").getAsLong());
+    Assert.assertEquals(1, overall.get("scored").getAsLong());
+    Assert.assertEquals(0.5, overall.get("meanScore").getAsDouble(), 1e-6);
+    Assert.assertEquals(2, json(stats.getByAuthor().get("a@example.com")).get("count").getAsLong());
+    Assert.assertEquals(2, json(stats.getHour(10 * HOUR + 30)).get("count").getAsLong());
+    Assert.assertNull(stats.getHour(12 * HOUR));
+  }
+
+  @Test
+  public void addingACommentTwiceCountsItOnce() throws Exception {
+    Comment comment = new Comment(1, "a@example.com", "one", null, 1);
+
+    stats.add(comment);
+    stats.add(comment);
+
+    Assert.assertEquals(1, json(stats.getOverall()).get("count").getAsLong());
+  }
+
+  @Test
+  public void scoringReplacesTheEstimate() throws Exception {
+    stats.add(new Comment(1, "a@example.com", "one", 0.9f, 1));
+    stats.add(new Comment(2, "a@example.com", "two", null, 2));
+
+    stats.updateScore(1, -0.9f);
+    stats.updateScore(2, -0.9f);
+
+    JsonObject overall = json(stats.getOverall());
+    Assert.assertEquals(2, overall.get("scored").getAsLong());
+    Assert.assertEquals(-1.8, overall.get("scoreSum").getAsDouble(), 1e-6);
+    Assert.assertEquals(2, overall.get("histogram").getAsJsonArray()
+        .get(CommentStats.bucket(-0.9f)).getAsLong());
+    Assert.assertEquals(0, overall.get("histogram").getAsJsonArray()
+        .get(CommentStats.bucket(0.9f)).getAsLong());
+  }
+
+  @Test
+  public void deletedCommentsAreTakenOut() throws Exception {
+    stats.add(new Comment(1, "a@example.com", "one", 0.5f, 1));
+    stats.add(new Comment(2, "b@example.com", "two", -0.5f, 2));
+
+    stats.removeAll(Arrays.asList(1L));
+
+    JsonObject overall = json(stats.getOverall());
+    Assert.assertEquals(1, overall.get("count").getAsLong());
+    Assert.assertEquals(-0.5, overall.get("scoreSum").getAsDouble(), 1e-6);
+    Assert.assertTrue(stats.getByAuthor().get("a@example.com").isEmpty());
+  }
+
+  @Test
+  public void buildsFromTheRepository() throws Exception {
+    repository.add("a@example.com", "one", 0.5f, false, comment -> {});
+    repository.add("a@example.com", "two", null, false, comment -> {});
+
+    Assert.assertEquals(2, json(stats.getOverall()).get("count").getAsLong());
+  }
+
+  @Test
+  public void rebuildsAfterADeletionElsewhere() throws Exception {
+    CommentStats refreshing = new CommentStats(repository, 1);
+    repository.add("a@example.com", "one", 0.5f, false, comment -> {});
+    Assert.assertEquals(1, json(refreshing.getOverall()).get("count").getAsLong());
+
+    // Deleted without telling the stats, as on another instance.
+    repository.deleteAll();
+    repository.add("b@example.com", "two", -0.5f, false, comment -> {});
+    Thread.sleep(5);
+
+    JsonObject overall = json(refreshing.getOverall());
+    Assert.assertEquals(1, overall.get("count").getAsLong());
+    Assert.assertEquals(-0.5, overall.get("scoreSum").getAsDouble(), 1e-6);
+    Assert.assertTrue(refreshing.getByAuthor().get("a@example.com").isEmpty());
+  }
+
+  @Test
+  public void bucketsCoverTheWholeScoreRange() {
+    Assert.assertEquals(0, CommentStats.bucket(-1));
+    Assert.assertEquals(CommentStats.HISTOGRAM_BUCKETS - 1, CommentStats.bucket(1));
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that imports keep ids, never overwrite, reserve their ids and are recorded. */
+@RunWith(JUnit4.class)
+public final class CommentTransferTest {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setNoStorage(true));
+  private DatastoreService datastore;
+  private CommentTransfer transfer;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    LocalDatastores.shareWithAllThreads();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    transfer = new CommentTransfer(datastore, 2, 2);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private static InputStream lines(String... lines) {
+    return new ByteArrayInputStream(
+        String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private int countComments() {
+    return datastore.prepare(new Query(Comment.KIND)).countEntities();
+  }
+
+  @Test
+  public void storesCommentsWithTheirIds() throws Exception {
+    CommentTransfer.ImportResult result = transfer.importFrom(lines(
+        "{\"id\":7,\"email\":\"a@example.com\",\"text\":\"one\",\"score\":0.5,\"timestamp\":1}",
+        "",
+        "{\"email\":\"b@example.com\",\"text\":\"two\",\"timestamp\":2}",
+        "{\"id\":9,\"text\":\"three\",\"timestamp\":3}"));
+
+    Assert.assertEquals(3, result.getStored());
+    Assert.assertEquals(0, result.getSkipped());
+    Assert.assertEquals(3, countComments());
+    Entity seven = datastore.get(KeyFactory.createKey(Comment.KIND, 7));
+    Assert.assertEquals("one", seven.getProperty("text"));
+  }
+
+  @Test
+  public void skipsCommentsWhoseIdIsStored() throws Exception {
+    Entity existing = new Entity(Comment.KIND, 7);
+    Comment.setProperties(existing, "a@example.com", "existing", null, false, 1);
+    datastore.put(existing);
+
+    CommentTransfer.ImportResult result = transfer.importFrom(lines(
+        "{\"id\":7,\"text\":\"imported\",\"timestamp\":1}",
+        "{\"id\":8,\"text\":\"new\",\"timestamp\":2}"));
+
+    Assert.assertEquals(1, result.getStored());
+    Assert.assertEquals(1, result.getSkipped());
+    Assert.assertEquals("existing",
+        datastore.get(KeyFactory.createKey(Comment.KIND, 7)).getProperty("text"));
+  }
+
+  @Test
+  public void reservesTheImportedIds() throws Exception {
+    transfer.importFrom(lines(
+        "{\"id\":3,\"text\":\"one\",\"timestamp\":1}",
+        "{\"id\":1000,\"text\":\"two\",\"timestamp\":2}"));
+
+    Assert.assertTrue(datastore.allocateIds(Comment.KIND, 1).getStart().getId() > 1000);
+  }
+
+  @Test
+  public void recordsTheImport() throws Exception {
+    Assert.assertEquals(0, CommentTransfer.lastImportFinished(datastore));
+
+    transfer.importFrom(lines("{\"id\":1,\"text\":\"one\",\"timestamp\":1}"));
+
+    Assert.assertTrue(CommentTransfer.lastImportFinished(datastore) > 0);
+  }
+
+  @Test
+  public void rejectsALineThatIsNotAComment() throws Exception {
+    try {
+      transfer.importFrom(lines("{\"id\":1,\"text\":\"one\"}", "not json"));
+      Assert.fail("The second line should be rejected.");
+    } catch (IllegalArgumentException expected) {
+      Assert.assertTrue(expected.getMessage().startsWith("Line 2 "));
+    }
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that buffered comments are stored in batches, and spilled when they can't be. */
+@RunWith(JUnit4.class)
+public final class CommentWriteBufferTest {
+  @Rule public final TemporaryFolder spill = new TemporaryFolder();
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setNoStorage(true));
+  private final AtomicInteger stored = new AtomicInteger();
+  private DatastoreService datastore;
+  private CommentWriteBuffer buffer;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    LocalDatastores.shareWithAllThreads();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    if (buffer != null) {
+      buffer.shutdown();
+    }
+    helper.tearDown();
+  }
+
+  /** Returns {@code datastore} with every batch put failing. */
+  private static DatastoreService failingBatches(DatastoreService datastore) {
+    return (DatastoreService) Proxy.newProxyInstance(DatastoreService.class.getClassLoader(),
+        new Class<?>[] {DatastoreService.class}, (proxy, method, args) -> {
+          if (method.getName().equals("put") && args[args.length - 1] instanceof Iterable) {
+            throw new DatastoreFailureException("Unavailable.");
+          }
+          try {
+            return method.invoke(datastore, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  private Entity comment(CommentWriteBuffer buffer, String text) {
+    Entity entity = new Entity(buffer.allocateKey());
+    Comment.setProperties(entity, "a@example.com", text, null, false, 1);
+    return entity;
+  }
+
+  private int countComments() {
+    return datastore.prepare(new Query(Comment.KIND)).countEntities();
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean()) {
+      Assert.assertTrue("Timed out.", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void storesQueuedComments() throws Exception {
+    buffer = new CommentWriteBuffer(datastore, 10, 3, 20, 100, spill.getRoot());
+
+    for (int i = 0; i < 5; i++) {
+      buffer.add(comment(buffer, "comment " + i), stored::incrementAndGet);
+    }
+
+    await(() -> stored.get() == 5);
+    Assert.assertEquals(5, countComments());
+  }
+
+  @Test
+  public void stoppedBufferStoresTheCommentItself() {
+    buffer = new CommentWriteBuffer(datastore, 10, 10, 60_000, 10, spill.getRoot());
+    buffer.shutdown();
+
+    buffer.add(comment(buffer, "stored directly"), stored::incrementAndGet);
+
+    Assert.assertEquals(1, stored.get());
+    Assert.assertEquals(1, countComments());
+  }
+
+  @Test
+  public void shutdownStoresQueuedComments() {
+    buffer = new CommentWriteBuffer(datastore, 10, 10, 50, 100, spill.getRoot());
+    for (int i = 0; i < 3; i++) {
+      buffer.add(comment(buffer, "comment " + i), stored::incrementAndGet);
+    }
+
+    buffer.shutdown();
+
+    Assert.assertEquals(3, stored.get());
+    Assert.assertEquals(3, countComments());
+    Assert.assertEquals(0, spill.getRoot().listFiles().length);
+  }
+
+  @Test
+  public void unstoredCommentsAreSpilledAndReplayed() throws Exception {
+    CommentWriteBuffer failing = new CommentWriteBuffer(
+        failingBatches(datastore), 10, 10, 10, 100, spill.getRoot());
+    failing.add(comment(failing, "spilled"), stored::incrementAndGet);
+    await(() -> spill.getRoot().listFiles((dir, name) -> name.endsWith(".spill")).length == 1);
+    failing.shutdown();
+    Assert.assertEquals(0, stored.get());
+
+    buffer = new CommentWriteBuffer(datastore, 10, 10, 10, 100, spill.getRoot());
+    List<Entity> replayed = buffer.replaySpill();
+
+    Assert.assertEquals(1, replayed.size());
+    Assert.assertEquals("spilled", replayed.get(0).getProperty("text"));
+    Assert.assertEquals(1, countComments());
+    Assert.assertEquals(0, spill.getRoot().listFiles().length);
+  }
+}
@@ -0,0 +1,145 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that pages merged over the sort shards come back in order and resume correctly. */
+@RunWith(JUnit4.class)
+public final class DatastoreCommentRepositoryTest {
+  private static final int SHARDS = 3;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setNoStorage(true));
+  private final CommentShards shards = new CommentShards(SHARDS);
+  private DatastoreService datastore;
+  private DatastoreCommentRepository repository;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    repository = new DatastoreCommentRepository(datastore, null, null, shards);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /**
+   * Stores comments with timestamps 1 to {@code count}. The first {@code unsharded} are stored as
+   * before sharding was turned on, with only their timestamp indexed.
+   */
+  private void store(int count, int unsharded) {
+    List<Entity> entities = new ArrayList<>();
+    for (long timestamp = 1; timestamp <= count; timestamp++) {
+      Entity entity = new Entity(Comment.KIND);
+      Comment.setProperties(entity, "a@example.com", "comment " + timestamp, null, false,
+          timestamp);
+      if (timestamp > unsharded) {
+        shards.assign(entity, timestamp);
+      }
+      entities.add(entity);
+    }
+    datastore.put(entities);
+  }
+
+  /** Reads every comment in pages of {@code limit}, returning their timestamps in order. */
+  private List<Long> readAll(int limit, boolean newestFirst) {
+    List<Long> timestamps = new ArrayList<>();
+    String cursor = null;
+    while (true) {
+      CommentRepository.Page page = repository.list(limit, newestFirst, cursor);
+      int read = 0;
+      while (page.hasNext()) {
+        timestamps.add(page.next().getTimestamp());
+        read++;
+      }
+      if (read < limit) {
+        return timestamps;
+      }
+      cursor = page.getCursor();
+    }
+  }
+
+  /** Returns the numbers from {@code first} to {@code last}, counting up or down. */
+  private static List<Long> range(long first, long last) {
+    long step = first <= last ? 1 : -1;
+    List<Long> values = new ArrayList<>();
+    for (long value = first; value != last + step; value += step) {
+      values.add(value);
+    }
+    return values;
+  }
+
+  @Test
+  public void mergesShardsNewestFirst() {
+    store(23, 5);
+
+    Assert.assertEquals(range(23, 1), readAll(4, true));
+  }
+
+  @Test
+  public void mergesShardsOldestFirst() {
+    store(23, 5);
+
+    Assert.assertEquals(range(1, 23), readAll(4, false));
+  }
+
+  @Test
+  public void pageEndingOnTheLastCommentHasAnEmptyNextPage() {
+    store(8, 0);
+
+    Assert.assertEquals(range(8, 1), readAll(4, true));
+  }
+
+  @Test
+  public void cursorHoldsOneDatastoreCursorPerQuery() {
+    store(6, 2);
+    CommentRepository.Page page = repository.list(2, true, null);
+    while (page.hasNext()) {
+      page.next();
+    }
+
+    Assert.assertEquals(SHARDS + 1, page.getCursor().split("\\.", -1).length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsCursorFromAnotherShardCount() {
+    repository.list(2, true, "a.b");
+  }
+
+  @Test
+  public void pagesWithoutShards() {
+    store(7, 7);
+    repository = new DatastoreCommentRepository(datastore, null, null, new CommentShards(0));
+
+    Assert.assertEquals(range(7, 1), readAll(3, true));
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks the paging of the in-memory repository that the other tests run against. */
+@RunWith(JUnit4.class)
+public final class InMemoryCommentRepositoryTest {
+  private final InMemoryCommentRepository repository = new InMemoryCommentRepository();
+
+  private long post(String text) {
+    return repository.add("a@example.com", text, null, false, comment -> {}).getId();
+  }
+
+  /** Reads one page, returning its ids; {@code cursor} is set to the next page's cursor. */
+  private List<Long> page(int limit, boolean newestFirst, String[] cursor) {
+    CommentRepository.Page page = repository.list(limit, newestFirst, cursor[0]);
+    List<Long> ids = new ArrayList<>();
+    while (page.hasNext()) {
+      ids.add(page.next().getId());
+    }
+    cursor[0] = page.getCursor();
+    return ids;
+  }
+
+  @Test
+  public void pagesNewestFirst() {
+    long first = post("one");
+    long second = post("two");
+    long third = post("three");
+    String[] cursor = {null};
+
+    Assert.assertEquals(Arrays.asList(third, second), page(2, true, cursor));
+    Assert.assertEquals(Arrays.asList(first), page(2, true, cursor));
+    Assert.assertEquals(Arrays.asList(), page(2, true, cursor));
+  }
+
+  @Test
+  public void pagesOldestFirst() {
+    long first = post("one");
+    long second = post("two");
+    long third = post("three");
+    String[] cursor = {null};
+
+    Assert.assertEquals(Arrays.asList(first, second), page(2, false, cursor));
+    Assert.assertEquals(Arrays.asList(third), page(2, false, cursor));
+  }
+
+  @Test
+  public void laterPagesSkipCommentsPostedSince() {
+    long first = post("one");
+    long second = post("two");
+    String[] cursor = {null};
+    Assert.assertEquals(Arrays.asList(second), page(1, true, cursor));
+
+    post("three");
+
+    Assert.assertEquals(Arrays.asList(first), page(1, true, cursor));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsBadCursor() {
+    repository.list(10, true, "not a cursor");
+  }
+
+  @Test
+  public void getSkipsMissingIds() {
+    long id = post("one");
+
+    Assert.assertEquals(Arrays.asList(id),
+        new ArrayList<>(repository.get(Arrays.asList(id, id + 100)).keySet()));
+  }
+
+  @Test
+  public void deleteAllIsRecorded() {
+    post("one");
+    post("two");
+
+    CommentRepository.Deletion deletion = repository.deleteAll();
+
+    Assert.assertTrue(deletion.isDone());
+    Assert.assertEquals(2, deletion.getDeleted());
+    Assert.assertEquals(0, repository.size());
+    Assert.assertEquals(2, repository.getDeletion(deletion.getId()).getDeleted());
+  }
+}
@@ -0,0 +1,37 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.apphosting.api.ApiProxy;
+
+/** Helpers for tests that use the local App Engine stubs. */
+public final class LocalDatastores {
+  // The environment of the test running now, for threads that have none of their own.
+  private static volatile ApiProxy.Environment current;
+
+  private LocalDatastores() {}
+
+  /**
+   * Lets the threads started by the code under test use the local stubs, which are otherwise only
+   * registered for the thread that set them up. Call it from that thread, after setting them up.
+   */
+  public static synchronized void shareWithAllThreads() {
+    if (current == null) {
+      ApiProxy.setEnvironmentFactory(() -> current);
+    }
+    current = ApiProxy.getCurrentEnvironment();
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks the bursts and refill of the rate limiter. */
+@RunWith(JUnit4.class)
+public final class RateLimiterTest {
+
+  @Test
+  public void allowsABurstThenRefuses() {
+    RateLimiter limiter = new RateLimiter(60, 3);
+
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(0, limiter.tryAcquire("a"));
+    }
+    long retryMillis = limiter.tryAcquire("a");
+
+    // One token a second.
+    Assert.assertTrue(retryMillis > 0 && retryMillis <= 1000);
+  }
+
+  @Test
+  public void refillsOverTime() throws Exception {
+    // A token every 10 ms.
+    RateLimiter limiter = new RateLimiter(6000, 1);
+    Assert.assertEquals(0, limiter.tryAcquire("a"));
+    Assert.assertTrue(limiter.tryAcquire("a") > 0);
+
+    Thread.sleep(20);
+
+    Assert.assertEquals(0, limiter.tryAcquire("a"));
+  }
+
+  @Test
+  public void keysHaveTheirOwnBuckets() {
+    RateLimiter limiter = new RateLimiter(1, 1);
+
+    Assert.assertEquals(0, limiter.tryAcquire("a"));
+    Assert.assertEquals(0, limiter.tryAcquire("b"));
+    Assert.assertTrue(limiter.tryAcquire("a") > 0);
+    Assert.assertEquals(2, limiter.size());
+  }
+
+  @Test
+  public void zeroRateIsNoLimit() {
+    RateLimiter limiter = new RateLimiter(0, 1);
+
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(0, limiter.tryAcquire("a"));
+    }
+  }
+
+  @Test
+  public void memcacheSharesTheLimitBetweenInstances() {
+    LocalServiceTestHelper helper =
+        new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+    helper.setUp();
+    try {
+      // Two instances, each with its own buckets, sharing windows of two minutes.
+      RateLimiter first = new RateLimiter(1, 2, MemcacheServiceFactory.getMemcacheService());
+      RateLimiter second = new RateLimiter(1, 2, MemcacheServiceFactory.getMemcacheService());
+
+      Assert.assertEquals(0, first.tryAcquire("a"));
+      Assert.assertEquals(0, second.tryAcquire("a"));
+      Assert.assertTrue(second.tryAcquire("a") > 0);
+      Assert.assertEquals(0, second.tryAcquire("b"));
+    } finally {
+      helper.tearDown();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that the window of newest comments follows the writes applied to it. */
+@RunWith(JUnit4.class)
+public final class RecentCommentsCacheTest {
+  private final InMemoryCommentRepository repository = new InMemoryCommentRepository();
+
+  private Comment post(String text) {
+    return repository.add("a@example.com", text, null, false, comment -> {});
+  }
+
+  private static List<Long> ids(List<RecentCommentsCache.Entry> entries) {
+    List<Long> ids = new ArrayList<>();
+    for (RecentCommentsCache.Entry entry : entries) {
+      ids.add(entry.getComment().getId());
+    }
+    return ids;
+  }
+
+  @Test
+  public void loadsTheNewestComments() {
+    post("one");
+    Comment second = post("two");
+    Comment third = post("three");
+    RecentCommentsCache cache = new RecentCommentsCache(repository, 2, null, 60);
+
+    Assert.assertEquals(Arrays.asList(third.getId(), second.getId()), ids(cache.newest(2)));
+    Assert.assertNull(cache.newest(3));
+  }
+
+  @Test
+  public void addsNewCommentsToTheLoadedWindow() {
+    Comment first = post("one");
+    RecentCommentsCache cache = new RecentCommentsCache(repository, 5, null, 60);
+    cache.newest(5);
+
+    Comment second = post("two");
+    cache.add(second);
+
+    Assert.assertEquals(Arrays.asList(second.getId(), first.getId()), ids(cache.newest(5)));
+  }
+
+  @Test
+  public void commentLoadedBeforeItIsAddedIsKeptOnce() {
+    RecentCommentsCache cache = new RecentCommentsCache(repository, 5, null, 60);
+    // The window is loaded between the comment being stored and being added to the cache.
+    Comment comment = post("one");
+    cache.newest(5);
+    cache.add(comment);
+
+    Assert.assertEquals(Arrays.asList(comment.getId()), ids(cache.newest(5)));
+  }
+
+  @Test
+  public void updatesTheScoreOfACachedComment() {
+    Comment comment = post("one");
+    RecentCommentsCache cache = new RecentCommentsCache(repository, 5, null, 60);
+    cache.newest(5);
+
+    cache.updateScore(comment.getId(), 0.5f);
+
+    Assert.assertEquals(0.5f, cache.newest(1).get(0).getComment().getScore(), 0);
+  }
+
+  @Test
+  public void invalidateReloadsFromTheRepository() {
+    post("one");
+    RecentCommentsCache cache = new RecentCommentsCache(repository, 5, null, 60);
+    cache.newest(5);
+
+    repository.deleteAll();
+    cache.invalidate();
+
+    Assert.assertTrue(cache.newest(5).isEmpty());
+  }
+
+  @Test
+  public void memcacheWindowKeepsACommentOnce() {
+    LocalServiceTestHelper helper =
+        new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+    helper.setUp();
+    try {
+      // Two instances sharing one window.
+      RecentCommentsCache first =
+          new RecentCommentsCache(repository, 5, MemcacheServiceFactory.getMemcacheService(), 60);
+      RecentCommentsCache second =
+          new RecentCommentsCache(repository, 5, MemcacheServiceFactory.getMemcacheService(), 60);
+      Comment comment = post("one");
+      first.newest(5);
+
+      second.add(comment);
+      Comment newer = post("two");
+      second.add(newer);
+
+      Assert.assertEquals(Arrays.asList(newer.getId(), comment.getId()), ids(first.newest(5)));
+    } finally {
+      helper.tearDown();
+    }
+  }
+}
@@ -0,0 +1,208 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.sentiment.FakeSentimentAnalyzer;
+import com.google.sps.sentiment.SentimentAnalyzer;
+import com.google.sps.sentiment.SentimentRejectedException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that pending comments are scored once each, and that a full queue leaves them pending. */
+@RunWith(JUnit4.class)
+public final class SentimentBackfillTest {
+  private static final FakeSentimentAnalyzer FAKE = new FakeSentimentAnalyzer(0);
+
+  /** Counts calls and leaves each score waiting until the test completes it. */
+  private static final class PendingAnalyzer implements SentimentAnalyzer {
+    final List<CompletableFuture<Float>> calls = new CopyOnWriteArrayList<>();
+
+    @Override
+    public float score(String text) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<Float> scoreAsync(String text) {
+      CompletableFuture<Float> call = new CompletableFuture<>();
+      calls.add(call);
+      return call;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setNoStorage(true));
+  private final Map<Long, Float> scored = new ConcurrentHashMap<>();
+  private DatastoreService datastore;
+  private SentimentBackfill backfill;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    LocalDatastores.shareWithAllThreads();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    if (backfill != null) {
+      backfill.shutdown();
+    }
+    helper.tearDown();
+  }
+
+  private SentimentBackfill start(SentimentAnalyzer analyzer, int queueCapacity) {
+    backfill = new SentimentBackfill(analyzer, datastore, scored::put, 2, queueCapacity, 0, 3, 1);
+    return backfill;
+  }
+
+  private Key storePending(String text) {
+    Entity entity = new Entity(Comment.KIND);
+    Comment.setProperties(entity, "a@example.com", text, null, false, System.currentTimeMillis());
+    SentimentBackfill.markPending(entity);
+    return datastore.put(entity);
+  }
+
+  private boolean isPending(Key key) throws EntityNotFoundException {
+    return datastore.get(key).hasProperty(SentimentBackfill.PENDING_PROPERTY);
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean()) {
+      Assert.assertTrue("Timed out.", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void storesTheScoreAndClearsPending() throws Exception {
+    Key key = storePending("lovely");
+    start(FAKE, 10).submit(key, "lovely");
+
+    await(() -> scored.containsKey(key.getId()));
+
+    Assert.assertFalse(isPending(key));
+    Assert.assertEquals(FAKE.score("lovely"),
+        ((Number) datastore.get(key).getProperty("score")).floatValue(), 0);
+    await(() -> backfill.getQueuedCount() == 0);
+  }
+
+  @Test
+  public void rejectedTextIsNotRetried() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    SentimentAnalyzer rejecting = new SentimentAnalyzer() {
+      @Override
+      public float score(String text) throws IOException {
+        calls.incrementAndGet();
+        throw new SentimentRejectedException("Unsupported language.", null);
+      }
+
+      @Override
+      public void close() {}
+    };
+    Key key = storePending("texte");
+    start(rejecting, 10).submit(key, "texte");
+
+    await(() -> backfill.getQueuedCount() == 0);
+
+    Assert.assertFalse(isPending(key));
+    Assert.assertFalse(datastore.get(key).hasProperty("score"));
+    Assert.assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void queuesACommentOnlyOnce() throws Exception {
+    PendingAnalyzer analyzer = new PendingAnalyzer();
+    Key key = storePending("twice");
+    start(analyzer, 10);
+
+    backfill.submit(key, "twice");
+    backfill.submit(key, "twice");
+    await(() -> analyzer.calls.size() == 1);
+    backfill.resubmitPending();
+    Thread.sleep(50);
+
+    Assert.assertEquals(1, analyzer.calls.size());
+    Assert.assertEquals(1, backfill.getQueuedCount());
+  }
+
+  @Test
+  public void fullQueueLeavesCommentsPendingUntilResubmitted() throws Exception {
+    PendingAnalyzer analyzer = new PendingAnalyzer();
+    Key first = storePending("first");
+    Key second = storePending("second");
+    Key third = storePending("third");
+    start(analyzer, 2);
+
+    backfill.submit(first, "first");
+    backfill.submit(second, "second");
+    backfill.submit(third, "third");
+    await(() -> analyzer.calls.size() == 2);
+
+    Assert.assertEquals(2, backfill.getQueuedCount());
+    analyzer.calls.get(0).complete(0.5f);
+    analyzer.calls.get(1).complete(0.5f);
+    await(() -> backfill.getQueuedCount() == 0);
+    Assert.assertTrue(isPending(third));
+
+    backfill.resubmitPending();
+    await(() -> analyzer.calls.size() == 3);
+    analyzer.calls.get(2).complete(0.5f);
+    await(() -> scored.containsKey(third.getId()));
+    Assert.assertFalse(isPending(third));
+  }
+
+  @Test
+  public void resubmitsEveryPendingComment() throws Exception {
+    Key[] keys = new Key[5];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = storePending("comment " + i);
+    }
+    Entity scoredAlready = new Entity(Comment.KIND);
+    Comment.setProperties(scoredAlready, "a@example.com", "done", 0.1f, false, 1);
+    datastore.put(scoredAlready);
+
+    start(FAKE, 10).resubmitPending();
+
+    await(() -> scored.size() == keys.length);
+    for (Key key : keys) {
+      Assert.assertFalse(isPending(key));
+    }
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.sentiment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks how texts are batched, shared and failed. */
+@RunWith(JUnit4.class)
+public final class BatchingSentimentAnalyzerTest {
+  private static final FakeSentimentAnalyzer FAKE = new FakeSentimentAnalyzer(0);
+
+  /** Scores like the fake analyzer, but rejects the text "rejected" on its own. */
+  private static final class PickyAnalyzer implements SentimentAnalyzer {
+    @Override
+    public float score(String text) throws IOException {
+      if (text.equals("rejected")) {
+        throw new SentimentRejectedException("Unsupported language.", null);
+      }
+      return FAKE.score(text);
+    }
+
+    @Override
+    public List<CompletableFuture<Float>> scoreEach(List<String> texts) {
+      List<CompletableFuture<Float>> scores = new ArrayList<>();
+      for (String text : texts) {
+        scores.add(scoreAsync(text));
+      }
+      return scores;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private BatchingSentimentAnalyzer batcher;
+
+  @After
+  public void tearDown() {
+    batcher.close();
+  }
+
+  @Test
+  public void sendsTheTextsOfOneWindowTogether() throws Exception {
+    batcher = new BatchingSentimentAnalyzer(FAKE, 50, 10, 2);
+
+    List<CompletableFuture<Float>> scores = new ArrayList<>();
+    for (String text : Arrays.asList("one", "two", "three")) {
+      scores.add(batcher.scoreAsync(text));
+    }
+
+    Assert.assertEquals(FAKE.score("two"), scores.get(1).get(1, TimeUnit.SECONDS), 0);
+    Assert.assertEquals(1, batcher.getBatchCount());
+  }
+
+  @Test
+  public void sendsAFullBatchAtOnce() throws Exception {
+    batcher = new BatchingSentimentAnalyzer(FAKE, 60_000, 2, 2);
+
+    batcher.scoreAsync("one");
+    CompletableFuture<Float> second = batcher.scoreAsync("two");
+
+    Assert.assertEquals(FAKE.score("two"), second.get(1, TimeUnit.SECONDS), 0);
+  }
+
+  @Test
+  public void identicalTextsShareOneResult() throws Exception {
+    batcher = new BatchingSentimentAnalyzer(FAKE, 50, 10, 2);
+
+    CompletableFuture<Float> first = batcher.scoreAsync("same");
+    CompletableFuture<Float> second = batcher.scoreAsync("same");
+
+    Assert.assertSame(first, second);
+    Assert.assertEquals(1, batcher.getCoalescedCount());
+    Assert.assertEquals(2, batcher.getRequestCount());
+  }
+
+  @Test
+  public void rejectedTextFailsOnlyItself() throws Exception {
+    batcher = new BatchingSentimentAnalyzer(new PickyAnalyzer(), 50, 10, 2);
+
+    CompletableFuture<Float> good = batcher.scoreAsync("good");
+    CompletableFuture<Float> rejected = batcher.scoreAsync("rejected");
+
+    Assert.assertEquals(FAKE.score("good"), good.get(1, TimeUnit.SECONDS), 0);
+    try {
+      rejected.get(1, TimeUnit.SECONDS);
+      Assert.fail("The rejected text should fail.");
+    } catch (ExecutionException expected) {
+      Assert.assertTrue(expected.getCause() instanceof SentimentRejectedException);
+    }
+    Assert.assertEquals(1, batcher.getBatchCount());
+  }
+
+  @Test
+  public void failedBatchFailsEveryText() throws Exception {
+    SentimentAnalyzer down = new SentimentAnalyzer() {
+      @Override
+      public float score(String text) throws IOException {
+        throw new IOException("Service unavailable.");
+      }
+
+      @Override
+      public void close() {}
+    };
+    batcher = new BatchingSentimentAnalyzer(down, 50, 10, 2);
+
+    CompletableFuture<Float> first = batcher.scoreAsync("one");
+    CompletableFuture<Float> second = batcher.scoreAsync("two");
+
+    for (CompletableFuture<Float> score : Arrays.asList(first, second)) {
+      try {
+        score.get(1, TimeUnit.SECONDS);
+        Assert.fail("Every text of the batch should fail.");
+      } catch (ExecutionException expected) {
+        Assert.assertEquals("Service unavailable.", expected.getCause().getMessage());
+      }
+    }
+  }
+}
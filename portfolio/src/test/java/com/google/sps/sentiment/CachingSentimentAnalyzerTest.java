@@ -0,0 +1,151 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.sentiment;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.LocalDatastores;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks which texts the cache answers itself and what it keeps in Datastore. */
+@RunWith(JUnit4.class)
+public final class CachingSentimentAnalyzerTest {
+  private static final FakeSentimentAnalyzer FAKE = new FakeSentimentAnalyzer(0);
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+  /** Scores like the fake analyzer and counts the texts it is asked about. */
+  private static final class CountingAnalyzer implements SentimentAnalyzer {
+    final AtomicInteger calls = new AtomicInteger();
+
+    @Override
+    public float score(String text) throws IOException {
+      calls.incrementAndGet();
+      return FAKE.score(text);
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private final CountingAnalyzer counting = new CountingAnalyzer();
+
+  @Test
+  public void repeatedTextIsScoredOnce() throws Exception {
+    CachingSentimentAnalyzer cache = new CachingSentimentAnalyzer(counting, 10, HOUR, null);
+
+    float first = cache.score("Great post!");
+    float second = cache.scoreAsync("  great   POST! ").get();
+
+    Assert.assertEquals(first, second, 0);
+    Assert.assertEquals(1, counting.calls.get());
+    Assert.assertEquals(0.5, cache.getStats().getHitRate(), 1e-9);
+  }
+
+  @Test
+  public void expiredScoreIsScoredAgain() throws Exception {
+    CachingSentimentAnalyzer cache = new CachingSentimentAnalyzer(counting, 10, 1, null);
+
+    cache.score("text");
+    Thread.sleep(5);
+    cache.score("text");
+
+    Assert.assertEquals(2, counting.calls.get());
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsedScore() throws Exception {
+    CachingSentimentAnalyzer cache = new CachingSentimentAnalyzer(counting, 2, HOUR, null);
+
+    cache.score("one");
+    cache.score("two");
+    cache.score("one");
+    cache.score("three");
+    cache.score("one");
+    cache.score("two");
+
+    Assert.assertEquals(4, counting.calls.get());
+  }
+
+  @Test
+  public void storedScoresAreSharedAndExpireByPolicy() throws Exception {
+    LocalServiceTestHelper helper =
+        new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setNoStorage(true));
+    helper.setUp();
+    try {
+      LocalDatastores.shareWithAllThreads();
+      AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+      CachingSentimentAnalyzer first = new CachingSentimentAnalyzer(counting, 10, HOUR, datastore);
+      CachingSentimentAnalyzer second =
+          new CachingSentimentAnalyzer(counting, 10, HOUR, datastore);
+
+      float score = first.scoreAsync("shared").get(1, TimeUnit.SECONDS);
+      Query stored = new Query(CachingSentimentAnalyzer.KIND);
+      long deadline = System.currentTimeMillis() + 5000;
+      while (datastore.prepare(stored).countEntities() == 0) {
+        Assert.assertTrue("Timed out.", System.currentTimeMillis() < deadline);
+        Thread.sleep(5);
+      }
+
+      Assert.assertEquals(score, second.scoreAsync("shared").get(1, TimeUnit.SECONDS), 0);
+      Assert.assertEquals(1, counting.calls.get());
+      String hash = CachingSentimentAnalyzer.hash("shared");
+      Entity entity =
+          datastore.get(KeyFactory.createKey(CachingSentimentAnalyzer.KIND, hash)).get();
+      Assert.assertEquals(entity.getProperty("expiresAt"),
+          ((Date) entity.getProperty("deleteAfter")).getTime());
+      first.close();
+      second.close();
+    } finally {
+      helper.tearDown();
+    }
+  }
+
+  @Test
+  public void expiredStoredScoreIsIgnored() throws Exception {
+    LocalServiceTestHelper helper =
+        new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setNoStorage(true));
+    helper.setUp();
+    try {
+      LocalDatastores.shareWithAllThreads();
+      AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+      Entity expired = new Entity(
+          CachingSentimentAnalyzer.KIND, CachingSentimentAnalyzer.hash("stale"));
+      expired.setUnindexedProperty("score", 0.9f);
+      expired.setProperty("expiresAt", System.currentTimeMillis() - 1);
+      datastore.put(expired).get();
+      CachingSentimentAnalyzer cache = new CachingSentimentAnalyzer(counting, 10, HOUR, datastore);
+
+      Assert.assertEquals(FAKE.score("stale"), cache.scoreAsync("stale").get(1, TimeUnit.SECONDS),
+          0);
+      Assert.assertEquals(1, counting.calls.get());
+      cache.close();
+    } finally {
+      helper.tearDown();
+    }
+  }
+}
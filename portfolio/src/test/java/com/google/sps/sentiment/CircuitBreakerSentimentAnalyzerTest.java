@@ -0,0 +1,313 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.sentiment;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks when the breaker opens, probes and closes again. */
+@RunWith(JUnit4.class)
+public final class CircuitBreakerSentimentAnalyzerTest {
+  private static final long OPEN_MILLIS = 50;
+
+  /** Scores like the fake analyzer, or fails while {@code failing} is set, counting calls. */
+  private static final class FlakyAnalyzer implements SentimentAnalyzer {
+    private final SentimentAnalyzer scores = new FakeSentimentAnalyzer(0);
+    final AtomicInteger calls = new AtomicInteger();
+    volatile boolean failing;
+
+    @Override
+    public float score(String text) throws IOException {
+      calls.incrementAndGet();
+      if (failing) {
+        throw new IOException("Service unavailable.");
+      }
+      return scores.score(text);
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  /** Answers each call only when the test completes its future. */
+  private static final class PendingAnalyzer implements SentimentAnalyzer {
+    final List<CompletableFuture<Float>> calls = new CopyOnWriteArrayList<>();
+
+    @Override
+    public float score(String text) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<Float> scoreAsync(String text) {
+      CompletableFuture<Float> call = new CompletableFuture<>();
+      calls.add(call);
+      return call;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private final FlakyAnalyzer delegate = new FlakyAnalyzer();
+  private final CountDownLatch recovered = new CountDownLatch(1);
+  private final CircuitBreakerSentimentAnalyzer breaker = new CircuitBreakerSentimentAnalyzer(
+      delegate, 1000, 2, OPEN_MILLIS, 4, recovered::countDown);
+
+  @After
+  public void tearDown() {
+    breaker.close();
+  }
+
+  private void failTwice() throws InterruptedException {
+    delegate.failing = true;
+    for (int i = 0; i < 2; i++) {
+      try {
+        breaker.score("text");
+        Assert.fail("The call should have failed.");
+      } catch (IOException expected) {
+        // Counts towards opening the breaker.
+      }
+    }
+    // The caller can see a result before the breaker has counted it.
+    awaitDegraded(breaker);
+  }
+
+  private static void awaitDegraded(CircuitBreakerSentimentAnalyzer breaker)
+      throws InterruptedException {
+    for (int i = 0; i < 1000 && !breaker.isDegraded(); i++) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void passesScoresThroughWhileClosed() throws Exception {
+    Assert.assertEquals(new FakeSentimentAnalyzer(0).score("text"), breaker.score("text"), 0);
+    Assert.assertFalse(breaker.isDegraded());
+  }
+
+  @Test
+  public void opensAfterFailuresInARow() throws Exception {
+    failTwice();
+
+    Assert.assertTrue(breaker.isDegraded());
+    try {
+      breaker.score("text");
+      Assert.fail("The open breaker should refuse calls.");
+    } catch (SentimentUnavailableException expected) {
+      Assert.assertEquals(2, delegate.calls.get());
+    }
+  }
+
+  @Test
+  public void successResetsTheFailureCount() throws Exception {
+    delegate.failing = true;
+    try {
+      breaker.score("text");
+    } catch (IOException expected) {
+      // One failure.
+    }
+    delegate.failing = false;
+    breaker.score("text");
+    delegate.failing = true;
+    try {
+      breaker.score("text");
+    } catch (IOException expected) {
+      // One failure again.
+    }
+
+    Assert.assertFalse(breaker.isDegraded());
+  }
+
+  @Test
+  public void successfulProbeCloses() throws Exception {
+    failTwice();
+    delegate.failing = false;
+    Thread.sleep(OPEN_MILLIS * 2);
+
+    breaker.score("text");
+
+    Assert.assertFalse(breaker.isDegraded());
+    Assert.assertTrue(recovered.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void failedProbeOpensAgain() throws Exception {
+    failTwice();
+    Thread.sleep(OPEN_MILLIS * 2);
+
+    try {
+      breaker.score("text");
+      Assert.fail("The probe should have failed.");
+    } catch (IOException expected) {
+      Assert.assertFalse(expected instanceof SentimentUnavailableException);
+    }
+
+    Assert.assertTrue(breaker.isDegraded());
+    try {
+      breaker.score("text");
+      Assert.fail("The breaker should be open again.");
+    } catch (SentimentUnavailableException expected) {
+      Assert.assertEquals(3, delegate.calls.get());
+    }
+  }
+
+  @Test
+  public void timeoutsCountAsFailures() throws Exception {
+    CircuitBreakerSentimentAnalyzer slow = new CircuitBreakerSentimentAnalyzer(
+        new FakeSentimentAnalyzer(500), 20, 1, OPEN_MILLIS, 4, () -> {});
+    try {
+      slow.score("text");
+      Assert.fail("The call should have timed out.");
+    } catch (SentimentUnavailableException expected) {
+      awaitDegraded(slow);
+      Assert.assertTrue(slow.isDegraded());
+    } finally {
+      slow.close();
+    }
+  }
+
+  /** Starts a call, waiting until it reaches the pending analyzer. */
+  private static CompletableFuture<Float> start(CircuitBreakerSentimentAnalyzer breaker,
+      PendingAnalyzer pending) throws InterruptedException {
+    int before = pending.calls.size();
+    CompletableFuture<Float> result = breaker.scoreAsync("text");
+    while (pending.calls.size() == before && !result.isDone()) {
+      Thread.sleep(1);
+    }
+    return result;
+  }
+
+  @Test
+  public void lateSuccessDoesNotCloseAnOpenBreaker() throws Exception {
+    PendingAnalyzer pending = new PendingAnalyzer();
+    CountDownLatch recoveredLate = new CountDownLatch(1);
+    CircuitBreakerSentimentAnalyzer late = new CircuitBreakerSentimentAnalyzer(
+        pending, 1000, 2, 60_000, 4, recoveredLate::countDown);
+    try {
+      CompletableFuture<Float> slow = start(late, pending);
+      start(late, pending);
+      start(late, pending);
+      pending.calls.get(1).completeExceptionally(new IOException("down"));
+      pending.calls.get(2).completeExceptionally(new IOException("down"));
+      awaitDegraded(late);
+      Assert.assertTrue(late.isDegraded());
+
+      pending.calls.get(0).complete(0.5f);
+
+      Assert.assertEquals(0.5f, slow.get(), 0);
+      Assert.assertTrue(late.isDegraded());
+      Assert.assertFalse(recoveredLate.await(50, TimeUnit.MILLISECONDS));
+    } finally {
+      late.close();
+    }
+  }
+
+  @Test
+  public void lateFailureDoesNotDecideTheProbe() throws Exception {
+    PendingAnalyzer pending = new PendingAnalyzer();
+    CircuitBreakerSentimentAnalyzer late =
+        new CircuitBreakerSentimentAnalyzer(pending, 1000, 1, OPEN_MILLIS, 4, () -> {});
+    try {
+      start(late, pending);
+      start(late, pending);
+      pending.calls.get(1).completeExceptionally(new IOException("down"));
+      Thread.sleep(OPEN_MILLIS * 2);
+      start(late, pending);
+
+      // The call from before the breaker opened fails while the probe is running.
+      pending.calls.get(0).completeExceptionally(new IOException("down"));
+      Thread.sleep(OPEN_MILLIS * 2);
+
+      // Still waiting on the probe, so no second probe is let through.
+      Assert.assertTrue(late.scoreAsync("text").isCompletedExceptionally());
+      Assert.assertEquals(3, pending.calls.size());
+      pending.calls.get(2).complete(0.5f);
+      Assert.assertFalse(late.isDegraded());
+    } finally {
+      late.close();
+    }
+  }
+
+  @Test
+  public void boundsCallsInFlightWithoutOpening() throws Exception {
+    PendingAnalyzer pending = new PendingAnalyzer();
+    CircuitBreakerSentimentAnalyzer bounded =
+        new CircuitBreakerSentimentAnalyzer(pending, 20, 2, 60_000, 1, () -> {});
+    try {
+      CompletableFuture<Float> first = start(bounded, pending);
+      // Times out, but the analyzer still has the call, so it keeps its place.
+      try {
+        first.get();
+        Assert.fail("The call should have timed out.");
+      } catch (ExecutionException expected) {
+        Assert.assertTrue(expected.getCause() instanceof SentimentUnavailableException);
+      }
+      for (int i = 0; i < 5; i++) {
+        Assert.assertTrue(bounded.scoreAsync("text").isCompletedExceptionally());
+      }
+
+      Assert.assertEquals(1, pending.calls.size());
+      // Only the timeout counted, short of the threshold.
+      Assert.assertFalse(bounded.isDegraded());
+      pending.calls.get(0).complete(0.5f);
+      start(bounded, pending);
+      Assert.assertEquals(2, pending.calls.size());
+    } finally {
+      bounded.close();
+    }
+  }
+
+  @Test
+  public void rejectedTextsDoNotOpen() throws Exception {
+    SentimentAnalyzer picky = new SentimentAnalyzer() {
+      @Override
+      public float score(String text) throws IOException {
+        throw new SentimentRejectedException("Unsupported language.", null);
+      }
+
+      @Override
+      public void close() {}
+    };
+    CircuitBreakerSentimentAnalyzer rejecting =
+        new CircuitBreakerSentimentAnalyzer(picky, 1000, 1, 60_000, 4, () -> {});
+    try {
+      for (int i = 0; i < 3; i++) {
+        try {
+          rejecting.score("text");
+          Assert.fail("The text should be rejected.");
+        } catch (SentimentRejectedException expected) {
+          // The analyzer answered.
+        }
+      }
+
+      Assert.assertFalse(rejecting.isDegraded());
+    } finally {
+      rejecting.close();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.sentiment;
+
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiException;
+import io.grpc.Status;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks which API errors are taken for rejected texts rather than outages. */
+@RunWith(JUnit4.class)
+public final class CloudSentimentAnalyzerTest {
+
+  private static ApiException error(Status.Code code) {
+    return new ApiException(null, GrpcStatusCode.of(code), false);
+  }
+
+  @Test
+  public void invalidArgumentIsARejection() {
+    Assert.assertTrue(CloudSentimentAnalyzer.toIOException(error(Status.Code.INVALID_ARGUMENT))
+        instanceof SentimentRejectedException);
+  }
+
+  @Test
+  public void unavailableIsAnOutage() {
+    Assert.assertFalse(CloudSentimentAnalyzer.toIOException(error(Status.Code.UNAVAILABLE))
+        instanceof SentimentRejectedException);
+    Assert.assertFalse(CloudSentimentAnalyzer.toIOException(error(Status.Code.DEADLINE_EXCEEDED))
+        instanceof SentimentRejectedException);
+  }
+
+  @Test
+  public void otherErrorsAreOutages() {
+    Assert.assertFalse(CloudSentimentAnalyzer.toIOException(new RuntimeException("boom"))
+        instanceof SentimentRejectedException);
+  }
+}
@@ -0,0 +1,64 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.sentiment;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that the fake scores are stable enough to back other tests. */
+@RunWith(JUnit4.class)
+public final class FakeSentimentAnalyzerTest {
+  private final FakeSentimentAnalyzer analyzer = new FakeSentimentAnalyzer(0);
+
+  @Test
+  public void equalTextsGetEqualScores() throws Exception {
+    Assert.assertEquals(analyzer.score("hello world"), analyzer.score("hello world"), 0);
+  }
+
+  @Test
+  public void scoresAreBetweenMinusOneAndOne() throws Exception {
+    for (String text : Arrays.asList("", "a", "great work", "terrible", "not bad at all!")) {
+      float score = analyzer.score(text);
+      Assert.assertTrue(score > -1 && score < 1);
+    }
+  }
+
+  @Test
+  public void scoreAllMatchesScore() throws Exception {
+    List<String> texts = Arrays.asList("one", "two", "three");
+
+    List<Float> scores = analyzer.scoreAll(texts);
+
+    Assert.assertEquals(texts.size(), scores.size());
+    for (int i = 0; i < texts.size(); i++) {
+      Assert.assertEquals(analyzer.score(texts.get(i)), scores.get(i), 0);
+    }
+  }
+
+  @Test
+  public void latencyIsSimulated() throws Exception {
+    FakeSentimentAnalyzer slow = new FakeSentimentAnalyzer(20);
+
+    long start = System.nanoTime();
+    slow.scoreAll(Arrays.asList("one", "two", "three"));
+
+    // One round trip for the whole batch.
+    Assert.assertTrue(System.nanoTime() - start >= 20_000_000L);
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes how many people of a group are busy in each fixed-size bucket of a horizon. The result
+ * is a compact array so that a whole week at minute resolution can be served as one response.
+ */
+public final class ConflictHeatmap {
+  // The most buckets one heatmap may have: a week at minute resolution.
+  public static final int MAX_BUCKETS = 7 * 24 * 60;
+
+  // Runtime: O(e + b) where e is the number of (event, attendee) pairs that belong to the group and
+  // b is the number of buckets. Events are ordered with a counting sort on their first bucket and
+  // the counts are accumulated in a difference array, so nothing is ever compared per bucket.
+
+  /**
+   * Returns an array where index {@code i} holds the number of {@code attendees} that are busy at
+   * some point during {@code [horizon.start() + i * bucketMinutes, horizon.start() + (i + 1) *
+   * bucketMinutes)}. A person is counted at most once per bucket, even if they have overlapping
+   * events.
+   *
+   * @throws IllegalArgumentException if {@code bucketMinutes} isn't positive, or the horizon holds
+   *     more than {@link #MAX_BUCKETS} buckets
+   */
+  public int[] count(Collection<Event> events, Collection<String> attendees, TimeRange horizon,
+      int bucketMinutes) {
+    if (bucketMinutes <= 0) {
+      throw new IllegalArgumentException("bucketMinutes must be positive.");
+    }
+    // In longs, so a large bucket size can't overflow the rounding up.
+    long buckets = Math.max(0, ((long) horizon.duration() + bucketMinutes - 1) / bucketMinutes);
+    if (buckets > MAX_BUCKETS) {
+      throw new IllegalArgumentException("A heatmap has at most " + MAX_BUCKETS + " buckets.");
+    }
+    int numBuckets = (int) buckets;
+    int[] counts = new int[numBuckets];
+    if (numBuckets == 0 || attendees.isEmpty() || events.isEmpty()) {
+      return counts;
+    }
+
+    // Give every member of the group a dense index so per-person state fits in an array.
+    Map<String, Integer> memberIndex = new HashMap<>();
+    for (String attendee : attendees) {
+      if (!memberIndex.containsKey(attendee)) {
+        memberIndex.put(attendee, memberIndex.size());
+      }
+    }
+
+    // Convert every (event, member) pair into an inclusive span of buckets.
+    int maxSpans = 0;
+    for (Event event : events) {
+      maxSpans += event.getAttendees().size();
+    }
+    int[] spanMember = new int[maxSpans];
+    int[] spanFirst = new int[maxSpans];
+    int[] spanLast = new int[maxSpans];
+    int numSpans = 0;
+    for (Event event : events) {
+      TimeRange when = event.getWhen();
+      int start = Math.max(when.start(), horizon.start());
+      int end = Math.min(when.end(), horizon.end());
+      if (start >= end) {
+        continue;
+      }
+      int first = (start - horizon.start()) / bucketMinutes;
+      int last = (end - 1 - horizon.start()) / bucketMinutes;
+      for (String attendee : event.getAttendees()) {
+        Integer member = memberIndex.get(attendee);
+        if (member == null) {
+          continue;
+        }
+        spanMember[numSpans] = member;
+        spanFirst[numSpans] = first;
+        spanLast[numSpans] = last;
+        numSpans++;
+      }
+    }
+
+    // Counting sort the spans by their first bucket.
+    int[] offsets = new int[numBuckets + 1];
+    for (int i = 0; i < numSpans; i++) {
+      offsets[spanFirst[i] + 1]++;
+    }
+    for (int i = 0; i < numBuckets; i++) {
+      offsets[i + 1] += offsets[i];
+    }
+    int[] order = new int[numSpans];
+    for (int i = 0; i < numSpans; i++) {
+      order[offsets[spanFirst[i]]++] = i;
+    }
+
+    // Sweep the spans in start order. Because spans arrive sorted, remembering the last bucket
+    // already counted for each person is enough to never count them twice in one bucket.
+    int[] lastCounted = new int[memberIndex.size()];
+    Arrays.fill(lastCounted, -1);
+    int[] difference = new int[numBuckets + 1];
+    for (int i : order) {
+      int member = spanMember[i];
+      int from = Math.max(spanFirst[i], lastCounted[member] + 1);
+      if (from > spanLast[i]) {
+        continue;
+      }
+      difference[from]++;
+      difference[spanLast[i] + 1]--;
+      lastCounted[member] = spanLast[i];
+    }
+
+    int running = 0;
+    for (int i = 0; i < numBuckets; i++) {
+      running += difference[i];
+      counts[i] = running;
+    }
+    return counts;
+  }
+}
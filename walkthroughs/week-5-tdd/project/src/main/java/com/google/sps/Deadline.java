@@ -0,0 +1,49 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time after which long running work should stop and return what it has. Deadlines are
+ * cooperative: the work checks {@link #isExpired()} between steps.
+ */
+public final class Deadline {
+  /** A deadline that never expires. */
+  public static final Deadline NONE = new Deadline(0, false);
+
+  private final long expiresAtNanos;
+  private final boolean bounded;
+
+  private Deadline(long expiresAtNanos, boolean bounded) {
+    this.expiresAtNanos = expiresAtNanos;
+    this.bounded = bounded;
+  }
+
+  /**
+   * Creates a deadline that expires {@code millis} milliseconds from now.
+   */
+  public static Deadline after(long millis) {
+    return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis), true);
+  }
+
+  /**
+   * Returns true once the deadline has passed.
+   */
+  public boolean isExpired() {
+    // Compare the difference rather than the values, nanoTime may overflow.
+    return bounded && System.nanoTime() - expiresAtNanos >= 0;
+  }
+}
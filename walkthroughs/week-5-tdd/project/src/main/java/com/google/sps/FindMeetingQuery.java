@@ -14,11 +14,16 @@
 
 package com.google.sps;
 
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public final class FindMeetingQuery {
 
@@ -30,29 +35,104 @@ public final class FindMeetingQuery {
    that can accommodate Optional + Mandatory Attendees or just Mandatory Attendees if no solutions 
    exist for Optional + Mandatory */
   // query uses query helper which returns TimeRange solutions for events and Mandatory attendees
-  public Collection<TimeRange> query (Collection<Event> events, MeetingRequest request){
+  public Collection<TimeRange> query (Iterable<Event> events, MeetingRequest request){
+      return query(events, request, Deadline.NONE);
+  }
+
+  /** The meeting times found before a deadline, and whether the search was cut short. */
+  public static final class Result {
+    private final Collection<TimeRange> times;
+    private final boolean partial;
+
+    private Result(Collection<TimeRange> times, boolean partial) {
+      this.times = times;
+      this.partial = partial;
+    }
+
+    /** Returns the meeting times found, none if the search was cut short. */
+    public Collection<TimeRange> getTimes() {
+      return times;
+    }
+
+    /** Returns true if the deadline expired before every event was checked. */
+    public boolean isPartial() {
+      return partial;
+    }
+  }
+
+  /** Same as {@link #query(Iterable, MeetingRequest)}, but stops early once {@code deadline} 
+   expires. Ranges are only returned once every event has been checked against them, so a query 
+   cut short returns no ranges rather than unchecked ones. Use {@link #queryWithin} to tell that 
+   apart from a day with no free time. */
+  public Collection<TimeRange> query (Iterable<Event> events, MeetingRequest request, 
+      Deadline deadline){
+      return queryWithin(events, request, deadline).getTimes();
+  }
+
+  /** Same as {@link #query(Iterable, MeetingRequest, Deadline)}, but also reports whether the 
+   search was cut short by {@code deadline}. A deadline that expires only after the search has 
+   finished doesn't make the result partial. */
+  public Result queryWithin (Iterable<Event> events, MeetingRequest request, Deadline deadline){
       // For optional attendees, just run queryhelper twice. First with optional  attendees 
       // included, if that is not empty then return. 
       // If empty, then queryhelper just with mandatory attendees. 
       Collection<String> allAttendees = new ArrayList<>(request.getAttendees());
       allAttendees.addAll(request.getOptionalAttendees());
       MeetingRequest requestAll = new MeetingRequest (allAttendees, request.getDuration()); 
-      Collection<TimeRange> solutionsAll = queryHelper(events, requestAll);
+      Collection<TimeRange> solutionsAll = queryHelper(events, requestAll, deadline);
+      // Out of time, there is no time left for a second pass.
+      if (solutionsAll == null){
+        return new Result(new ArrayList<>(), true);
+      }
       // Return query with optional guests, if there are options
       // or if there are no mandatory attendees.
+      if (!(solutionsAll.isEmpty()) || request.getAttendees().isEmpty()){
+        return new Result(solutionsAll, false);
+      }
+      Collection<TimeRange> solutions = queryHelper(events, request, deadline);
+      if (solutions == null){
+        return new Result(new ArrayList<>(), true);
+      }
+      return new Result(solutions, false);
+  }
+
+  /** Same as {@link #query(Iterable, MeetingRequest)} for a single {@code day}, where the 
+   occurrences of {@code recurringEvents} on that day are also treated as busy time. */
+  // Occurrences are generated lazily while the scheduler walks the events, so only the queried 
+  // day is ever expanded no matter how long the recurring events have been running.
+  public Collection<TimeRange> query (Collection<Event> events, 
+      Collection<RecurringEvent> recurringEvents, LocalDate day, MeetingRequest request){
+      Iterable<Event> occurrences = RecurringEvent.expand(recurringEvents, day, day.plusDays(1));
+      return query(concat(events, occurrences), request);
+  }
+
+  /** Same as {@link #query(Iterable, MeetingRequest)} for a single {@code day} as seen in 
+   {@code zone}, where people listed in {@code workingHours} can only be booked during their 
+   working hours. */
+  // Runtime: O(n + a) where n is the number of events and a the number of attendees. Each
+  // person's working hours are a precomputed bitmask of the day's minutes, so intersecting them
+  // is a few word operations per attendee and off-hours are never turned into TimeRanges.
+  public Collection<TimeRange> query (Iterable<Event> events, MeetingRequest request, 
+      Map<String, WorkingHours> workingHours, LocalDate day, ZoneId zone){
+      Collection<String> allAttendees = new ArrayList<>(request.getAttendees());
+      allAttendees.addAll(request.getOptionalAttendees());
+      MeetingRequest requestAll = new MeetingRequest (allAttendees, request.getDuration()); 
+      Collection<TimeRange> solutionsAll = 
+          maskQueryHelper(events, requestAll, workingHours, day, zone);
       if (!(solutionsAll.isEmpty()) || request.getAttendees().isEmpty()){
         return solutionsAll;
       }
       else{
-          return queryHelper(events, request);
+          return maskQueryHelper(events, request, workingHours, day, zone);
       }
   }
 
   //Runtime: O(n^2) where n is the size of the events. 
   /** Given a collection of events and a meeting request, returns a Collection of 
-  TimeRanges that can accommodate the request.*/
+  TimeRanges that can accommodate the request, or null if {@code deadline} expired first.*/
   // Given a possible solution of WHOLE_DAY it takes out portions of time where events conflict.
-  private Collection<TimeRange> queryHelper(Collection<Event> events, MeetingRequest request) {
+  private Collection<TimeRange> queryHelper(Iterable<Event> events, MeetingRequest request, 
+      Deadline deadline) {
     // Want to return a collection of time ranges that work for the given request's Attendees.
     ArrayList<TimeRange> solutions = new ArrayList<>();
     // No options for request longer than a day. Will return no solutions.
@@ -66,6 +146,11 @@ public final class FindMeetingQuery {
       return solutions;
     }
     for (Event event: events){
+        // Out of time. The remaining events could conflict with any solution, so none is 
+        // known to be free.
+        if (deadline.isExpired()){
+            return null;
+        }
         // Check if event attendees are in the request. If not continue to next event.
         if (!overlappingAttendees(request, event)){
             continue;
@@ -77,6 +162,51 @@ public final class FindMeetingQuery {
 
   }
 
+  /** Given events and a meeting request, returns the TimeRanges where every attendee is both 
+  within working hours and free. */
+  // Starts from a mask of the whole day, ANDs in each attendee's working hours and clears the 
+  // minutes taken by conflicting events. Runs of remaining bits are the solutions.
+  private Collection<TimeRange> maskQueryHelper(Iterable<Event> events, MeetingRequest request, 
+      Map<String, WorkingHours> workingHours, LocalDate day, ZoneId zone) {
+    ArrayList<TimeRange> solutions = new ArrayList<>();
+    int dayLength = TimeRange.WHOLE_DAY.duration();
+    // No options for request longer than a day. Will return no solutions.
+    if (request.getDuration() > dayLength){
+      return solutions;
+    }
+    BitSet available = new BitSet(dayLength);
+    available.set(0, dayLength);
+    for (String attendee: request.getAttendees()){
+        WorkingHours hours = workingHours.get(attendee);
+        if (hours != null){
+            available.and(hours.availability(day, zone));
+        }
+    }
+    for (Event event: events){
+        if (available.isEmpty()){
+            break;
+        }
+        if (!overlappingAttendees(request, event)){
+            continue;
+        }
+        int start = Math.max(0, event.getWhen().start());
+        int end = Math.min(dayLength, event.getWhen().end());
+        if (start < end){
+            available.clear(start, end);
+        }
+    }
+    int start = available.nextSetBit(0);
+    while (start >= 0){
+        int end = available.nextClearBit(start);
+        TimeRange freeTime = TimeRange.fromStartEnd(start, end, false);
+        if (isTimeRangeLongEnough(request.getDuration(), freeTime)){
+            solutions.add(freeTime);
+        }
+        start = available.nextSetBit(end);
+    }
+    return solutions;
+  }
+
   /**Splits a TimeRange into two TimeRanges if conflicting event is contained in TimeRange
    or shortens one TimeRange due to conflict with a given event */
   // Runtime: O(n) where n is the size of the Old Solutions.
@@ -159,6 +289,22 @@ public final class FindMeetingQuery {
     }
     
   }
-}
 
+  /** Returns an Iterable that walks {@code first} and then {@code second} without copying them. */
+  private static Iterable<Event> concat(Iterable<Event> first, Iterable<Event> second) {
+    return () -> new Iterator<Event>() {
+      private final Iterator<Event> firstIterator = first.iterator();
+      private final Iterator<Event> secondIterator = second.iterator();
+
+      @Override
+      public boolean hasNext() {
+        return firstIterator.hasNext() || secondIterator.hasNext();
+      }
 
+      @Override
+      public Event next() {
+        return firstIterator.hasNext() ? firstIterator.next() : secondIterator.next();
+      }
+    };
+  }
+}
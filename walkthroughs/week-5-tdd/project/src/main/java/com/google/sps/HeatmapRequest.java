@@ -0,0 +1,76 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+
+/** Describes which group and which span of time a conflict heatmap should cover. */
+public final class HeatmapRequest {
+  // Bucket size used when the client does not ask for one.
+  public static final int DEFAULT_BUCKET_MINUTES = 15;
+
+  // The longest horizon served; longer requests are cut to it.
+  public static final int MAX_HORIZON_MINUTES = 7 * 24 * 60;
+
+  // The group of people whose busy time is counted. Use a set to avoid duplicates.
+  private final Collection<String> attendees = new HashSet<>();
+
+  // The size of each bucket in minutes.
+  private final int bucketMinutes;
+
+  // The horizon covered by the heatmap, in minutes. A missing end means the whole day.
+  private final int start;
+  private final int end;
+
+  public HeatmapRequest(Collection<String> attendees, TimeRange horizon, int bucketMinutes) {
+    this.attendees.addAll(attendees);
+    this.start = horizon.start();
+    this.end = horizon.end();
+    this.bucketMinutes = bucketMinutes;
+  }
+
+  /**
+   * Returns a read-only copy of the people whose busy time is counted.
+   */
+  public Collection<String> getAttendees() {
+    // Gson bypasses the constructor, so the set may be missing if the client left it out.
+    return attendees == null
+        ? Collections.<String>emptySet()
+        : Collections.unmodifiableCollection(attendees);
+  }
+
+  /**
+   * Returns the span of time covered by the heatmap, at most {@link #MAX_HORIZON_MINUTES} long.
+   */
+  public TimeRange getHorizon() {
+    int from = Math.max(start, TimeRange.START_OF_DAY);
+    if (end <= from) {
+      return TimeRange.fromStartEnd(from, Math.max(from, TimeRange.WHOLE_DAY.end()), false);
+    }
+    // Compared as longs, since start and end come from the client.
+    long until = Math.min((long) end, (long) from + MAX_HORIZON_MINUTES);
+    return TimeRange.fromStartEnd(from, (int) until, false);
+  }
+
+  /**
+   * Returns the size of each bucket in minutes, at most {@link #MAX_HORIZON_MINUTES}.
+   */
+  public int getBucketMinutes() {
+    return bucketMinutes > 0
+        ? Math.min(bucketMinutes, MAX_HORIZON_MINUTES) : DEFAULT_BUCKET_MINUTES;
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Estimates how much work {@code FindMeetingQuery} will do for a request, in abstract units, so
+ * expensive requests can be queued or rejected before they take up a thread.
+ */
+public final class QueryCostEstimator {
+
+  // Runtime: O(n) where n is the number of events, which is much cheaper than the query itself.
+
+  /**
+   * Returns the estimated cost of answering {@code request} over {@code horizonDays} days.
+   */
+  public long estimate(Iterable<Event> events, MeetingRequest request, int horizonDays) {
+    Set<String> attendees = new HashSet<>(request.getAttendees());
+    attendees.addAll(request.getOptionalAttendees());
+
+    // Only events with one of the attendees change the candidate slots.
+    long matchedEvents = 0;
+    for (Event event : events) {
+      if (!Collections.disjoint(attendees, event.getAttendees())) {
+        matchedEvents++;
+      }
+    }
+
+    // Optional attendees make the query run a second time with only the required attendees.
+    long passes = request.getOptionalAttendees().isEmpty() ? 1 : 2;
+
+    // Every matched event is compared against every candidate slot, and each event can add at
+    // most one slot, so a pass is quadratic in the matched events.
+    return horizonDays * passes * (attendees.size() + matchedEvents * (matchedEvents + 1));
+  }
+}
@@ -0,0 +1,205 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An RRULE-like description of the dates a recurring event falls on. Recurrences are read-only;
+ * the {@code with} methods return modified copies.
+ */
+public final class Recurrence {
+  /** How often a recurrence repeats. */
+  public enum Frequency {
+    DAILY,
+    WEEKLY,
+    MONTHLY
+  }
+
+  private final LocalDate firstDate;
+  private final Frequency frequency;
+  private final int interval;
+  // The last date an occurrence may fall on (inclusive), or null to repeat forever.
+  private final LocalDate until;
+  private final Set<LocalDate> exceptions = new HashSet<>();
+
+  private Recurrence(LocalDate firstDate, Frequency frequency, int interval, LocalDate until,
+      Set<LocalDate> exceptions) {
+    if (firstDate == null) {
+      throw new IllegalArgumentException("firstDate cannot be null");
+    }
+
+    if (interval <= 0) {
+      throw new IllegalArgumentException("interval must be positive");
+    }
+
+    this.firstDate = firstDate;
+    this.frequency = frequency;
+    this.interval = interval;
+    this.until = until;
+    this.exceptions.addAll(exceptions);
+  }
+
+  /**
+   * Creates a recurrence that happens every day starting on {@code firstDate}.
+   */
+  public static Recurrence daily(LocalDate firstDate) {
+    return new Recurrence(firstDate, Frequency.DAILY, 1, null, Collections.<LocalDate>emptySet());
+  }
+
+  /**
+   * Creates a recurrence that happens every week on the weekday of {@code firstDate}.
+   */
+  public static Recurrence weekly(LocalDate firstDate) {
+    return new Recurrence(firstDate, Frequency.WEEKLY, 1, null, Collections.<LocalDate>emptySet());
+  }
+
+  /**
+   * Creates a recurrence that happens every month on the day of the month of {@code firstDate}.
+   * Like RRULE, months that don't have that day (e.g. the 31st) are skipped.
+   */
+  public static Recurrence monthly(LocalDate firstDate) {
+    return new Recurrence(firstDate, Frequency.MONTHLY, 1, null, Collections.<LocalDate>emptySet());
+  }
+
+  /**
+   * Returns a copy that only repeats every {@code interval} days, weeks or months.
+   */
+  public Recurrence withInterval(int interval) {
+    return new Recurrence(firstDate, frequency, interval, until, exceptions);
+  }
+
+  /**
+   * Returns a copy that stops after {@code until} (inclusive).
+   */
+  public Recurrence withUntil(LocalDate until) {
+    return new Recurrence(firstDate, frequency, interval, until, exceptions);
+  }
+
+  /**
+   * Returns a copy that skips the occurrence on {@code date}.
+   */
+  public Recurrence withException(LocalDate date) {
+    Set<LocalDate> newExceptions = new HashSet<>(exceptions);
+    newExceptions.add(date);
+    return new Recurrence(firstDate, frequency, interval, until, newExceptions);
+  }
+
+  public LocalDate getFirstDate() {
+    return firstDate;
+  }
+
+  public Frequency getFrequency() {
+    return frequency;
+  }
+
+  public int getInterval() {
+    return interval;
+  }
+
+  /**
+   * Returns the dates this recurrence falls on in {@code [from, to)}. The dates are generated
+   * lazily in ascending order; the first one is found arithmetically, so dates before {@code from}
+   * are never visited no matter how long ago the recurrence started.
+   */
+  public Iterable<LocalDate> datesBetween(LocalDate from, LocalDate to) {
+    return () -> new DateIterator(from, to);
+  }
+
+  private final class DateIterator implements Iterator<LocalDate> {
+    private final LocalDate from;
+    private final LocalDate end;
+    // Index of the next candidate in units of {@code interval} steps from {@code firstDate}.
+    private long step;
+    private LocalDate next;
+
+    DateIterator(LocalDate from, LocalDate to) {
+      this.from = from.isBefore(firstDate) ? firstDate : from;
+      // The iterator stops at whichever of {@code to} or the day after {@code until} comes first.
+      this.end = until != null && until.plusDays(1).isBefore(to) ? until.plusDays(1) : to;
+      this.step = firstStep(this.from);
+      this.next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public LocalDate next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      LocalDate date = next;
+      next = advance();
+      return date;
+    }
+
+    /** Returns the first step whose date could be on or after {@code date}. */
+    private long firstStep(LocalDate date) {
+      long units = frequency == Frequency.MONTHLY
+          ? ChronoUnit.MONTHS.between(YearMonth.from(firstDate), YearMonth.from(date))
+          : ChronoUnit.DAYS.between(firstDate, date);
+      long unitsPerStep = frequency == Frequency.WEEKLY ? 7L * interval : interval;
+      return Math.max(0, units / unitsPerStep);
+    }
+
+    /** Returns the next occurrence in range, or null once the range is exhausted. */
+    private LocalDate advance() {
+      while (true) {
+        long current = step++;
+        LocalDate candidate = dateAt(current);
+        if (candidate == null) {
+          // This month doesn't have the first date's day of month, e.g. the 31st. Stop once the
+          // skipped month is already past the range.
+          LocalDate monthStart = YearMonth.from(firstDate).plusMonths(current * interval).atDay(1);
+          if (!monthStart.isBefore(end)) {
+            return null;
+          }
+          continue;
+        }
+        if (!candidate.isBefore(end)) {
+          return null;
+        }
+        if (candidate.isBefore(from) || exceptions.contains(candidate)) {
+          continue;
+        }
+        return candidate;
+      }
+    }
+
+    /** Returns the date at {@code step}, or null if that month has no such day. */
+    private LocalDate dateAt(long step) {
+      switch (frequency) {
+        case DAILY:
+          return firstDate.plusDays(step * interval);
+        case WEEKLY:
+          return firstDate.plusWeeks(step * interval);
+        default:
+          YearMonth month = YearMonth.from(firstDate).plusMonths(step * interval);
+          int day = firstDate.getDayOfMonth();
+          return month.isValidDay(day) ? month.atDay(day) : null;
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * RecurringEvent is the definition of a meeting that repeats, such as a daily stand-up. Only the
+ * definition is stored; single {@code Event} occurrences are generated lazily for the dates that
+ * are actually queried. Recurring events are considered read-only.
+ */
+public final class RecurringEvent {
+  private final String title;
+  private final TimeRange when;
+  private final Set<String> attendees = new HashSet<>();
+  private final Recurrence recurrence;
+
+  /**
+   * Creates a new recurring event.
+   *
+   * @param title The human-readable name for the event. Must be non-null.
+   * @param when The time of day when each occurrence takes place. Must be non-null.
+   * @param attendees The collection of people attending the event. Must be non-null.
+   * @param recurrence The dates the event takes place on. Must be non-null.
+   */
+  public RecurringEvent(
+      String title, TimeRange when, Collection<String> attendees, Recurrence recurrence) {
+    if (title == null) {
+      throw new IllegalArgumentException("title cannot be null");
+    }
+
+    if (when == null) {
+      throw new IllegalArgumentException("when cannot be null");
+    }
+
+    if (attendees == null) {
+      throw new IllegalArgumentException("attendees cannot be null. Use empty array instead.");
+    }
+
+    if (recurrence == null) {
+      throw new IllegalArgumentException("recurrence cannot be null");
+    }
+
+    this.title = title;
+    this.when = when;
+    this.attendees.addAll(attendees);
+    this.recurrence = recurrence;
+  }
+
+  /**
+   * Returns the human-readable name for this event.
+   */
+  public String getTitle() {
+    return title;
+  }
+
+  /**
+   * Returns the time of day each occurrence takes place.
+   */
+  public TimeRange getWhen() {
+    return when;
+  }
+
+  /**
+   * Returns a read-only set of required attendees for this event.
+   */
+  public Set<String> getAttendees() {
+    return Collections.unmodifiableSet(attendees);
+  }
+
+  /**
+   * Returns the dates this event takes place on.
+   */
+  public Recurrence getRecurrence() {
+    return recurrence;
+  }
+
+  /**
+   * Returns the occurrences of this event in {@code [from, to)}. Each occurrence's {@code
+   * TimeRange} is measured in minutes from the start of {@code from}, so a query for a single day
+   * gets ranges within {@code TimeRange.WHOLE_DAY}. Occurrences are created on demand each time the
+   * result is iterated.
+   */
+  public Iterable<Event> occurrencesBetween(LocalDate from, LocalDate to) {
+    return () -> new Iterator<Event>() {
+      private final Iterator<LocalDate> dates = recurrence.datesBetween(from, to).iterator();
+
+      @Override
+      public boolean hasNext() {
+        return dates.hasNext();
+      }
+
+      @Override
+      public Event next() {
+        return occurrenceOn(dates.next(), from);
+      }
+    };
+  }
+
+  /**
+   * Returns the occurrences of all {@code events} in {@code [from, to)}, generated lazily one
+   * recurring event after another. See {@link #occurrencesBetween}.
+   */
+  public static Iterable<Event> expand(
+      Collection<RecurringEvent> events, LocalDate from, LocalDate to) {
+    return () -> new Iterator<Event>() {
+      private final Iterator<RecurringEvent> definitions = events.iterator();
+      private Iterator<Event> current = Collections.emptyIterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!current.hasNext() && definitions.hasNext()) {
+          current = definitions.next().occurrencesBetween(from, to).iterator();
+        }
+        return current.hasNext();
+      }
+
+      @Override
+      public Event next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+    };
+  }
+
+  private Event occurrenceOn(LocalDate date, LocalDate origin) {
+    long dayOffset = ChronoUnit.DAYS.between(origin, date) * TimeRange.WHOLE_DAY.duration();
+    int start = Math.toIntExact(dayOffset + when.start());
+    return new Event(title, TimeRange.fromStartDuration(start, when.duration()), attendees);
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The hours a person can be booked, in their own time zone. Availability is handed out as a {@code
+ * BitSet} with one bit per minute of the queried day, so checking a person against a query only
+ * costs a few word operations.
+ */
+public final class WorkingHours {
+  // Number of bits in an availability mask, one per minute of a day.
+  public static final int MINUTES_PER_DAY = TimeRange.WHOLE_DAY.duration();
+
+  private static final Set<DayOfWeek> WEEKDAYS = Collections.unmodifiableSet(EnumSet.range(
+      DayOfWeek.MONDAY, DayOfWeek.FRIDAY));
+
+  private final ZoneId zone;
+  private final LocalTime start;
+  private final LocalTime end;
+  private final Set<DayOfWeek> workingDays;
+
+  // Masks only depend on the weekday and the offsets of both zones, so there are only a handful
+  // per person. They are computed the first time they are needed and then reused for every query.
+  private final Map<String, BitSet> masks = new ConcurrentHashMap<>();
+
+  /**
+   * Creates working hours of {@code start} to {@code end} on {@code workingDays}. If {@code end} is
+   * before {@code start}, the shift runs past midnight into the next day.
+   */
+  public WorkingHours(
+      ZoneId zone, LocalTime start, LocalTime end, Collection<DayOfWeek> workingDays) {
+    if (zone == null) {
+      throw new IllegalArgumentException("zone cannot be null");
+    }
+
+    if (start == null || end == null) {
+      throw new IllegalArgumentException("start and end cannot be null");
+    }
+
+    if (workingDays == null) {
+      throw new IllegalArgumentException("workingDays cannot be null. Use empty array instead.");
+    }
+
+    this.zone = zone;
+    this.start = start;
+    this.end = end;
+    this.workingDays = workingDays.isEmpty()
+        ? EnumSet.noneOf(DayOfWeek.class)
+        : EnumSet.copyOf(workingDays);
+  }
+
+  /**
+   * Creates working hours of {@code start} to {@code end}, Monday through Friday.
+   */
+  public static WorkingHours weekdays(ZoneId zone, LocalTime start, LocalTime end) {
+    return new WorkingHours(zone, start, end, WEEKDAYS);
+  }
+
+  public ZoneId getZone() {
+    return zone;
+  }
+
+  /**
+   * Returns a mask where bit {@code m} is set if minute {@code m} of {@code day}, as seen in {@code
+   * queryZone}, falls within these working hours. The returned mask is shared and must not be
+   * modified.
+   */
+  public BitSet availability(LocalDate day, ZoneId queryZone) {
+    ZonedDateTime dayStart = day.atStartOfDay(queryZone);
+    Instant from = dayStart.toInstant();
+    Instant to = from.plus(Duration.ofMinutes(MINUTES_PER_DAY));
+
+    // Around a daylight saving change the offsets vary within the day, so the mask can't be
+    // shared with other days. Those days are rare enough to just compute.
+    if (hasTransition(queryZone.getRules(), from, to)
+        || hasTransition(zone.getRules(), from.minus(Duration.ofDays(1)),
+            to.plus(Duration.ofDays(1)))) {
+      return computeAvailability(dayStart);
+    }
+
+    String key = day.getDayOfWeek() + "/" + dayStart.getOffset() + "/"
+        + zone.getRules().getOffset(from);
+    BitSet mask = masks.get(key);
+    if (mask == null) {
+      mask = computeAvailability(dayStart);
+      masks.put(key, mask);
+    }
+    return mask;
+  }
+
+  private BitSet computeAvailability(ZonedDateTime dayStart) {
+    BitSet mask = new BitSet(MINUTES_PER_DAY);
+    Instant from = dayStart.toInstant();
+
+    // Shifts from the day before and after can reach into the queried day once time zones are
+    // taken into account.
+    LocalDate localDay = dayStart.withZoneSameInstant(zone).toLocalDate();
+    for (LocalDate shiftDay = localDay.minusDays(1); !shiftDay.isAfter(localDay.plusDays(1));
+        shiftDay = shiftDay.plusDays(1)) {
+      if (!workingDays.contains(shiftDay.getDayOfWeek())) {
+        continue;
+      }
+      ZonedDateTime shiftStart = shiftDay.atTime(start).atZone(zone);
+      LocalDate endDay = end.isAfter(start) ? shiftDay : shiftDay.plusDays(1);
+      ZonedDateTime shiftEnd = endDay.atTime(end).atZone(zone);
+
+      long startMinute = Duration.between(from, shiftStart.toInstant()).toMinutes();
+      long endMinute = Duration.between(from, shiftEnd.toInstant()).toMinutes();
+      int clippedStart = (int) Math.max(0, startMinute);
+      int clippedEnd = (int) Math.min(MINUTES_PER_DAY, endMinute);
+      if (clippedStart < clippedEnd) {
+        mask.set(clippedStart, clippedEnd);
+      }
+    }
+    return mask;
+  }
+
+  private static boolean hasTransition(ZoneRules rules, Instant from, Instant to) {
+    ZoneOffsetTransition transition = rules.nextTransition(from);
+    return transition != null && transition.getInstant().isBefore(to);
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletContext;
+
+/**
+ * Limits the total estimated cost of the scheduling queries running at once. A request that is
+ * too expensive on its own is rejected straight away; otherwise it waits a short while for enough
+ * budget to free up and is rejected if it doesn't.
+ *
+ * <p>Configured with {@code calendar.costBudget}, {@code calendar.maxRequestCost}, {@code
+ * calendar.queueMillis} and {@code calendar.deadlineMillis}.
+ */
+final class AdmissionController {
+  private static final long DEFAULT_COST_BUDGET = 50_000_000;
+  private static final long DEFAULT_MAX_REQUEST_COST = 10_000_000;
+  private static final long DEFAULT_QUEUE_MILLIS = 200;
+  private static final long DEFAULT_DEADLINE_MILLIS = 2_000;
+
+  private final int costBudget;
+  private final long maxRequestCost;
+  private final long queueMillis;
+  private final long deadlineMillis;
+  // One permit per unit of cost. Fair, so cheap requests can't starve an expensive one forever.
+  private final Semaphore budget;
+
+  AdmissionController(long costBudget, long maxRequestCost, long queueMillis, long deadlineMillis) {
+    if (costBudget <= 0 || costBudget > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("costBudget must be between 1 and " + Integer.MAX_VALUE);
+    }
+    this.costBudget = (int) costBudget;
+    this.maxRequestCost = Math.min(maxRequestCost, costBudget);
+    this.queueMillis = queueMillis;
+    this.deadlineMillis = deadlineMillis;
+    this.budget = new Semaphore(this.costBudget, true);
+  }
+
+  static AdmissionController fromSettings(ServletContext context) {
+    return new AdmissionController(
+        Settings.getLong(context, "calendar.costBudget", DEFAULT_COST_BUDGET),
+        Settings.getLong(context, "calendar.maxRequestCost", DEFAULT_MAX_REQUEST_COST),
+        Settings.getLong(context, "calendar.queueMillis", DEFAULT_QUEUE_MILLIS),
+        Settings.getLong(context, "calendar.deadlineMillis", DEFAULT_DEADLINE_MILLIS));
+  }
+
+  /**
+   * Returns true if a request costing {@code cost} may run now. Callers that get true must call
+   * {@link #release} with the same cost once they are done.
+   */
+  boolean tryAdmit(long cost) {
+    if (cost > maxRequestCost) {
+      return false;
+    }
+    try {
+      return budget.tryAcquire(permits(cost), queueMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  void release(long cost) {
+    budget.release(permits(cost));
+  }
+
+  /**
+   * Returns how long an admitted request may run before it is cut short.
+   */
+  long getDeadlineMillis() {
+    return deadlineMillis;
+  }
+
+  private static int permits(long cost) {
+    // Even a trivial request takes up a thread, so it costs at least one permit.
+    return (int) Math.max(1, cost);
+  }
+}
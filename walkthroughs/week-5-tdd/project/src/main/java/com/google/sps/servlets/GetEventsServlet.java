@@ -17,15 +17,28 @@ package com.google.sps.servlets;
 import com.google.sps.Events;
 import com.google.gson.Gson;
 import java.io.IOException;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-@WebServlet("/get-events")
+@WebServlet(urlPatterns = "/get-events", asyncSupported = true)
 public class GetEventsServlet extends HttpServlet {
+  private RequestExecutor requestExecutor;
+
+  @Override
+  public void init() throws ServletException {
+    requestExecutor = RequestExecutor.get(getServletContext());
+  }
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    requestExecutor.execute(request, response, this::getEvents);
+  }
+
+  private void getEvents(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     Gson gson = new Gson();
     String jsonResponse = gson.toJson(Events.events);
 
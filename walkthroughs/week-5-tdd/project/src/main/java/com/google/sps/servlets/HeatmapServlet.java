@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.ConflictHeatmap;
+import com.google.sps.Events;
+import com.google.sps.HeatmapRequest;
+import com.google.sps.TimeRange;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Returns how many people of a group are busy in each bucket of a horizon. */
+@WebServlet(urlPatterns = "/heatmap", asyncSupported = true)
+public class HeatmapServlet extends HttpServlet {
+  private RequestExecutor requestExecutor;
+
+  @Override
+  public void init() throws ServletException {
+    requestExecutor = RequestExecutor.get(getServletContext());
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    requestExecutor.execute(request, response, this::countConflicts);
+  }
+
+  private void countConflicts(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    Gson gson = new Gson();
+
+    // Convert the JSON to an instance of HeatmapRequest.
+    HeatmapRequest heatmapRequest = gson.fromJson(request.getReader(), HeatmapRequest.class);
+    TimeRange horizon = heatmapRequest.getHorizon();
+    int bucketMinutes = heatmapRequest.getBucketMinutes();
+
+    int[] counts = new ConflictHeatmap().count(
+        Arrays.asList(Events.events), heatmapRequest.getAttendees(), horizon, bucketMinutes);
+
+    // Send the counts as one flat array rather than an object per bucket.
+    response.setContentType("application/json");
+    response.getWriter().println(
+        gson.toJson(new HeatmapResponse(horizon.start(), bucketMinutes, counts)));
+  }
+
+  /** The JSON shape of a heatmap. Bucket {@code i} starts at {@code start + i * bucketMinutes}. */
+  private static final class HeatmapResponse {
+    private final int start;
+    private final int bucketMinutes;
+    private final int[] counts;
+
+    HeatmapResponse(int start, int bucketMinutes, int[] counts) {
+      this.start = start;
+      this.bucketMinutes = bucketMinutes;
+      this.counts = counts;
+    }
+  }
+}
@@ -14,35 +14,73 @@
 
 package com.google.sps.servlets;
 
+import com.google.sps.Deadline;
+import com.google.sps.Event;
 import com.google.sps.Events;
 import com.google.sps.FindMeetingQuery;
 import com.google.sps.MeetingRequest;
-import com.google.sps.TimeRange;
+import com.google.sps.QueryCostEstimator;
 import com.google.gson.Gson;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-@WebServlet("/query")
+@WebServlet(urlPatterns = "/query", asyncSupported = true)
 public class QueryServlet extends HttpServlet {
+  // HttpServletResponse has no constant for this status.
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+
+  private RequestExecutor requestExecutor;
+  private AdmissionController admissionController;
+
+  @Override
+  public void init() throws ServletException {
+    requestExecutor = RequestExecutor.get(getServletContext());
+    admissionController = AdmissionController.fromSettings(getServletContext());
+  }
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    requestExecutor.execute(request, response, this::findMeetingTimes);
+  }
+
+  private void findMeetingTimes(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     Gson gson = new Gson();
 
     // Convert the JSON to an instance of MeetingRequest.
     MeetingRequest meetingRequest = gson.fromJson(request.getReader(), MeetingRequest.class);
 
+    // Turn away requests that are too expensive to run right now.
+    Collection<Event> events = Arrays.asList(Events.events);
+    long cost = new QueryCostEstimator().estimate(events, meetingRequest, 1);
+    if (!admissionController.tryAdmit(cost)) {
+      response.setHeader("Retry-After", "1");
+      response.sendError(SC_TOO_MANY_REQUESTS, "Meeting request is too expensive to run now.");
+      return;
+    }
+
     // Find the possible meeting times.
-    FindMeetingQuery findMeetingQuery = new FindMeetingQuery();
-    Collection<TimeRange> answer =
-        findMeetingQuery.query(Arrays.asList(Events.events), meetingRequest);
+    FindMeetingQuery.Result answer;
+    Deadline deadline = Deadline.after(admissionController.getDeadlineMillis());
+    try {
+      FindMeetingQuery findMeetingQuery = new FindMeetingQuery();
+      answer = findMeetingQuery.queryWithin(events, meetingRequest, deadline);
+    } finally {
+      admissionController.release(cost);
+    }
+    if (answer.isPartial()) {
+      // Let the client know the search was cut short and free times may be missing.
+      response.setHeader("X-Partial-Result", "true");
+    }
 
     // Convert the times to JSON
-    String jsonResponse = gson.toJson(answer);
+    String jsonResponse = gson.toJson(answer.getTimes());
 
     // Send the JSON back as the response
     response.setContentType("application/json");
@@ -0,0 +1,180 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs request handlers either on the container's thread (the default) or, in async mode, on a
+ * separate executor using the servlet async API. Async mode frees the container thread as soon as
+ * the request is dispatched, so handlers that block on I/O don't cap concurrency at the size of the
+ * container's pool. Virtual threads are used when the JVM has them, otherwise a bounded pool.
+ *
+ * <p>The mode is read from the {@code calendar.executionMode} context init parameter or system
+ * property ({@code sync} or {@code async}). {@code calendar.asyncThreads} and {@code
+ * calendar.asyncQueue} size the fallback pool.
+ */
+public final class RequestExecutor {
+  /** How request handlers are run. */
+  public enum Mode {
+    SYNC,
+    ASYNC
+  }
+
+  /** The body of a request, run on whichever thread the mode picks. */
+  public interface RequestHandler {
+    void handle(HttpServletRequest request, HttpServletResponse response) throws IOException;
+  }
+
+  private static final String ATTRIBUTE = RequestExecutor.class.getName();
+  private static final long ASYNC_TIMEOUT_MILLIS = 30_000;
+  private static final int DEFAULT_ASYNC_THREADS = 64;
+  private static final int DEFAULT_ASYNC_QUEUE = 1_000;
+
+  private static final Logger logger = Logger.getLogger(RequestExecutor.class.getName());
+
+  private final Mode mode;
+  private final ExecutorService executor;
+
+  RequestExecutor(Mode mode, ExecutorService executor) {
+    this.mode = mode;
+    this.executor = executor;
+  }
+
+  /**
+   * Returns the executor shared by every servlet of {@code context}, creating it on first use.
+   */
+  public static RequestExecutor get(ServletContext context) {
+    synchronized (context) {
+      RequestExecutor requestExecutor = (RequestExecutor) context.getAttribute(ATTRIBUTE);
+      if (requestExecutor == null) {
+        requestExecutor = create(context);
+        context.setAttribute(ATTRIBUTE, requestExecutor);
+      }
+      return requestExecutor;
+    }
+  }
+
+  /** Creates the shared executor when the app starts and shuts it down when it stops. */
+  @WebListener
+  public static final class Lifecycle implements ServletContextListener {
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+      get(event.getServletContext());
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+      ServletContext context = event.getServletContext();
+      RequestExecutor requestExecutor = (RequestExecutor) context.getAttribute(ATTRIBUTE);
+      context.removeAttribute(ATTRIBUTE);
+      if (requestExecutor != null && requestExecutor.executor != null) {
+        requestExecutor.executor.shutdown();
+      }
+    }
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Runs {@code handler} for the request. In async mode this returns as soon as the handler has
+   * been queued; the response is completed once the handler finishes.
+   */
+  public void execute(HttpServletRequest request, HttpServletResponse response,
+      RequestHandler handler) throws IOException {
+    if (mode == Mode.SYNC || !request.isAsyncSupported()) {
+      handler.handle(request, response);
+      return;
+    }
+
+    AsyncContext asyncContext = request.startAsync(request, response);
+    asyncContext.setTimeout(ASYNC_TIMEOUT_MILLIS);
+    try {
+      executor.execute(() -> {
+        try {
+          handler.handle((HttpServletRequest) asyncContext.getRequest(),
+              (HttpServletResponse) asyncContext.getResponse());
+        } catch (IOException | RuntimeException e) {
+          // Nothing above this thread reports it, so the container's log won't show it either.
+          logger.log(Level.SEVERE, "Request handler failed.", e);
+          sendError(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+          asyncContext.complete();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The queue is full. Tell the client to back off rather than holding the container thread.
+      sendError(asyncContext, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      asyncContext.complete();
+    }
+  }
+
+  private static void sendError(AsyncContext asyncContext, int status) {
+    HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+    if (response.isCommitted()) {
+      return;
+    }
+    try {
+      response.sendError(status);
+    } catch (IOException e) {
+      // The client is gone, there is nobody left to tell.
+    }
+  }
+
+  private static RequestExecutor create(ServletContext context) {
+    String modeName = Settings.get(context, "calendar.executionMode", "sync");
+    Mode mode = Mode.valueOf(modeName.toUpperCase());
+    if (mode == Mode.SYNC) {
+      return new RequestExecutor(Mode.SYNC, null);
+    }
+    int threads = (int) Settings.getLong(context, "calendar.asyncThreads", DEFAULT_ASYNC_THREADS);
+    int queue = (int) Settings.getLong(context, "calendar.asyncQueue", DEFAULT_ASYNC_QUEUE);
+    return new RequestExecutor(Mode.ASYNC, newAsyncExecutor(threads, queue));
+  }
+
+  /**
+   * Returns a virtual thread per task executor when running on a JVM that has them, or else a
+   * pool of at most {@code threads} threads with a queue of {@code queue} waiting requests.
+   */
+  static ExecutorService newAsyncExecutor(int threads, int queue) {
+    try {
+      // Looked up by reflection because this project still compiles for Java 8.
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(queue));
+      pool.allowCoreThreadTimeOut(true);
+      return pool;
+    }
+  }
+}
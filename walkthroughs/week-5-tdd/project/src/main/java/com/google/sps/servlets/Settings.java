@@ -0,0 +1,36 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import javax.servlet.ServletContext;
+
+/** Reads tuning knobs from context init parameters, falling back to system properties. */
+final class Settings {
+  private Settings() {
+    // Disallow instances.
+  }
+
+  static String get(ServletContext context, String name, String defaultValue) {
+    String value = context.getInitParameter(name);
+    if (value == null) {
+      value = System.getProperty(name, defaultValue);
+    }
+    return value;
+  }
+
+  static long getLong(ServletContext context, String name, long defaultValue) {
+    return Long.parseLong(get(context, name, String.valueOf(defaultValue)));
+  }
+}
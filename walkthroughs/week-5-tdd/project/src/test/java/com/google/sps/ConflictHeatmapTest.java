@@ -0,0 +1,165 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class ConflictHeatmapTest {
+  private static final Collection<Event> NO_EVENTS = Collections.emptySet();
+
+  // Some people that we can use in our tests.
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+  private static final String PERSON_C = "Person C";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0830AM = TimeRange.getTimeInMinutes(8, 30);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+
+  // One hour from 8:00 to 9:00, split into four 15 minute buckets.
+  private static final TimeRange HORIZON = TimeRange.fromStartEnd(TIME_0800AM, TIME_0900AM, false);
+  private static final int BUCKET_15_MINUTES = 15;
+
+  private ConflictHeatmap heatmap;
+
+  @Before
+  public void setUp() {
+    heatmap = new ConflictHeatmap();
+  }
+
+  @Test
+  public void noEventsMeansNobodyBusy() {
+    int[] actual =
+        heatmap.count(NO_EVENTS, Arrays.asList(PERSON_A), HORIZON, BUCKET_15_MINUTES);
+
+    Assert.assertArrayEquals(new int[] {0, 0, 0, 0}, actual);
+  }
+
+  @Test
+  public void countsEachBusyPerson() {
+    // Person A : |---------|
+    // Person B :      |----|
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TIME_0800AM, TIME_0900AM, false),
+            Arrays.asList(PERSON_A)),
+        new Event("Event 2", TimeRange.fromStartEnd(TIME_0830AM, TIME_0900AM, false),
+            Arrays.asList(PERSON_B)));
+
+    int[] actual = heatmap.count(
+        events, Arrays.asList(PERSON_A, PERSON_B), HORIZON, BUCKET_15_MINUTES);
+
+    Assert.assertArrayEquals(new int[] {1, 1, 2, 2}, actual);
+  }
+
+  @Test
+  public void overlappingEventsCountPersonOnce() {
+    // Person A : |----|
+    // Person A :   |-----|
+    // Person A :  |-|
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartDuration(TIME_0800AM, 30),
+            Arrays.asList(PERSON_A)),
+        new Event("Event 2", TimeRange.fromStartDuration(TIME_0800AM + 20, 25),
+            Arrays.asList(PERSON_A)),
+        new Event("Event 3", TimeRange.fromStartDuration(TIME_0800AM + 5, 5),
+            Arrays.asList(PERSON_A)));
+
+    int[] actual =
+        heatmap.count(events, Arrays.asList(PERSON_A), HORIZON, BUCKET_15_MINUTES);
+
+    Assert.assertArrayEquals(new int[] {1, 1, 1, 0}, actual);
+  }
+
+  @Test
+  public void partialOverlapMarksBucketBusy() {
+    // A five minute event at the end of the first bucket still makes that bucket busy.
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartDuration(TIME_0800AM + 10, 10),
+            Arrays.asList(PERSON_A)));
+
+    int[] actual =
+        heatmap.count(events, Arrays.asList(PERSON_A), HORIZON, BUCKET_15_MINUTES);
+
+    Assert.assertArrayEquals(new int[] {1, 1, 0, 0}, actual);
+  }
+
+  @Test
+  public void ignoresPeopleOutsideGroup() {
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TIME_0800AM, TIME_0900AM, false),
+            Arrays.asList(PERSON_A, PERSON_C)));
+
+    int[] actual = heatmap.count(
+        events, Arrays.asList(PERSON_A, PERSON_B), HORIZON, BUCKET_15_MINUTES);
+
+    Assert.assertArrayEquals(new int[] {1, 1, 1, 1}, actual);
+  }
+
+  @Test
+  public void clipsEventsToHorizon() {
+    // Events before and after the horizon don't count, events spanning an edge are clipped.
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+            Arrays.asList(PERSON_A)),
+        new Event("Event 2", TimeRange.fromStartEnd(TIME_0830AM, TIME_1000AM, false),
+            Arrays.asList(PERSON_B)));
+
+    int[] actual = heatmap.count(
+        events, Arrays.asList(PERSON_A, PERSON_B), HORIZON, BUCKET_15_MINUTES);
+
+    Assert.assertArrayEquals(new int[] {0, 0, 1, 1}, actual);
+  }
+
+  @Test
+  public void lastBucketMayBeShorter() {
+    TimeRange horizon = TimeRange.fromStartDuration(TIME_0800AM, 40);
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartDuration(TIME_0800AM + 35, 5),
+            Arrays.asList(PERSON_A)));
+
+    int[] actual = heatmap.count(events, Arrays.asList(PERSON_A), horizon, BUCKET_15_MINUTES);
+
+    Assert.assertArrayEquals(new int[] {0, 0, 1}, actual);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEmptyBuckets() {
+    heatmap.count(NO_EVENTS, Arrays.asList(PERSON_A), HORIZON, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTooManyBuckets() {
+    TimeRange horizon = TimeRange.fromStartDuration(0, ConflictHeatmap.MAX_BUCKETS + 1);
+    heatmap.count(NO_EVENTS, Arrays.asList(PERSON_A), horizon, 1);
+  }
+
+  @Test
+  public void hugeBucketIsOneBucket() {
+    int[] actual =
+        heatmap.count(NO_EVENTS, Arrays.asList(PERSON_A), HORIZON, Integer.MAX_VALUE);
+
+    Assert.assertArrayEquals(new int[] {0}, actual);
+  }
+}
@@ -14,11 +14,16 @@
 
 package com.google.sps;
 
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -392,5 +397,130 @@ public final class FindMeetingQueryTest {
     Assert.assertEquals(expected, actual);
   }
 
-}
+  @Test
+  public void recurringEventsOnQueriedDayAreBusy() {
+    // Options :       |--A--|     |--B--|
+    // Day     : |-----------------------------|
+    // Options : |--1--|     |--2--|     |--3--|
+    //
+    // A is a daily stand-up, B a weekly sync. Only the occurrences on the queried day count, and
+    // the daily stand-up is skipped on that day's exception.
+
+    LocalDate day = LocalDate.of(2020, 1, 8);
+    Collection<RecurringEvent> recurringEvents = Arrays.asList(
+        new RecurringEvent("Stand-up",
+            TimeRange.fromStartDuration(TIME_0800AM, DURATION_30_MINUTES), Arrays.asList(PERSON_A),
+            Recurrence.daily(LocalDate.of(2020, 1, 1))),
+        new RecurringEvent("Sync",
+            TimeRange.fromStartDuration(TIME_0900AM, DURATION_30_MINUTES), Arrays.asList(PERSON_B),
+            Recurrence.weekly(LocalDate.of(2020, 1, 1))),
+        new RecurringEvent("Skipped",
+            TimeRange.fromStartDuration(TIME_1000AM, DURATION_30_MINUTES), Arrays.asList(PERSON_A),
+            Recurrence.daily(LocalDate.of(2020, 1, 1)).withException(day)));
+
+    MeetingRequest request =
+        new MeetingRequest(Arrays.asList(PERSON_A, PERSON_B), DURATION_30_MINUTES);
+
+    Collection<TimeRange> actual = query.query(NO_EVENTS, recurringEvents, day, request);
+    Collection<TimeRange> expected =
+        Arrays.asList(TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+            TimeRange.fromStartEnd(TIME_0830AM, TIME_0900AM, false),
+            TimeRange.fromStartEnd(TIME_0930AM, TimeRange.END_OF_DAY, true));
+
+    Assert.assertEquals(expected, actual);
+  }
 
+  @Test
+  public void onlyWithinWorkingHours() {
+    // Hours  :           |-------A-------|
+    // Events :                 |--A--|
+    // Day    : |-----------------------------|
+    // Options:           |--1--|     |-2-|
+
+    LocalDate day = LocalDate.of(2020, 1, 7);
+    ZoneId utc = ZoneId.of("UTC");
+    Map<String, WorkingHours> workingHours = new HashMap<>();
+    workingHours.put(PERSON_A,
+        WorkingHours.weekdays(utc, LocalTime.of(8, 0), LocalTime.of(11, 0)));
+
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TIME_0900AM, TIME_1000AM, false),
+            Arrays.asList(PERSON_A)));
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+
+    Collection<TimeRange> actual = query.query(events, request, workingHours, day, utc);
+    Collection<TimeRange> expected =
+        Arrays.asList(TimeRange.fromStartEnd(TIME_0800AM, TIME_0900AM, false),
+            TimeRange.fromStartEnd(TIME_1000AM, TIME_1100AM, false));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void optionalAttendeeInOtherTimeZoneIgnored() {
+    // Person B works 9:00 - 17:00 in Tokyo, which never overlaps with Person A's hours in UTC,
+    // so only Person A's working hours are returned.
+
+    LocalDate day = LocalDate.of(2020, 1, 7);
+    ZoneId utc = ZoneId.of("UTC");
+    Map<String, WorkingHours> workingHours = new HashMap<>();
+    workingHours.put(PERSON_A, WorkingHours.weekdays(utc, LocalTime.of(9, 0), LocalTime.of(17, 0)));
+    workingHours.put(PERSON_B,
+        WorkingHours.weekdays(ZoneId.of("Asia/Tokyo"), LocalTime.of(9, 0), LocalTime.of(17, 0)));
+
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+    request.addOptionalAttendee(PERSON_B);
+
+    Collection<TimeRange> actual = query.query(NO_EVENTS, request, workingHours, day, utc);
+    Collection<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(TIME_0900AM, TimeRange.getTimeInMinutes(17, 0), false));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void expiredDeadlineReturnsNoUncheckedTimes() {
+    // The deadline has already passed, so the 8:00 event is never checked and no time is known
+    // to be free.
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartDuration(TIME_0800AM, DURATION_30_MINUTES),
+            Arrays.asList(PERSON_A)));
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+    Deadline deadline = Deadline.after(0);
+
+    FindMeetingQuery.Result actual = query.queryWithin(events, request, deadline);
+    Collection<TimeRange> expected = Arrays.asList();
+
+    Assert.assertTrue(actual.isPartial());
+    Assert.assertEquals(expected, actual.getTimes());
+  }
+
+  @Test
+  public void deadlineExpiringWithNothingLeftToCheckIsNotPartial() {
+    // The deadline has passed, but there are no events left to check, so the whole day is known
+    // to be free.
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+
+    FindMeetingQuery.Result actual = query.queryWithin(NO_EVENTS, request, Deadline.after(0));
+    Collection<TimeRange> expected = Arrays.asList(TimeRange.WHOLE_DAY);
+
+    Assert.assertFalse(actual.isPartial());
+    Assert.assertEquals(expected, actual.getTimes());
+  }
+
+  @Test
+  public void unexpiredDeadlineIsNotPartial() {
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartDuration(TIME_0800AM, DURATION_30_MINUTES),
+            Arrays.asList(PERSON_A)));
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+
+    FindMeetingQuery.Result actual = query.queryWithin(events, request, Deadline.NONE);
+    Collection<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+        TimeRange.fromStartEnd(TIME_0830AM, TimeRange.END_OF_DAY, true));
+
+    Assert.assertFalse(actual.isPartial());
+    Assert.assertEquals(expected, actual.getTimes());
+  }
+}
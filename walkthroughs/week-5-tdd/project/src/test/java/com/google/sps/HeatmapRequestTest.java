@@ -0,0 +1,44 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class HeatmapRequestTest {
+  private static final String PERSON_A = "Person A";
+
+  @Test
+  public void clampsLongHorizon() {
+    HeatmapRequest request = new HeatmapRequest(
+        Arrays.asList(PERSON_A), TimeRange.fromStartEnd(0, 2000000000, false), 1);
+
+    TimeRange expected = TimeRange.fromStartDuration(0, HeatmapRequest.MAX_HORIZON_MINUTES);
+    Assert.assertEquals(expected, request.getHorizon());
+  }
+
+  @Test
+  public void clampsLargeBuckets() {
+    HeatmapRequest request =
+        new HeatmapRequest(Arrays.asList(PERSON_A), TimeRange.WHOLE_DAY, Integer.MAX_VALUE);
+
+    Assert.assertEquals(HeatmapRequest.MAX_HORIZON_MINUTES, request.getBucketMinutes());
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class QueryCostEstimatorTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+  private static final String PERSON_C = "Person C";
+
+  private static final int DURATION_1_HOUR = 60;
+
+  private static final Collection<Event> EVENTS = Arrays.asList(
+      new Event("Event 1", TimeRange.fromStartDuration(0, 30), Arrays.asList(PERSON_A)),
+      new Event("Event 2", TimeRange.fromStartDuration(60, 30), Arrays.asList(PERSON_B)),
+      new Event("Event 3", TimeRange.fromStartDuration(120, 30), Arrays.asList(PERSON_C)));
+
+  private QueryCostEstimator estimator;
+
+  @Before
+  public void setUp() {
+    estimator = new QueryCostEstimator();
+  }
+
+  @Test
+  public void onlyMatchedEventsCount() {
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+
+    // 1 attendee plus 1 matched event compared against up to 2 slots.
+    Assert.assertEquals(3, estimator.estimate(EVENTS, request, 1));
+  }
+
+  @Test
+  public void optionalAttendeesAddSecondPass() {
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    request.addOptionalAttendee(PERSON_B);
+
+    // 2 passes of 2 attendees plus 2 matched events compared against up to 3 slots.
+    Assert.assertEquals(16, estimator.estimate(EVENTS, request, 1));
+  }
+
+  @Test
+  public void scalesWithHorizon() {
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+
+    Assert.assertEquals(7 * estimator.estimate(EVENTS, request, 1),
+        estimator.estimate(EVENTS, request, 7));
+  }
+}
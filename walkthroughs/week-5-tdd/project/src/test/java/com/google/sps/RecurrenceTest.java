@@ -0,0 +1,134 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class RecurrenceTest {
+  private static final String PERSON_A = "Person A";
+
+  private static final LocalDate JAN_01 = LocalDate.of(2020, 1, 1);
+  private static final LocalDate JAN_31 = LocalDate.of(2020, 1, 31);
+
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int DURATION_15_MINUTES = 15;
+
+  private static List<LocalDate> toList(Iterable<LocalDate> dates) {
+    List<LocalDate> list = new ArrayList<>();
+    for (LocalDate date : dates) {
+      list.add(date);
+    }
+    return list;
+  }
+
+  @Test
+  public void dailyWithInterval() {
+    Recurrence recurrence = Recurrence.daily(JAN_01).withInterval(2);
+
+    List<LocalDate> actual = toList(recurrence.datesBetween(JAN_01, LocalDate.of(2020, 1, 8)));
+    List<LocalDate> expected = Arrays.asList(JAN_01, LocalDate.of(2020, 1, 3),
+        LocalDate.of(2020, 1, 5), LocalDate.of(2020, 1, 7));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void weeklyStartsInsideRange() {
+    // The range starts mid-week, so the first occurrence is the next Wednesday.
+    Recurrence recurrence = Recurrence.weekly(JAN_01);
+
+    List<LocalDate> actual =
+        toList(recurrence.datesBetween(LocalDate.of(2020, 1, 3), LocalDate.of(2020, 1, 20)));
+    List<LocalDate> expected = Arrays.asList(LocalDate.of(2020, 1, 8), LocalDate.of(2020, 1, 15));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void monthlySkipsShortMonths() {
+    Recurrence recurrence = Recurrence.monthly(JAN_31);
+
+    List<LocalDate> actual = toList(recurrence.datesBetween(JAN_01, LocalDate.of(2020, 6, 1)));
+    List<LocalDate> expected =
+        Arrays.asList(JAN_31, LocalDate.of(2020, 3, 31), LocalDate.of(2020, 5, 31));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void exceptionsAndUntil() {
+    Recurrence recurrence = Recurrence.daily(JAN_01)
+        .withException(LocalDate.of(2020, 1, 2))
+        .withUntil(LocalDate.of(2020, 1, 3));
+
+    List<LocalDate> actual = toList(recurrence.datesBetween(JAN_01, JAN_31));
+    List<LocalDate> expected = Arrays.asList(JAN_01, LocalDate.of(2020, 1, 3));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void rangeBeforeFirstDate() {
+    Recurrence recurrence = Recurrence.daily(JAN_31);
+
+    List<LocalDate> actual = toList(recurrence.datesBetween(JAN_01, JAN_31));
+
+    Assert.assertEquals(Arrays.asList(), actual);
+  }
+
+  @Test
+  public void farFutureRangeIsGeneratedLazily() {
+    // A recurrence running for centuries only produces what the caller asks for.
+    Recurrence recurrence = Recurrence.daily(JAN_01);
+
+    Iterator<LocalDate> dates =
+        recurrence.datesBetween(LocalDate.of(2400, 1, 1), LocalDate.of(9999, 1, 1)).iterator();
+
+    Assert.assertEquals(LocalDate.of(2400, 1, 1), dates.next());
+    Assert.assertEquals(LocalDate.of(2400, 1, 2), dates.next());
+  }
+
+  @Test
+  public void occurrencesAreOffsetFromRangeStart() {
+    RecurringEvent standup = new RecurringEvent("Stand-up",
+        TimeRange.fromStartDuration(TIME_0900AM, DURATION_15_MINUTES), Arrays.asList(PERSON_A),
+        Recurrence.daily(JAN_01));
+
+    List<Event> actual = new ArrayList<>();
+    LocalDate from = LocalDate.of(2020, 1, 5);
+    for (Event event : standup.occurrencesBetween(from, from.plusDays(2))) {
+      actual.add(event);
+    }
+    List<Event> expected = Arrays.asList(
+        new Event("Stand-up", TimeRange.fromStartDuration(TIME_0900AM, DURATION_15_MINUTES),
+            Arrays.asList(PERSON_A)),
+        new Event("Stand-up",
+            TimeRange.fromStartDuration(
+                TimeRange.WHOLE_DAY.duration() + TIME_0900AM, DURATION_15_MINUTES),
+            Arrays.asList(PERSON_A)));
+
+    Assert.assertEquals(expected, actual);
+  }
+}
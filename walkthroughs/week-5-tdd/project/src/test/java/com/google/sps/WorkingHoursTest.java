@@ -0,0 +1,105 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.BitSet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class WorkingHoursTest {
+  private static final ZoneId UTC = ZoneId.of("UTC");
+  private static final ZoneId TOKYO = ZoneId.of("Asia/Tokyo");
+  private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+  private static final LocalTime NINE_AM = LocalTime.of(9, 0);
+  private static final LocalTime FIVE_PM = LocalTime.of(17, 0);
+
+  // 2020-01-07 is a Tuesday.
+  private static final LocalDate TUESDAY = LocalDate.of(2020, 1, 7);
+  private static final LocalDate SATURDAY = LocalDate.of(2020, 1, 11);
+
+  private static BitSet minutes(int start, int end) {
+    BitSet mask = new BitSet();
+    mask.set(start, end);
+    return mask;
+  }
+
+  @Test
+  public void sameZone() {
+    WorkingHours hours = WorkingHours.weekdays(UTC, NINE_AM, FIVE_PM);
+
+    BitSet actual = hours.availability(TUESDAY, UTC);
+
+    Assert.assertEquals(minutes(9 * 60, 17 * 60), actual);
+  }
+
+  @Test
+  public void notWorkingOnWeekend() {
+    WorkingHours hours = WorkingHours.weekdays(UTC, NINE_AM, FIVE_PM);
+
+    BitSet actual = hours.availability(SATURDAY, UTC);
+
+    Assert.assertTrue(actual.isEmpty());
+  }
+
+  @Test
+  public void otherZoneIsShifted() {
+    // 9:00 in Tokyo is midnight UTC, so the whole shift falls in the first 8 hours of the day.
+    WorkingHours hours = WorkingHours.weekdays(TOKYO, NINE_AM, FIVE_PM);
+
+    BitSet actual = hours.availability(TUESDAY, UTC);
+
+    Assert.assertEquals(minutes(0, 8 * 60), actual);
+  }
+
+  @Test
+  public void overnightShift() {
+    // Monday night's shift runs into Tuesday morning, Tuesday's starts in the evening.
+    WorkingHours hours = WorkingHours.weekdays(UTC, LocalTime.of(22, 0), LocalTime.of(6, 0));
+
+    BitSet actual = hours.availability(TUESDAY, UTC);
+
+    BitSet expected = minutes(0, 6 * 60);
+    expected.set(22 * 60, 24 * 60);
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void daylightSavingChange() {
+    // Daylight saving started in New York on 2020-03-08, so 9:00 is 13:00 UTC the day after.
+    WorkingHours hours = WorkingHours.weekdays(NEW_YORK, NINE_AM, FIVE_PM);
+
+    BitSet actual = hours.availability(LocalDate.of(2020, 3, 9), UTC);
+
+    Assert.assertEquals(minutes(13 * 60, 21 * 60), actual);
+  }
+
+  @Test
+  public void masksAreReused() {
+    WorkingHours hours = WorkingHours.weekdays(TOKYO, NINE_AM, FIVE_PM);
+
+    BitSet first = hours.availability(TUESDAY, UTC);
+    BitSet second = hours.availability(TUESDAY.plusWeeks(1), UTC);
+
+    Assert.assertSame(first, second);
+  }
+}
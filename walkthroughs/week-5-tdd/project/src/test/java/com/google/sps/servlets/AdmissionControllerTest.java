@@ -0,0 +1,72 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class AdmissionControllerTest {
+  private static final long BUDGET = 100;
+  private static final long MAX_REQUEST_COST = 60;
+  private static final long QUEUE_MILLIS = 10;
+  private static final long DEADLINE_MILLIS = 1_000;
+
+  private AdmissionController controller;
+
+  @Before
+  public void setUp() {
+    controller = new AdmissionController(BUDGET, MAX_REQUEST_COST, QUEUE_MILLIS, DEADLINE_MILLIS);
+  }
+
+  @Test
+  public void rejectsRequestOverMaxCost() {
+    Assert.assertFalse(controller.tryAdmit(MAX_REQUEST_COST + 1));
+  }
+
+  @Test
+  public void rejectsWhenBudgetIsUsedUp() {
+    Assert.assertTrue(controller.tryAdmit(50));
+    Assert.assertTrue(controller.tryAdmit(50));
+
+    Assert.assertFalse(controller.tryAdmit(1));
+  }
+
+  @Test
+  public void releaseFreesBudget() {
+    Assert.assertTrue(controller.tryAdmit(60));
+    Assert.assertFalse(controller.tryAdmit(60));
+
+    controller.release(60);
+
+    Assert.assertTrue(controller.tryAdmit(60));
+  }
+
+  @Test
+  public void queuedRequestRunsOnceBudgetFrees() throws Exception {
+    AdmissionController patient = new AdmissionController(BUDGET, MAX_REQUEST_COST, 5_000, 0);
+    Assert.assertTrue(patient.tryAdmit(60));
+
+    Thread releaser = new Thread(() -> patient.release(60));
+    releaser.start();
+
+    Assert.assertTrue(patient.tryAdmit(60));
+    releaser.join();
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Simulates a container with a small thread pool serving requests whose handlers block on I/O, and
+ * checks how many handlers run at once in sync and async mode.
+ */
+@RunWith(JUnit4.class)
+public final class RequestExecutorLoadTest {
+  private static final int CONTAINER_THREADS = 4;
+  private static final int REQUESTS = 200;
+  private static final long BLOCKING_IO_MILLIS = 20;
+
+  /**
+   * Serves {@code REQUESTS} requests whose handlers run {@code blockingIo}, and returns the most
+   * handlers that were running at the same time.
+   */
+  private static int serveBurst(RequestExecutor requestExecutor, Runnable blockingIo)
+      throws Exception {
+    ExecutorService container = Executors.newFixedThreadPool(CONTAINER_THREADS);
+    CountDownLatch done = new CountDownLatch(REQUESTS);
+    HttpServletResponse response = fakeResponse();
+    HttpServletRequest request = fakeRequest(response, done);
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger peak = new AtomicInteger();
+
+    for (int i = 0; i < REQUESTS; i++) {
+      container.execute(() -> {
+        try {
+          requestExecutor.execute(request, response, (req, resp) -> {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            blockingIo.run();
+            inFlight.decrementAndGet();
+            if (requestExecutor.getMode() == RequestExecutor.Mode.SYNC) {
+              done.countDown();
+            }
+          });
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+    }
+    Assert.assertTrue(done.await(1, TimeUnit.MINUTES));
+    container.shutdown();
+    return peak.get();
+  }
+
+  /** A request whose async context counts down {@code done} when it completes. */
+  private static HttpServletRequest fakeRequest(
+      HttpServletResponse response, CountDownLatch done) {
+    HttpServletRequest[] request = new HttpServletRequest[1];
+    AsyncContext asyncContext = (AsyncContext) Proxy.newProxyInstance(
+        AsyncContext.class.getClassLoader(), new Class<?>[] {AsyncContext.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getRequest":
+              return request[0];
+            case "getResponse":
+              return response;
+            case "complete":
+              done.countDown();
+              return null;
+            default:
+              return null;
+          }
+        });
+    request[0] = (HttpServletRequest) Proxy.newProxyInstance(
+        HttpServletRequest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "isAsyncSupported":
+              return true;
+            case "startAsync":
+              return asyncContext;
+            default:
+              return null;
+          }
+        });
+    return request[0];
+  }
+
+  private static HttpServletResponse fakeResponse() {
+    return (HttpServletResponse) Proxy.newProxyInstance(
+        HttpServletResponse.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class},
+        (proxy, method, args) -> method.getName().equals("isCommitted") ? false : null);
+  }
+
+  @Test
+  public void syncModeIsCappedByContainerThreads() throws Exception {
+    RequestExecutor sync = new RequestExecutor(RequestExecutor.Mode.SYNC, null);
+
+    int peak = serveBurst(sync, () -> {
+      try {
+        // Stands in for loading events from Datastore or a file.
+        Thread.sleep(BLOCKING_IO_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    Assert.assertTrue(peak <= CONTAINER_THREADS);
+  }
+
+  @Test
+  public void asyncModeIsNotCappedByContainerThreads() throws Exception {
+    ExecutorService asyncExecutor = RequestExecutor.newAsyncExecutor(REQUESTS, REQUESTS);
+    RequestExecutor async = new RequestExecutor(RequestExecutor.Mode.ASYNC, asyncExecutor);
+    CountDownLatch allStarted = new CountDownLatch(REQUESTS);
+
+    // Every handler blocks until all of them have started, which only happens if none of them
+    // holds a container thread.
+    int peak = serveBurst(async, () -> {
+      allStarted.countDown();
+      try {
+        allStarted.await(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    asyncExecutor.shutdown();
+
+    Assert.assertEquals(REQUESTS, peak);
+  }
+}